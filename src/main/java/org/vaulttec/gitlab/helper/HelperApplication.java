@@ -19,8 +19,10 @@ package org.vaulttec.gitlab.helper;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class HelperApplication {
 
   public static void main(String[] args) {
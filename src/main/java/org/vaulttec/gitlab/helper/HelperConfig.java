@@ -17,16 +17,45 @@
  */
 package org.vaulttec.gitlab.helper;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.boot.actuate.audit.AuditEventRepository;
 import org.springframework.boot.actuate.audit.InMemoryAuditEventRepository;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import org.vaulttec.gitlab.helper.audit.PersistentAuditEventRepository;
+
+import java.nio.file.Paths;
+import java.time.Duration;
 
 @Configuration
 @ConfigurationProperties(prefix = "helper")
 public class HelperConfig {
   private int auditEventRepositoryCapacity;
+  private String auditEventRepositoryDirectory;
+  private int auditEventRepositoryBufferSize = 8192;
+  private DataSize auditEventRepositorySegmentSize = DataSize.ofMegabytes(16);
+  private Duration auditEventRepositorySegmentMaxAge = Duration.ofDays(1);
+  private int auditEventRepositoryMaxSegments = 30;
+  private String webhookSecretToken;
+  private int variableEventsMaxSubscribers = 10000;
+  private int variableEventsQueueSize = 32;
+  private Duration variableEventsTimeout = Duration.ofMinutes(30);
+  private Duration variableEventsHeartbeatInterval = Duration.ofSeconds(30);
+  private int variableEventsSenderThreads = 8;
+  private Duration variableEventsSendTimeout = Duration.ofSeconds(10);
+  private boolean rateLimitEnabled = true;
+  private int rateLimitReadsPerMinute = 600;
+  private int rateLimitReadBurst = 60;
+  private int rateLimitWritesPerMinute = 60;
+  private int rateLimitWriteBurst = 10;
+  private int rateLimitUnauthenticatedPerMinute = 60;
+  private int rateLimitUnauthenticatedBurst = 20;
+  private Duration requestTimeout = Duration.ofSeconds(30);
+  private Duration requestMaxTimeout = Duration.ofMinutes(2);
+  private DataSize fileVariableMaxSize = DataSize.ofMegabytes(1);
 
   public int getAuditEventRepositoryCapacity() {
     return auditEventRepositoryCapacity;
@@ -36,8 +65,189 @@ public class HelperConfig {
     this.auditEventRepositoryCapacity = auditEventRepositoryCapacity;
   }
 
+  public String getAuditEventRepositoryDirectory() {
+    return auditEventRepositoryDirectory;
+  }
+
+  public void setAuditEventRepositoryDirectory(String auditEventRepositoryDirectory) {
+    this.auditEventRepositoryDirectory = auditEventRepositoryDirectory;
+  }
+
+  public int getAuditEventRepositoryBufferSize() {
+    return auditEventRepositoryBufferSize;
+  }
+
+  public void setAuditEventRepositoryBufferSize(int auditEventRepositoryBufferSize) {
+    this.auditEventRepositoryBufferSize = auditEventRepositoryBufferSize;
+  }
+
+  public DataSize getAuditEventRepositorySegmentSize() {
+    return auditEventRepositorySegmentSize;
+  }
+
+  public void setAuditEventRepositorySegmentSize(DataSize auditEventRepositorySegmentSize) {
+    this.auditEventRepositorySegmentSize = auditEventRepositorySegmentSize;
+  }
+
+  public Duration getAuditEventRepositorySegmentMaxAge() {
+    return auditEventRepositorySegmentMaxAge;
+  }
+
+  public void setAuditEventRepositorySegmentMaxAge(Duration auditEventRepositorySegmentMaxAge) {
+    this.auditEventRepositorySegmentMaxAge = auditEventRepositorySegmentMaxAge;
+  }
+
+  public int getAuditEventRepositoryMaxSegments() {
+    return auditEventRepositoryMaxSegments;
+  }
+
+  public void setAuditEventRepositoryMaxSegments(int auditEventRepositoryMaxSegments) {
+    this.auditEventRepositoryMaxSegments = auditEventRepositoryMaxSegments;
+  }
+
+  public String getWebhookSecretToken() {
+    return webhookSecretToken;
+  }
+
+  public void setWebhookSecretToken(String webhookSecretToken) {
+    this.webhookSecretToken = webhookSecretToken;
+  }
+
+  public int getVariableEventsMaxSubscribers() {
+    return variableEventsMaxSubscribers;
+  }
+
+  public void setVariableEventsMaxSubscribers(int variableEventsMaxSubscribers) {
+    this.variableEventsMaxSubscribers = variableEventsMaxSubscribers;
+  }
+
+  public int getVariableEventsQueueSize() {
+    return variableEventsQueueSize;
+  }
+
+  public void setVariableEventsQueueSize(int variableEventsQueueSize) {
+    this.variableEventsQueueSize = variableEventsQueueSize;
+  }
+
+  public Duration getVariableEventsTimeout() {
+    return variableEventsTimeout;
+  }
+
+  public void setVariableEventsTimeout(Duration variableEventsTimeout) {
+    this.variableEventsTimeout = variableEventsTimeout;
+  }
+
+  public Duration getVariableEventsHeartbeatInterval() {
+    return variableEventsHeartbeatInterval;
+  }
+
+  public void setVariableEventsHeartbeatInterval(Duration variableEventsHeartbeatInterval) {
+    this.variableEventsHeartbeatInterval = variableEventsHeartbeatInterval;
+  }
+
+  public int getVariableEventsSenderThreads() {
+    return variableEventsSenderThreads;
+  }
+
+  public void setVariableEventsSenderThreads(int variableEventsSenderThreads) {
+    this.variableEventsSenderThreads = variableEventsSenderThreads;
+  }
+
+  public Duration getVariableEventsSendTimeout() {
+    return variableEventsSendTimeout;
+  }
+
+  public void setVariableEventsSendTimeout(Duration variableEventsSendTimeout) {
+    this.variableEventsSendTimeout = variableEventsSendTimeout;
+  }
+
+  public boolean isRateLimitEnabled() {
+    return rateLimitEnabled;
+  }
+
+  public void setRateLimitEnabled(boolean rateLimitEnabled) {
+    this.rateLimitEnabled = rateLimitEnabled;
+  }
+
+  public int getRateLimitReadsPerMinute() {
+    return rateLimitReadsPerMinute;
+  }
+
+  public void setRateLimitReadsPerMinute(int rateLimitReadsPerMinute) {
+    this.rateLimitReadsPerMinute = rateLimitReadsPerMinute;
+  }
+
+  public int getRateLimitReadBurst() {
+    return rateLimitReadBurst;
+  }
+
+  public void setRateLimitReadBurst(int rateLimitReadBurst) {
+    this.rateLimitReadBurst = rateLimitReadBurst;
+  }
+
+  public int getRateLimitWritesPerMinute() {
+    return rateLimitWritesPerMinute;
+  }
+
+  public void setRateLimitWritesPerMinute(int rateLimitWritesPerMinute) {
+    this.rateLimitWritesPerMinute = rateLimitWritesPerMinute;
+  }
+
+  public int getRateLimitWriteBurst() {
+    return rateLimitWriteBurst;
+  }
+
+  public void setRateLimitWriteBurst(int rateLimitWriteBurst) {
+    this.rateLimitWriteBurst = rateLimitWriteBurst;
+  }
+
+  public int getRateLimitUnauthenticatedPerMinute() {
+    return rateLimitUnauthenticatedPerMinute;
+  }
+
+  public void setRateLimitUnauthenticatedPerMinute(int rateLimitUnauthenticatedPerMinute) {
+    this.rateLimitUnauthenticatedPerMinute = rateLimitUnauthenticatedPerMinute;
+  }
+
+  public int getRateLimitUnauthenticatedBurst() {
+    return rateLimitUnauthenticatedBurst;
+  }
+
+  public void setRateLimitUnauthenticatedBurst(int rateLimitUnauthenticatedBurst) {
+    this.rateLimitUnauthenticatedBurst = rateLimitUnauthenticatedBurst;
+  }
+
+  public Duration getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  public void setRequestTimeout(Duration requestTimeout) {
+    this.requestTimeout = requestTimeout;
+  }
+
+  public Duration getRequestMaxTimeout() {
+    return requestMaxTimeout;
+  }
+
+  public void setRequestMaxTimeout(Duration requestMaxTimeout) {
+    this.requestMaxTimeout = requestMaxTimeout;
+  }
+
+  public DataSize getFileVariableMaxSize() {
+    return fileVariableMaxSize;
+  }
+
+  public void setFileVariableMaxSize(DataSize fileVariableMaxSize) {
+    this.fileVariableMaxSize = fileVariableMaxSize;
+  }
+
   @Bean
-  public AuditEventRepository auditEventRepository() throws Exception {
+  public AuditEventRepository auditEventRepository(MeterRegistry meterRegistry) throws Exception {
+    if (StringUtils.hasText(getAuditEventRepositoryDirectory())) {
+      return new PersistentAuditEventRepository(Paths.get(getAuditEventRepositoryDirectory()),
+          getAuditEventRepositoryCapacity(), getAuditEventRepositoryBufferSize(), getAuditEventRepositorySegmentSize().toBytes(),
+          getAuditEventRepositorySegmentMaxAge(), getAuditEventRepositoryMaxSegments(), meterRegistry);
+    }
     return new InMemoryAuditEventRepository(getAuditEventRepositoryCapacity());
   }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class ApiConfig implements WebMvcConfigurer {
+  private final RateLimitInterceptor rateLimitInterceptor;
+  private final DeadlineInterceptor deadlineInterceptor;
+
+  public ApiConfig(RateLimitInterceptor rateLimitInterceptor, DeadlineInterceptor deadlineInterceptor) {
+    this.rateLimitInterceptor = rateLimitInterceptor;
+    this.deadlineInterceptor = deadlineInterceptor;
+  }
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+    registry.addInterceptor(rateLimitInterceptor).addPathPatterns("/groups", "/groups/**");
+    registry.addInterceptor(deadlineInterceptor).addPathPatterns("/groups", "/groups/**");
+  }
+}
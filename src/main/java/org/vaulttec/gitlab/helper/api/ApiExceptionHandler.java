@@ -0,0 +1,64 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.vaulttec.http.client.BulkheadFullException;
+import org.vaulttec.http.client.DeadlineExceededException;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Maps exceptions of the GitLab client, the request deadline and the rate limiter to responses. The error response body is rendered by Spring Boot like for
+ * any other error.
+ */
+@RestControllerAdvice
+public class ApiExceptionHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(ApiExceptionHandler.class);
+
+  /**
+   * Sheds load if GitLab is saturated by the helper - the client is asked to retry later.
+   */
+  @ExceptionHandler(BulkheadFullException.class)
+  public void handleBulkheadFull(BulkheadFullException e, HttpServletResponse response) throws IOException {
+    LOG.debug("Rejecting request: {}", e.getMessage());
+    response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfter().toSeconds()));
+    response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage());
+  }
+
+  /**
+   * The GitLab calls of the request didn't complete within the request's deadline.
+   */
+  @ExceptionHandler(DeadlineExceededException.class)
+  public void handleDeadlineExceeded(DeadlineExceededException e, HttpServletResponse response) throws IOException {
+    LOG.debug("Aborting request: {}", e.getMessage());
+    response.sendError(HttpStatus.GATEWAY_TIMEOUT.value(), e.getMessage());
+  }
+
+  @ExceptionHandler(RateLimitExceededException.class)
+  public void handleRateLimitExceeded(RateLimitExceededException e, HttpServletResponse response) throws IOException {
+    response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfter().toSeconds()));
+    response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), e.getMessage());
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.http.client.Deadline;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.time.Duration;
+
+/**
+ * Binds a {@link Deadline} to the thread processing an API request, so the GitLab calls triggered by the request
+ * share the request's time budget instead of each having the full timeout. The client can shorten or extend the
+ * configured timeout (up to the maximum) with the {@value #HEADER_NAME_TIMEOUT} header, e.g. {@code 5s} or
+ * {@code 500} (milliseconds).
+ * <p>
+ * The deadline is cancelled when the request is completed, so GitLab calls still pending for it (e.g. of
+ * concurrently retrieved ancestor groups) aren't sent any more.
+ */
+@Component
+public class DeadlineInterceptor implements AsyncHandlerInterceptor {
+  public static final String HEADER_NAME_TIMEOUT = "X-Request-Timeout";
+  private static final String ATTRIBUTE_DEADLINE = DeadlineInterceptor.class.getName() + ".deadline";
+
+  private final Duration timeout;
+  private final Duration maxTimeout;
+
+  public DeadlineInterceptor(HelperConfig config) {
+    this.timeout = config.getRequestTimeout();
+    this.maxTimeout = config.getRequestMaxTimeout();
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    Deadline deadline = Deadline.after(getTimeout(request));
+    request.setAttribute(ATTRIBUTE_DEADLINE, deadline);
+    deadline.attach();
+    return true;
+  }
+
+  @Override
+  public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    // The request thread is released while the response is streamed
+    Deadline.detach();
+  }
+
+  @Override
+  public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+    Deadline deadline = (Deadline) request.getAttribute(ATTRIBUTE_DEADLINE);
+    if (deadline != null) {
+      deadline.cancel();
+    }
+    Deadline.detach();
+  }
+
+  private Duration getTimeout(HttpServletRequest request) {
+    String header = request.getHeader(HEADER_NAME_TIMEOUT);
+    if (!StringUtils.hasText(header)) {
+      return timeout;
+    }
+    Duration requested;
+    try {
+      requested = DurationStyle.detectAndParse(header.trim());
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid " + HEADER_NAME_TIMEOUT + " header");
+    }
+    if (requested.isNegative() || requested.isZero()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid " + HEADER_NAME_TIMEOUT + " header");
+    }
+    return requested.compareTo(maxTimeout) > 0 ? maxTimeout : requested;
+  }
+}
@@ -17,50 +17,201 @@
  */
 package org.vaulttec.gitlab.helper.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import org.springframework.web.server.ResponseStatusException;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.gitlab.helper.api.model.EffectiveVariable;
 import org.vaulttec.gitlab.helper.api.model.Group;
 import org.vaulttec.gitlab.helper.api.model.Variable;
+import org.vaulttec.gitlab.helper.api.model.VariableEvent;
+import org.vaulttec.gitlab.helper.api.model.VariableKey;
+import org.vaulttec.gitlab.helper.gitlab.CachedValue;
+import org.vaulttec.gitlab.helper.gitlab.GitLabClient;
 import org.vaulttec.gitlab.helper.gitlab.GitLabService;
+import org.vaulttec.gitlab.helper.gitlab.GroupCatalog;
+import org.vaulttec.gitlab.helper.gitlab.InheritedVariable;
+import org.vaulttec.gitlab.helper.gitlab.PermissionResolver;
+import org.vaulttec.gitlab.helper.gitlab.VariableIndex;
+import org.vaulttec.gitlab.helper.gitlab.VariableResolver;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
 import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPage;
 import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
 import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
 import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableValue;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @RestController
 public class GroupVariablesController {
+  public static final String HEADER_NAME_TOTAL = "X-Total";
+  public static final String HEADER_NAME_NEXT_CURSOR = "X-Next-Cursor";
+  public static final String PROJECTION_KEYS = "keys";
+  public static final String PARAM_ENVIRONMENT_SCOPE_FILTER = GitLabClient.PARAM_ENVIRONMENT_SCOPE_FILTER;
   private static final Logger LOG = LoggerFactory.getLogger(GroupVariablesController.class);
+  private static final String VARIABLE_TYPE_FILE = "file";
 
+  private final HelperConfig config;
   private final GitLabService service;
+  private final GroupCatalog catalog;
+  private final VariableResolver resolver;
+  private final PermissionResolver permissionResolver;
+  private final VariableEventHub eventHub;
+  private final ObjectMapper objectMapper;
 
-  public GroupVariablesController(GitLabService service) {
+  public GroupVariablesController(HelperConfig config, GitLabService service, GroupCatalog catalog, VariableResolver resolver, PermissionResolver permissionResolver, VariableEventHub eventHub, ObjectMapper objectMapper) {
+    this.config = config;
     this.service = service;
+    this.catalog = catalog;
+    this.resolver = resolver;
+    this.permissionResolver = permissionResolver;
+    this.eventHub = eventHub;
+    this.objectMapper = objectMapper;
   }
 
   @GetMapping("/groups")
-  public List<Group> getGroups(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken) {
+  public ResponseEntity<byte[]> getGroups(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @RequestParam(name = "min_access_level", required = false) String minAccessLevel, @RequestParam(name = "page", required = false) Integer page, @RequestParam(name = "per_page", required = false) Integer perPage, @RequestParam(name = "cursor", required = false) String cursor, WebRequest request) {
     GLUser user = getUser(personalAccessToken);
     LOG.info("Retrieving groups of user {}", user.getUsername());
-    List<GLMembership> groupMemberships = getGroupMemberships(user);
-    return groupMemberships.stream().map(membership -> new Group(membership.getSourceId(), membership.getSourceName(), membership.getPermission())).collect(Collectors.toList());
+    Map<String, String> pageParams = PageCursor.getPageParams(page, perPage, cursor);
+    if (StringUtils.hasText(minAccessLevel)) {
+      CachedValue<List<GLMembership>> groupMemberships = service.getCachedGroupMemberships(user, personalAccessToken, getPermission(minAccessLevel));
+      if (groupMemberships == null) {
+        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Retrieving group membership failed");
+      }
+      if (pageParams != null) {
+        return pageResponse(GLPage.of(groupMemberships.getValue(), pageParams), GroupVariablesController::toGroup);
+      }
+      return groupsResponse(groupMemberships, request);
+    }
+    if (pageParams != null) {
+      GLPage<GLMembership> groupMemberships = service.getGroupMembershipsPage(user.getId(), pageParams);
+      if (groupMemberships == null) {
+        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Retrieving group membership failed");
+      }
+      return pageResponse(groupMemberships, GroupVariablesController::toGroup);
+    }
+    CachedValue<List<GLMembership>> groupMemberships = getCachedGroupMemberships(user);
+    return groupsResponse(groupMemberships, request);
+  }
+
+  @GetMapping("/groups/search")
+  public List<Group> searchGroups(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @RequestParam("q") String query, @RequestParam(name = "limit", defaultValue = "20") int limit) {
+    GLUser user = getUser(personalAccessToken);
+    LOG.info("Searching groups '{}' for user {}", query, user.getUsername());
+    if (!StringUtils.hasText(query)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing required param 'q'");
+    }
+    Map<Long, GLMembership> groupMemberships = getGroupMemberships(user).stream().collect(Collectors.toMap(GLMembership::getSourceId, Function.identity(), (first, second) -> first));
+    List<GLGroup> groups;
+    if (catalog.isLoaded()) {
+      groups = catalog.search(query, group -> groupMemberships.containsKey(group.getId()), limit);
+    } else {
+      // Fall back to GitLab's search until the catalog is loaded
+      groups = service.searchGroups(query);
+      if (groups == null) {
+        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Searching groups failed");
+      }
+      groups = groups.stream().filter(group -> groupMemberships.containsKey(group.getId())).limit(limit).collect(Collectors.toList());
+    }
+    return groups.stream().map(group -> new Group(group.getId(), group.getName(), groupMemberships.get(group.getId()).getPermission())).collect(Collectors.toList());
   }
 
   @GetMapping("/groups/{groupId}/variables")
-  public List<Variable> getGroupVariables(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId) {
+  public ResponseEntity<byte[]> getGroupVariables(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId, @RequestParam(name = "projection", required = false) String projection, @RequestParam(name = "page", required = false) Integer page, @RequestParam(name = "per_page", required = false) Integer perPage, @RequestParam(name = "cursor", required = false) String cursor, WebRequest request, HttpServletResponse response) throws IOException {
+    boolean keysOnly = isKeysProjection(projection);
+    Map<String, String> pageParams = PageCursor.getPageParams(page, perPage, cursor);
+    // If supported, GitLab authorises the user while the variables are retrieved with the user's own token
+    CachedValue<List<GLVariable>> variables = pageParams == null && !keysOnly ? service.getCachedGroupVariables(personalAccessToken, groupId) : null;
     GLUser user = getUser(personalAccessToken);
     LOG.info("Retrieving group variables of group {} for user {}", groupId, user.getUsername());
-    GLMembership groupMembership = getGroupMembership(user, groupId);
-    List<GLVariable> variables = getGroupVariables(groupMembership);
-    return variables.stream().map(variable -> new Variable(variable.getKey(), variable.getValue(), variable.getVariableType(), variable.getIsProtected(), variable.getIsMasked(), variable.getEnvironmentScope())).collect(Collectors.toList());
+    if (variables == null) {
+      GLMembership groupMembership = getGroupMembership(user, groupId);
+      if (pageParams != null) {
+        GLPage<GLVariable> variablesPage = service.getGroupVariablesPage(groupMembership.getSourceId(), pageParams);
+        if (variablesPage == null) {
+          throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Retrieving group variables failed");
+        }
+        Function<GLVariable, Object> mapper = keysOnly ? variable -> toVariableKey(GLVariableKey.of(variable)) : GroupVariablesController::toVariable;
+        return pageResponse(variablesPage, mapper);
+      }
+      if (keysOnly) {
+        CachedValue<List<GLVariableKey>> variableKeys = service.getCachedGroupVariableKeys(groupMembership.getSourceId());
+        if (variableKeys == null) {
+          throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Retrieving group variables failed");
+        }
+        if (request.checkNotModified(variableKeys.getETag())) {
+          return null;
+        }
+        return jsonResponse(variableKeys.getEncoded("variable-keys", keys -> encode(keys.stream().map(GroupVariablesController::toVariableKey).collect(Collectors.toList()))));
+      }
+      variables = getCachedGroupVariables(groupMembership);
+    }
+    if (request.checkNotModified(variables.getETag())) {
+      return null;
+    }
+    if (variables.getValue().stream().anyMatch(variable -> variable.getStoredValue() != null)) {
+      writeVariables(variables.getValue(), response);
+      return null;
+    }
+    return jsonResponse(variables.getEncoded("variables", vars -> encode(vars.stream().map(GroupVariablesController::toVariable).collect(Collectors.toList()))));
+  }
+
+  @GetMapping("/groups/{groupId}/variables/effective")
+  public List<EffectiveVariable> getEffectiveGroupVariables(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId, @RequestParam(name = "environment", required = false) String environment) {
+    GLUser user = getUser(personalAccessToken);
+    LOG.info("Retrieving effective group variables of group {} for user {}", groupId, user.getUsername());
+    getGroupMembership(user, groupId);
+    List<InheritedVariable> variables = resolver.getEffectiveVariables(groupId, StringUtils.hasText(environment) ? environment : null);
+    if (variables == null) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Retrieving effective group variables failed");
+    }
+    // Values of ancestor groups are only revealed to users with sufficient permission in these groups
+    CachedValue<List<GLMembership>> groupMemberships = getCachedGroupMemberships(user);
+    Map<Long, Boolean> permittedGroupIds = new HashMap<>();
+    return variables.stream().map(inherited -> {
+      GLVariable variable = inherited.getVariable();
+      boolean permitted = permittedGroupIds.computeIfAbsent(inherited.getGroupId(), id -> {
+        GLPermission permission = permissionResolver.getPermission(id, groupMemberships);
+        return permission != null && permission.compareAccessLevel(GLPermission.MAINTAINER) >= 0;
+      });
+      String value = permitted ? variable.getValue() : null;
+      return new EffectiveVariable(variable.getKey(), value, variable.getVariableType(), variable.getIsProtected(), variable.getIsMasked(), variable.getEnvironmentScope(), inherited.getGroupId());
+    }).collect(Collectors.toList());
+  }
+
+  @GetMapping(path = "/groups/{groupId}/variables/events", produces = {MediaType.TEXT_EVENT_STREAM_VALUE})
+  public SseEmitter getGroupVariableEvents(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId) {
+    GLUser user = getUser(personalAccessToken);
+    LOG.info("Subscribing to variable events of group {} for user {}", groupId, user.getUsername());
+    getGroupMembership(user, groupId);
+    return eventHub.subscribe(groupId, user.getId());
   }
 
   @PostMapping(path = "/groups/{groupId}/variables", consumes = {MediaType.APPLICATION_FORM_URLENCODED_VALUE})
@@ -69,49 +220,102 @@ public class GroupVariablesController {
     LOG.info("Creating {} in group {} for user {}", variable, groupId, user.getUsername());
     checkVariable(variable);
     GLMembership groupMembership = getGroupMembership(user, groupId);
-    List<GLVariable> variables = getGroupVariables(groupMembership);
-    if (variables.stream().anyMatch(v -> v.getKey().equals(variable.getKey()))) {
+    VariableIndex variables = getGroupVariableIndex(groupMembership);
+    if (variables.contains(variable.getKey(), variable.getEnvironmentScope())) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Group variable already exists");
     }
     GLVariable newVariable = service.createGroupVariable(groupId, variable.getKey(), variable.getValue(), variable.getVariableType(), variable.getIsProtected(), variable.getIsMasked(), variable.getEnvironmentScope());
     if (newVariable == null) {
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Creating group variable failed");
     }
+    eventHub.publish(new VariableEvent(VariableEvent.TYPE_CREATED, groupId, newVariable.getKey(), newVariable.getEnvironmentScope()));
     return new Variable(newVariable.getKey(), newVariable.getValue(), newVariable.getVariableType(), newVariable.getIsProtected(), newVariable.getIsMasked(), newVariable.getEnvironmentScope());
   }
 
   @PutMapping(path = "/groups/{groupId}/variables", consumes = {MediaType.APPLICATION_FORM_URLENCODED_VALUE})
-  public Variable updateGroupVariable(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId, Variable variable) {
+  public Variable updateGroupVariable(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId, @RequestParam(name = PARAM_ENVIRONMENT_SCOPE_FILTER, required = false) String environmentScopeFilter, Variable variable) {
     GLUser user = getUser(personalAccessToken);
     LOG.info("Updating {} in group {} for user {}", variable, groupId, user.getUsername());
     checkVariable(variable);
     GLMembership groupMembership = getGroupMembership(user, groupId);
-    List<GLVariable> variables = getGroupVariables(groupMembership);
-    if (!variables.stream().anyMatch(v -> v.getKey().equals(variable.getKey()))) {
-      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Group variable does not exist");
-    }
-    GLVariable updatedVariable = service.updateGroupVariable(groupId, variable.getKey(), variable.getValue(), variable.getVariableType(), variable.getIsProtected(), variable.getIsMasked(), variable.getEnvironmentScope());
+    GLVariable existingVariable = getUpdatedVariable(getGroupVariableIndex(groupMembership), variable.getKey(), environmentScopeFilter, variable.getEnvironmentScope());
+    GLVariable updatedVariable = service.updateGroupVariable(groupId, variable.getKey(), existingVariable.getEnvironmentScope(), variable.getValue(), variable.getVariableType(), variable.getIsProtected(), variable.getIsMasked(), variable.getEnvironmentScope());
     if (updatedVariable == null) {
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Updating group variable failed");
     }
+    publishUpdate(groupId, existingVariable, updatedVariable.getKey(), updatedVariable.getEnvironmentScope());
     return new Variable(updatedVariable.getKey(), updatedVariable.getValue(), updatedVariable.getVariableType(), updatedVariable.getIsProtected(), updatedVariable.getIsMasked(), updatedVariable.getEnvironmentScope());
   }
 
+  /**
+   * Creates a file variable with the request body as value. The value is checked and streamed to GitLab without
+   * holding it in memory as a whole, so it isn't returned either.
+   */
+  @PostMapping(path = "/groups/{groupId}/variables/{key}/file", consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE})
+  public VariableKey createGroupFileVariable(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId, @PathVariable String key, @RequestParam(name = "isProtected", required = false) Boolean isProtected, @RequestParam(name = "isMasked", required = false) Boolean isMasked, @RequestParam(name = "environmentScope", required = false) String environmentScope, HttpServletRequest request) throws IOException {
+    GLUser user = getUser(personalAccessToken);
+    LOG.info("Creating file variable {} in group {} for user {}", key, groupId, user.getUsername());
+    InputStream value = getFileVariableValue(key, isMasked, request);
+    GLMembership groupMembership = getGroupMembership(user, groupId);
+    VariableIndex variables = getGroupVariableIndex(groupMembership);
+    if (variables.contains(key, environmentScope)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Group variable already exists");
+    }
+    GLVariableKey newVariable = service.createGroupVariable(groupId, key, value, VARIABLE_TYPE_FILE, isProtected, isMasked, environmentScope);
+    if (newVariable == null) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Creating group variable failed");
+    }
+    eventHub.publish(new VariableEvent(VariableEvent.TYPE_CREATED, groupId, newVariable.getKey(), newVariable.getEnvironmentScope()));
+    return toVariableKey(newVariable);
+  }
+
+  /**
+   * Updates a file variable with the request body as value, see
+   * {@link #createGroupFileVariable(String, long, String, Boolean, Boolean, String, HttpServletRequest)}.
+   */
+  @PutMapping(path = "/groups/{groupId}/variables/{key}/file", consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE})
+  public VariableKey updateGroupFileVariable(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId, @PathVariable String key, @RequestParam(name = PARAM_ENVIRONMENT_SCOPE_FILTER, required = false) String environmentScopeFilter, @RequestParam(name = "isProtected", required = false) Boolean isProtected, @RequestParam(name = "isMasked", required = false) Boolean isMasked, @RequestParam(name = "environmentScope", required = false) String environmentScope, HttpServletRequest request) throws IOException {
+    GLUser user = getUser(personalAccessToken);
+    LOG.info("Updating file variable {} in group {} for user {}", key, groupId, user.getUsername());
+    InputStream value = getFileVariableValue(key, isMasked, request);
+    GLMembership groupMembership = getGroupMembership(user, groupId);
+    GLVariable existingVariable = getUpdatedVariable(getGroupVariableIndex(groupMembership), key, environmentScopeFilter, environmentScope);
+    GLVariableKey updatedVariable = service.updateGroupVariable(groupId, key, existingVariable.getEnvironmentScope(), value, VARIABLE_TYPE_FILE, isProtected, isMasked, environmentScope);
+    if (updatedVariable == null) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Updating group variable failed");
+    }
+    publishUpdate(groupId, existingVariable, updatedVariable.getKey(), updatedVariable.getEnvironmentScope());
+    return toVariableKey(updatedVariable);
+  }
+
   @DeleteMapping("/groups/{groupId}/variables/{key}")
-  public void deleteGroupVariable(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId, @PathVariable String key) {
+  public void deleteGroupVariable(@RequestHeader("PRIVATE-TOKEN") String personalAccessToken, @PathVariable long groupId, @PathVariable String key, @RequestParam(name = PARAM_ENVIRONMENT_SCOPE_FILTER, required = false) String environmentScopeFilter) {
     GLUser user = getUser(personalAccessToken);
     LOG.info("Deleting variable {} in group {} for user {}", key, groupId, user.getUsername());
     if (!StringUtils.hasText(key)) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing required param 'key'");
     }
     GLMembership groupMembership = getGroupMembership(user, groupId);
-    List<GLVariable> variables = getGroupVariables(groupMembership);
-    if (!variables.stream().anyMatch(v -> v.getKey().equals(key))) {
-      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Group variable does not exist");
-    }
-    if (!service.deleteGroupVariable(groupId, key)) {
+    GLVariable existingVariable = getExistingVariable(getGroupVariableIndex(groupMembership), key, environmentScopeFilter);
+    if (!service.deleteGroupVariable(groupId, key, existingVariable.getEnvironmentScope())) {
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Deleting group variable failed");
     }
+    eventHub.publish(new VariableEvent(VariableEvent.TYPE_DELETED, groupId, key, existingVariable.getEnvironmentScope()));
+  }
+
+  /**
+   * Publishes the update of the given variable. Moving a variable to another environment scope is published as
+   * deletion and creation, as subscribers identify variables by key and environment scope.
+   */
+  private void publishUpdate(long groupId, GLVariable existingVariable, String updatedKey, String updatedEnvironmentScope) {
+    String environmentScope = VariableIndex.getEnvironmentScope(existingVariable.getEnvironmentScope());
+    updatedEnvironmentScope = VariableIndex.getEnvironmentScope(updatedEnvironmentScope);
+    if (environmentScope.equals(updatedEnvironmentScope)) {
+      eventHub.publish(new VariableEvent(VariableEvent.TYPE_UPDATED, groupId, updatedKey, updatedEnvironmentScope));
+    } else {
+      eventHub.publish(new VariableEvent(VariableEvent.TYPE_DELETED, groupId, existingVariable.getKey(), environmentScope));
+      eventHub.publish(new VariableEvent(VariableEvent.TYPE_CREATED, groupId, updatedKey, updatedEnvironmentScope));
+    }
   }
 
   private GLUser getUser(String personalAccessToken) {
@@ -122,34 +326,215 @@ public class GroupVariablesController {
     return user;
   }
 
+  /**
+   * Returns the user's effective membership in the given group - either direct or inherited from an ancestor group.
+   */
   private GLMembership getGroupMembership(GLUser user, long groupId) {
-    List<GLMembership> groupMemberships = getGroupMemberships(user);
-    Optional<GLMembership> groupMembership = groupMemberships.stream().filter(membership -> membership.getSourceId().equals(groupId)).findFirst();
-    if (groupMembership.isEmpty()) {
+    CachedValue<List<GLMembership>> groupMemberships = getCachedGroupMemberships(user);
+    GLPermission permission = permissionResolver.getPermission(groupId, groupMemberships);
+    if (permission == null) {
       throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "GitLab user is not member of group");
     }
-    if (groupMembership.get().getPermission().compareAccessLevel(GLPermission.MAINTAINER) < 0) {
+    if (permission.compareAccessLevel(GLPermission.MAINTAINER) < 0) {
       throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "GitLab user has insufficient access permissions in group - at least MAINTAINER permission is required");
     }
-    return groupMembership.get();
+    Optional<GLMembership> groupMembership = groupMemberships.getValue().stream().filter(membership -> membership.getSourceId().equals(groupId)).findFirst();
+    if (groupMembership.isPresent() && groupMembership.get().getPermission() == permission) {
+      return groupMembership.get();
+    }
+    GLMembership inheritedMembership = new GLMembership();
+    inheritedMembership.setSourceId(groupId);
+    GLGroup group = catalog.getGroup(groupId);
+    inheritedMembership.setSourceName(group != null ? group.getName() : null);
+    inheritedMembership.setSourceType("Namespace");
+    inheritedMembership.setPermission(permission);
+    return inheritedMembership;
   }
 
   private List<GLMembership> getGroupMemberships(GLUser user) {
-    List<GLMembership> groupMemberships = service.getGroupMemberships(user.getId());
+    return getCachedGroupMemberships(user).getValue();
+  }
+
+  private CachedValue<List<GLMembership>> getCachedGroupMemberships(GLUser user) {
+    CachedValue<List<GLMembership>> groupMemberships = service.getCachedGroupMemberships(user.getId());
     if (groupMemberships == null) {
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Retrieving group membership failed");
     }
     return groupMemberships;
   }
 
-  private List<GLVariable> getGroupVariables(GLMembership groupMembership) {
-    List<GLVariable> variables = service.getGroupVariables(groupMembership.getSourceId());
+  private VariableIndex getGroupVariableIndex(GLMembership groupMembership) {
+    VariableIndex variables = service.getGroupVariableIndex(groupMembership.getSourceId());
     if (variables == null) {
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Retrieving group variables failed");
     }
     return variables;
   }
 
+  /**
+   * Returns the variable with the given key in the given environment scope. Without environment scope the key
+   * has to be unique.
+   */
+  private static GLVariable getExistingVariable(VariableIndex variables, String key, String environmentScope) {
+    if (environmentScope != null) {
+      GLVariable variable = variables.get(key, environmentScope);
+      if (variable == null) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Group variable does not exist");
+      }
+      return variable;
+    }
+    Collection<GLVariable> scopedVariables = variables.get(key);
+    if (scopedVariables.isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Group variable does not exist");
+    } else if (scopedVariables.size() > 1) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Group variable exists in multiple environment scopes - param '" + PARAM_ENVIRONMENT_SCOPE_FILTER + "' required");
+    }
+    return scopedVariables.iterator().next();
+  }
+
+  /**
+   * Returns the variable to be updated. Without filter the given environment scope selects the variable if
+   * available - otherwise the key has to be unique.
+   */
+  private static GLVariable getUpdatedVariable(VariableIndex variables, String key, String environmentScopeFilter, String environmentScope) {
+    String scope = environmentScopeFilter;
+    if (scope == null && environmentScope != null && variables.contains(key, environmentScope)) {
+      scope = environmentScope;
+    }
+    return getExistingVariable(variables, key, scope);
+  }
+
+  private CachedValue<List<GLVariable>> getCachedGroupVariables(GLMembership groupMembership) {
+    CachedValue<List<GLVariable>> variables = service.getCachedGroupVariables(groupMembership.getSourceId());
+    if (variables == null) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Retrieving group variables failed");
+    }
+    return variables;
+  }
+
+  /**
+   * Serialises the given response once, so it can be cached next to the data it was built from.
+   */
+  private byte[] encode(Object response) {
+    try {
+      return objectMapper.writeValueAsBytes(response);
+    } catch (JsonProcessingException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Serialising response failed", e);
+    }
+  }
+
+  /**
+   * Writes the given variables straight into the response. Values stored off-heap are decoded into the response
+   * stream, so they are neither cached as encoded response nor held on heap as a whole. The properties are the same
+   * as of {@link Variable}.
+   */
+  private void writeVariables(List<GLVariable> variables, HttpServletResponse response) throws IOException {
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+      generator.writeStartArray();
+      for (GLVariable variable : variables) {
+        generator.writeStartObject();
+        generator.writeStringField("key", variable.getKey());
+        generator.writeFieldName("value");
+        GLVariableValue storedValue = variable.getStoredValue();
+        if (storedValue != null) {
+          try (Reader reader = storedValue.openReader()) {
+            generator.writeString(reader, -1);
+          }
+        } else {
+          generator.writeString(variable.getValue());
+        }
+        generator.writeStringField("variableType", variable.getVariableType());
+        // Written like the properties of Variable, so flags would be null instead of failing the committed response
+        generator.writeObjectField("isProtected", variable.getIsProtected());
+        generator.writeObjectField("isMasked", variable.getIsMasked());
+        generator.writeStringField("environmentScope", variable.getEnvironmentScope());
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+    }
+  }
+
+  private ResponseEntity<byte[]> groupsResponse(CachedValue<List<GLMembership>> groupMemberships, WebRequest request) {
+    if (request.checkNotModified(groupMemberships.getETag())) {
+      return null;
+    }
+    return jsonResponse(groupMemberships.getEncoded("groups", memberships -> encode(memberships.stream().map(GroupVariablesController::toGroup).collect(Collectors.toList()))));
+  }
+
+  /**
+   * Returns the given page with GitLab-like pagination headers. The next page is referenced via an opaque cursor.
+   */
+  private <T> ResponseEntity<byte[]> pageResponse(GLPage<T> page, Function<T, Object> mapper) {
+    HttpHeaders headers = new HttpHeaders();
+    if (page.getTotal() != null) {
+      headers.set(HEADER_NAME_TOTAL, page.getTotal().toString());
+    }
+    if (page.hasNext()) {
+      String nextCursor = PageCursor.encode(page.getNext());
+      String nextUri = ServletUriComponentsBuilder.fromCurrentRequest().replaceQueryParam("page")
+          .replaceQueryParam("per_page").replaceQueryParam("cursor", nextCursor).build().toUriString();
+      headers.set(HEADER_NAME_NEXT_CURSOR, nextCursor);
+      headers.set(HttpHeaders.LINK, "<" + nextUri + ">; rel=\"next\"");
+    }
+    byte[] body = encode(page.getItems().stream().map(mapper).collect(Collectors.toList()));
+    return ResponseEntity.ok().headers(headers).contentType(MediaType.APPLICATION_JSON).contentLength(body.length).body(body);
+  }
+
+  private static ResponseEntity<byte[]> jsonResponse(byte[] body) {
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).contentLength(body.length).body(body);
+  }
+
+  private static Group toGroup(GLMembership membership) {
+    return new Group(membership.getSourceId(), membership.getSourceName(), membership.getPermission());
+  }
+
+  private static Variable toVariable(GLVariable variable) {
+    return new Variable(variable.getKey(), variable.getValue(), variable.getVariableType(), variable.getIsProtected(), variable.getIsMasked(), variable.getEnvironmentScope());
+  }
+
+  private static VariableKey toVariableKey(GLVariableKey variableKey) {
+    return new VariableKey(variableKey.getKey(), variableKey.getVariableType(), variableKey.getIsProtected(), variableKey.getIsMasked(), variableKey.getEnvironmentScope());
+  }
+
+  private static boolean isKeysProjection(String projection) {
+    if (!StringUtils.hasText(projection)) {
+      return false;
+    }
+    if (!PROJECTION_KEYS.equals(projection)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid param 'projection' - only '" + PROJECTION_KEYS + "' is supported");
+    }
+    return true;
+  }
+
+  private static GLPermission getPermission(String accessLevel) {
+    GLPermission permission;
+    try {
+      permission = Character.isDigit(accessLevel.charAt(0)) ? GLPermission.fromAccessLevel(accessLevel) : GLPermission.fromName(accessLevel);
+    } catch (IllegalArgumentException e) {
+      permission = null;
+    }
+    if (permission == null || permission.compareAccessLevel(GLPermission.OWNER) > 0) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid param 'min_access_level' - must be one of guest, reporter, developer, maintainer or owner");
+    }
+    return permission;
+  }
+
+  /**
+   * Returns the request body as file variable's value which is checked while it's streamed. Values announced larger
+   * than the maximum size are rejected upfront.
+   */
+  private InputStream getFileVariableValue(String key, Boolean isMasked, HttpServletRequest request) throws IOException {
+    if (!StringUtils.hasText(key)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing required param 'key'");
+    }
+    long maxSize = config.getFileVariableMaxSize().toBytes();
+    if (request.getContentLengthLong() > maxSize) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Value exceeds maximum size of " + maxSize + " bytes");
+    }
+    return new VariableValueInputStream(request.getInputStream(), maxSize, isMasked != null && isMasked);
+  }
+
   private static void checkVariable(Variable variable) {
     if (!StringUtils.hasText(variable.getKey())) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing required param 'key'");
@@ -0,0 +1,100 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPage;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Opaque cursor handed out to API clients. It wraps the pagination params of the next page, so the helper can
+ * request exactly this page from GitLab (or slice it from cached data).
+ */
+final class PageCursor {
+
+  private PageCursor() {
+  }
+
+  static String encode(Map<String, String> pageParams) {
+    String query = pageParams.entrySet().stream()
+        .map(param -> param.getKey() + "=" + URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8))
+        .collect(Collectors.joining("&"));
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(query.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static Map<String, String> decode(String cursor) {
+    Map<String, String> pageParams = new LinkedHashMap<>();
+    try {
+      String query = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      for (String param : query.split("&")) {
+        int index = param.indexOf('=');
+        if (index <= 0 || !GLPage.isPageParam(param.substring(0, index))) {
+          throw new IllegalArgumentException("Invalid param '" + param + "'");
+        }
+        pageParams.put(param.substring(0, index), URLDecoder.decode(param.substring(index + 1), StandardCharsets.UTF_8));
+      }
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid param 'cursor'", e);
+    }
+    checkNumber(pageParams, GLPage.PARAM_PAGE, Integer.MAX_VALUE);
+    checkNumber(pageParams, GLPage.PARAM_PER_PAGE, GLPage.MAX_PER_PAGE);
+    return pageParams;
+  }
+
+  /**
+   * Returns the pagination params for the given request params or {@code null} if no pagination is requested.
+   */
+  static Map<String, String> getPageParams(Integer page, Integer perPage, String cursor) {
+    Map<String, String> pageParams;
+    if (cursor != null) {
+      pageParams = decode(cursor);
+    } else if (page != null || perPage != null) {
+      pageParams = new LinkedHashMap<>();
+      pageParams.put(GLPage.PARAM_PAGE, page != null ? page.toString() : "1");
+      pageParams.put(GLPage.PARAM_PER_PAGE, perPage != null ? perPage.toString() : Integer.toString(GLPage.DEFAULT_PER_PAGE));
+      checkNumber(pageParams, GLPage.PARAM_PAGE, Integer.MAX_VALUE);
+      checkNumber(pageParams, GLPage.PARAM_PER_PAGE, GLPage.MAX_PER_PAGE);
+    } else {
+      return null;
+    }
+    return pageParams;
+  }
+
+  private static void checkNumber(Map<String, String> pageParams, String name, int max) {
+    String value = pageParams.get(name);
+    if (value != null) {
+      try {
+        int number = Integer.parseInt(value);
+        if (number >= 1 && number <= max) {
+          return;
+        }
+      } catch (NumberFormatException e) {
+        // fall through
+      }
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Param '" + name + "' must be between 1 and " + max);
+    }
+  }
+}
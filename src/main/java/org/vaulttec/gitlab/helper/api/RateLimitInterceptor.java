@@ -0,0 +1,109 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.gitlab.helper.gitlab.GitLabClient;
+import org.vaulttec.gitlab.helper.gitlab.GitLabService;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * Limits the rate of API requests per caller before any GitLab request is made, so a single caller can't use up the
+ * GitLab API budget. Callers are identified by the hash of their personal access token (or their address if they
+ * don't provide one). Reads and writes have separate limits.
+ * <p>
+ * Requests whose token wasn't authenticated by GitLab yet (or without token) are additionally limited per remote
+ * address. So callers sending a different token with each request (e.g. scanners) don't get a new bucket - and a
+ * GitLab request to authenticate the token - every time.
+ */
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+  private static final Logger LOG = LoggerFactory.getLogger(RateLimitInterceptor.class);
+
+  private final GitLabService service;
+  private final boolean enabled;
+  private final RateLimiter reads;
+  private final RateLimiter writes;
+  private final RateLimiter unauthenticated;
+
+  public RateLimitInterceptor(HelperConfig config, GitLabService service) {
+    this.service = service;
+    this.enabled = config.isRateLimitEnabled();
+    this.reads = new RateLimiter(config.getRateLimitReadsPerMinute(), config.getRateLimitReadBurst());
+    this.writes = new RateLimiter(config.getRateLimitWritesPerMinute(), config.getRateLimitWriteBurst());
+    this.unauthenticated = new RateLimiter(config.getRateLimitUnauthenticatedPerMinute(), config.getRateLimitUnauthenticatedBurst());
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+    if (!enabled) {
+      return true;
+    }
+    if (!service.isAuthenticated(request.getHeader(GitLabClient.HEADER_NAME_AUTHENTICATION))) {
+      acquire(unauthenticated, "address:" + request.getRemoteAddr(), "unauthenticated requests");
+    }
+    boolean read = HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod());
+    acquire(read ? reads : writes, getCaller(request), read ? "reads" : "writes");
+    return true;
+  }
+
+  @Scheduled(fixedDelayString = "PT1M", initialDelayString = "PT1M")
+  public void evictIdle() {
+    reads.evictIdle();
+    writes.evictIdle();
+    unauthenticated.evictIdle();
+  }
+
+  private static void acquire(RateLimiter limiter, String caller, String name) {
+    long waitNanos = limiter.tryAcquire(caller);
+    if (waitNanos > 0) {
+      LOG.debug("Rate limit of {} exceeded for {}", name, caller);
+      // Retry-After has a resolution of seconds
+      Duration retryAfter = Duration.ofSeconds(Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000));
+      throw new RateLimitExceededException("Rate limit of " + name + " exceeded", retryAfter);
+    }
+  }
+
+  private static String getCaller(HttpServletRequest request) {
+    String token = request.getHeader(GitLabClient.HEADER_NAME_AUTHENTICATION);
+    if (!StringUtils.hasText(token)) {
+      return "address:" + request.getRemoteAddr();
+    }
+    try {
+      // The token itself isn't kept in memory
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return "token:" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
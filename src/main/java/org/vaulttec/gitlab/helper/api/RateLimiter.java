@@ -0,0 +1,86 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiter per key, implemented as generic cell rate algorithm: each bucket is a single
+ * "theoretical arrival time" which is updated with compare-and-set. There's no lock or shared counter, so callers
+ * only contend for their own bucket (the map itself is lock-striped).
+ * <p>
+ * A bucket refills at the given rate and holds up to the given burst. Buckets which are full again carry no state
+ * and are removed by {@link #evictIdle()}.
+ */
+class RateLimiter {
+  private final long intervalNanos;
+  private final long toleranceNanos;
+  private final long origin = System.nanoTime();
+  private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+  RateLimiter(int requestsPerMinute, int burst) {
+    this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, requestsPerMinute);
+    this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+  }
+
+  /**
+   * Takes a token from the given key's bucket. Returns {@code 0} if a token was available, otherwise the time in
+   * nanoseconds until the next token is available.
+   */
+  long tryAcquire(String key) {
+    return tryAcquire(key, now());
+  }
+
+  long tryAcquire(String key, long now) {
+    AtomicLong arrivalTime = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    while (true) {
+      long current = arrivalTime.get();
+      long arrival = Math.max(current, now);
+      long waitNanos = arrival - toleranceNanos - now;
+      if (waitNanos > 0) {
+        return waitNanos;
+      }
+      if (arrivalTime.compareAndSet(current, arrival + intervalNanos)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Removes the buckets which are full again. A token taken concurrently from a removed bucket is lost, which only
+   * favours the caller.
+   */
+  void evictIdle() {
+    evictIdle(now());
+  }
+
+  void evictIdle(long now) {
+    buckets.values().removeIf(arrivalTime -> arrivalTime.get() <= now);
+  }
+
+  int size() {
+    return buckets.size();
+  }
+
+  private long now() {
+    return System.nanoTime() - origin;
+  }
+}
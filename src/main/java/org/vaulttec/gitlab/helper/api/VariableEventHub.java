@@ -0,0 +1,351 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.gitlab.helper.api.model.VariableEvent;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes group variable events to Server-Sent Events subscribers.
+ * <p>
+ * Subscribers don't hold a thread while idle - the emitters are completed asynchronously by the servlet container.
+ * Each subscriber has a bounded queue which is drained by at most one task at a time on a dedicated, bounded pool of
+ * sender threads. If a subscriber's queue overflows, its pending events are replaced by a single
+ * {@link VariableEvent#TYPE_RESET reset} event.
+ * <p>
+ * A client which doesn't read its stream blocks a sender thread until the servlet container's write timeout expires.
+ * Such a subscriber is closed as soon as one of its sends takes longer than the configured send timeout, so it doesn't
+ * receive further events. Subscribers blocked in parallel can still delay the events of others as long as they occupy
+ * all sender threads.
+ */
+@Component
+public class VariableEventHub {
+  private static final Logger LOG = LoggerFactory.getLogger(VariableEventHub.class);
+  private static final Message HEARTBEAT = new Message(null, null, "heartbeat");
+
+  private final ObjectMapper objectMapper;
+  private final ThreadPoolExecutor executor;
+  private final int maxSubscribers;
+  private final int queueSize;
+  private final long timeout;
+  private final long sendTimeoutNanos;
+  private final Map<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+  private final AtomicInteger subscriberCount = new AtomicInteger();
+  private final AtomicLong lastEventId = new AtomicLong();
+
+  public VariableEventHub(HelperConfig config, ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+    this.maxSubscribers = config.getVariableEventsMaxSubscribers();
+    this.queueSize = Math.max(1, config.getVariableEventsQueueSize());
+    this.timeout = config.getVariableEventsTimeout().toMillis();
+    this.sendTimeoutNanos = config.getVariableEventsSendTimeout().toNanos();
+    // At most one pending task per subscriber
+    int threads = Math.max(1, config.getVariableEventsSenderThreads());
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(Math.max(1, maxSubscribers)), runnable -> {
+      Thread thread = new Thread(runnable, "variable-events-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns a new emitter for the variable events of the given group. The subscription is closed when the given user's
+   * group memberships change, so the client has to reconnect and is authorised again.
+   */
+  public SseEmitter subscribe(long groupId, long userId) {
+    if (subscriberCount.incrementAndGet() > maxSubscribers) {
+      subscriberCount.decrementAndGet();
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many variable event subscribers");
+    }
+    SseEmitter emitter = createEmitter(timeout);
+    Subscriber subscriber = new Subscriber(groupId, userId, emitter);
+    subscribers.compute(groupId, (id, groupSubscribers) -> {
+      if (groupSubscribers == null) {
+        groupSubscribers = ConcurrentHashMap.newKeySet();
+      }
+      groupSubscribers.add(subscriber);
+      return groupSubscribers;
+    });
+    emitter.onCompletion(() -> remove(subscriber));
+    emitter.onError(e -> remove(subscriber));
+    LOG.debug("Subscribed user {} to variable events of group {}", userId, groupId);
+    return emitter;
+  }
+
+  public void publish(VariableEvent event) {
+    Set<Subscriber> groupSubscribers = subscribers.get(event.getGroupId());
+    if (groupSubscribers == null) {
+      return;
+    }
+    // Serialised once for all subscribers
+    Message message;
+    try {
+      message = new Message(event.getType(), Long.toString(lastEventId.incrementAndGet()), objectMapper.writeValueAsString(event));
+    } catch (JsonProcessingException e) {
+      LOG.error("Serialising {} failed", event, e);
+      return;
+    }
+    LOG.debug("Publishing {} to {} subscribers", event, groupSubscribers.size());
+    groupSubscribers.forEach(subscriber -> subscriber.offer(message));
+  }
+
+  /**
+   * Publishes a reset event and closes all subscriptions of the given group, e.g. after the group was deleted.
+   */
+  public void close(long groupId) {
+    publish(VariableEvent.reset(groupId));
+    Set<Subscriber> groupSubscribers = subscribers.get(groupId);
+    if (groupSubscribers != null) {
+      groupSubscribers.forEach(Subscriber::close);
+    }
+  }
+
+  /**
+   * Closes all subscriptions of the given user.
+   */
+  public void closeUser(long userId) {
+    subscribers.values().forEach(groupSubscribers -> groupSubscribers.forEach(subscriber -> {
+      if (subscriber.userId == userId) {
+        subscriber.close();
+      }
+    }));
+  }
+
+  public int getSubscriberCount() {
+    return subscriberCount.get();
+  }
+
+  /**
+   * Sends a comment to all idle subscribers, so connections closed by clients or proxies are detected. Subscribers with
+   * pending events are skipped - sending these events detects closed connections as well.
+   */
+  @Scheduled(fixedDelayString = "${helper.variable-events-heartbeat-interval:PT30S}", initialDelayString = "${helper.variable-events-heartbeat-interval:PT30S}")
+  public void heartbeat() {
+    subscribers.values().forEach(groupSubscribers -> groupSubscribers.forEach(Subscriber::offerHeartbeat));
+  }
+
+  /**
+   * Closes all subscribers whose current send takes longer than the send timeout.
+   */
+  @Scheduled(fixedDelayString = "${helper.variable-events-send-timeout:PT10S}", initialDelayString = "${helper.variable-events-send-timeout:PT10S}")
+  public void closeSlowSubscribers() {
+    long now = System.nanoTime();
+    subscribers.values().forEach(groupSubscribers -> groupSubscribers.forEach(subscriber -> {
+      if (subscriber.isSendTimedOut(now)) {
+        LOG.info("Closing variable events of user {} for group {} - client doesn't read its stream", subscriber.userId, subscriber.groupId);
+        subscriber.close();
+      }
+    }));
+  }
+
+  SseEmitter createEmitter(long timeout) {
+    return new SseEmitter(timeout);
+  }
+
+  private void remove(Subscriber subscriber) {
+    boolean[] removed = new boolean[1];
+    subscribers.computeIfPresent(subscriber.groupId, (id, groupSubscribers) -> {
+      removed[0] = groupSubscribers.remove(subscriber);
+      return groupSubscribers.isEmpty() ? null : groupSubscribers;
+    });
+    if (removed[0]) {
+      subscriberCount.decrementAndGet();
+      LOG.debug("Unsubscribed user {} from variable events of group {}", subscriber.userId, subscriber.groupId);
+    }
+  }
+
+  private String toJson(VariableEvent event) {
+    try {
+      return objectMapper.writeValueAsString(event);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Serialised event or comment (without name).
+   */
+  private static final class Message {
+    private final String name;
+    private final String id;
+    private final String data;
+
+    private Message(String name, String id, String data) {
+      this.name = name;
+      this.id = id;
+      this.data = data;
+    }
+
+    private SseEmitter.SseEventBuilder toEvent() {
+      if (name == null) {
+        return SseEmitter.event().comment(data);
+      }
+      return SseEmitter.event().id(id).name(name).data(data, MediaType.APPLICATION_JSON);
+    }
+  }
+
+  private final class Subscriber implements Runnable {
+    private final long groupId;
+    private final long userId;
+    private final SseEmitter emitter;
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean overflowed;
+    private boolean closed;
+    // Start of the current send (System.nanoTime()) or 0 if idle
+    private volatile long sendStarted;
+
+    private Subscriber(long groupId, long userId, SseEmitter emitter) {
+      this.groupId = groupId;
+      this.userId = userId;
+      this.emitter = emitter;
+    }
+
+    private void offerHeartbeat() {
+      synchronized (this) {
+        if (draining) {
+          return;
+        }
+      }
+      offer(HEARTBEAT);
+    }
+
+    private boolean isSendTimedOut(long now) {
+      long started = sendStarted;
+      return started != 0 && now - started > sendTimeoutNanos;
+    }
+
+    private void offer(Message message) {
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        if (overflowed) {
+          // The pending reset event covers this one
+          return;
+        }
+        if (queue.size() >= queueSize) {
+          LOG.debug("Variable event queue of user {} for group {} overflowed", userId, groupId);
+          queue.clear();
+          queue.add(new Message(VariableEvent.TYPE_RESET, Long.toString(lastEventId.incrementAndGet()), toJson(VariableEvent.reset(groupId))));
+          overflowed = true;
+        } else {
+          queue.add(message);
+        }
+        if (draining) {
+          return;
+        }
+        draining = true;
+      }
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("Sending variable events to user {} rejected", userId);
+        synchronized (this) {
+          draining = false;
+        }
+        close();
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Message message;
+        synchronized (this) {
+          message = queue.poll();
+          if (message == null) {
+            draining = false;
+            if (!closed) {
+              return;
+            }
+          } else if (queue.isEmpty()) {
+            overflowed = false;
+          }
+        }
+        if (message == null) {
+          // Closed while sending
+          complete();
+          return;
+        }
+        sendStarted = System.nanoTime();
+        try {
+          emitter.send(message.toEvent());
+        } catch (IOException | IllegalStateException e) {
+          LOG.debug("Sending variable event to user {} failed: {}", userId, e.getMessage());
+          close();
+        } finally {
+          sendStarted = 0;
+        }
+      }
+    }
+
+    private void close() {
+      remove(this);
+      boolean idle;
+      synchronized (this) {
+        queue.clear();
+        closed = true;
+        idle = !draining;
+      }
+      // The emitter is locked by a pending send, so the draining task completes it
+      if (idle) {
+        complete();
+      }
+    }
+
+    private void complete() {
+      try {
+        emitter.complete();
+      } catch (IllegalStateException e) {
+        // Already completed
+      }
+    }
+  }
+}
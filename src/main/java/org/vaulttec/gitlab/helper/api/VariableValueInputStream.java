@@ -0,0 +1,113 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.vaulttec.gitlab.helper.api.model.Variable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Checks a variable's value while it's streamed: it must not be empty nor exceed the maximum size, and the value of
+ * a masked variable has to be maskable (see {@link Variable#MASKABLE_VARIABLE}). All checks are done in the single
+ * pass which streams the value to GitLab. A violation is thrown as {@link ResponseStatusException} by the read which
+ * detects it, so the upload is aborted before GitLab receives the complete value.
+ */
+class VariableValueInputStream extends FilterInputStream {
+  private static final int MASKABLE_MIN_LENGTH = 8;
+
+  private final long maxSize;
+  private final boolean masked;
+  private long size;
+
+  VariableValueInputStream(InputStream in, long maxSize, boolean masked) {
+    super(in);
+    this.maxSize = maxSize;
+    this.masked = masked;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b < 0) {
+      checkEnd();
+    } else {
+      check(b);
+      checkSize(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int count = super.read(b, off, len);
+    if (count < 0) {
+      checkEnd();
+    } else {
+      for (int i = off; i < off + count; i++) {
+        check(b[i] & 0xff);
+      }
+      checkSize(count);
+    }
+    return count;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    // Skipped bytes would bypass the checks
+    return read() < 0 ? 0 : 1;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void check(int b) {
+    if (masked && !isMaskable(b)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Value is not maskable - must fulfill regex '" + Variable.MASKABLE_VARIABLE + "'");
+    }
+  }
+
+  private void checkSize(int count) {
+    size += count;
+    if (size > maxSize) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Value exceeds maximum size of " + maxSize + " bytes");
+    }
+  }
+
+  private void checkEnd() {
+    if (size == 0) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing required value");
+    }
+    if (masked && size < MASKABLE_MIN_LENGTH) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Value is not maskable - must fulfill regex '" + Variable.MASKABLE_VARIABLE + "'");
+    }
+  }
+
+  /**
+   * Returns {@code true} if the given byte is one of the characters allowed by {@link Variable#MASKABLE_VARIABLE}.
+   */
+  private static boolean isMaskable(int b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '@' || b == ':'
+        || b == '.' || b == '~';
+  }
+}
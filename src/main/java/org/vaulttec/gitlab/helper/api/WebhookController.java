@@ -0,0 +1,198 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.gitlab.helper.gitlab.GitLabService;
+import org.vaulttec.gitlab.helper.gitlab.GroupCatalog;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+
+/**
+ * Receives GitLab system hooks and group hooks and evicts the cached data affected by the event.
+ * <p>
+ * GitLab doesn't send hooks for changes of CI variables. Changes done via this helper evict the group's variables
+ * directly, and group events (e.g. transferring or deleting a group) evict them here.
+ * <p>
+ * Variable event subscriptions of deleted groups and of users whose memberships changed are closed.
+ */
+@RestController
+public class WebhookController {
+  public static final String HEADER_NAME_TOKEN = "X-Gitlab-Token";
+  private static final Logger LOG = LoggerFactory.getLogger(WebhookController.class);
+
+  private final HelperConfig config;
+  private final GitLabService service;
+  private final GroupCatalog catalog;
+  private final VariableEventHub eventHub;
+
+  public WebhookController(HelperConfig config, GitLabService service, GroupCatalog catalog, VariableEventHub eventHub) {
+    this.config = config;
+    this.service = service;
+    this.catalog = catalog;
+    this.eventHub = eventHub;
+  }
+
+  @PostMapping(path = "/hooks/gitlab", consumes = {MediaType.APPLICATION_JSON_VALUE})
+  public void handleHook(@RequestHeader(name = HEADER_NAME_TOKEN, required = false) String token, @RequestBody JsonNode payload) {
+    checkToken(token);
+    String eventName = payload.path("event_name").asText(payload.path("object_kind").asText());
+    LOG.debug("Received GitLab hook '{}'", eventName);
+    switch (eventName) {
+      case "user_add_to_group":
+      case "user_remove_from_group":
+      case "user_update_for_group":
+        evictGroupMemberships(payload);
+        break;
+      case "user_destroy":
+      case "user_rename":
+        evictGroupMemberships(payload);
+        evictUser(payload);
+        break;
+      case "group_create":
+      case "subgroup_create":
+        // A new group has no variables yet, and the creator's membership is reported by a separate
+        // 'user_add_to_group' hook
+        refreshGroup(payload);
+        break;
+      case "group_rename":
+        // The members of the group are not part of the payload, so all memberships including the group are evicted
+        // (these contain the group's name). The group's variables are unchanged.
+        evictGroupMemberships(payload, groupId -> id -> id == groupId);
+        refreshGroup(payload);
+        break;
+      case "group_transfer":
+        // A transfer changes the group's parent, so its ancestry in the catalog is refreshed - otherwise permissions
+        // inherited from the old parent apply. Members of the new parent's hierarchy gain access to the group.
+        evictGroupVariables(payload);
+        refreshGroup(payload);
+        evictGroupMemberships(payload, this::withParent);
+        break;
+      case "group_destroy":
+      case "subgroup_destroy":
+        // Subgroups are destroyed as well, so the memberships including them are evicted before the group is removed
+        // from the catalog
+        evictGroupVariables(payload);
+        evictGroupMemberships(payload, this::withSubgroups);
+        closeVariableEvents(payload);
+        removeGroup(payload);
+        break;
+      default:
+        LOG.debug("Ignoring GitLab hook '{}'", eventName);
+    }
+  }
+
+  private void checkToken(String token) {
+    String secretToken = config.getWebhookSecretToken();
+    if (!StringUtils.hasText(secretToken)) {
+      throw new ResponseStatusException(HttpStatus.FORBIDDEN, "GitLab hooks are disabled - no secret token configured");
+    }
+    if (token == null || !MessageDigest.isEqual(secretToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+      throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid GitLab hook secret token");
+    }
+  }
+
+  private void evictGroupMemberships(JsonNode payload) {
+    JsonNode userId = payload.get("user_id");
+    if (userId != null && userId.canConvertToLong()) {
+      service.evictGroupMemberships(userId.asLong());
+      eventHub.closeUser(userId.asLong());
+    }
+  }
+
+  private void evictUser(JsonNode payload) {
+    JsonNode userId = payload.get("user_id");
+    if (userId != null && userId.canConvertToLong()) {
+      service.evictUser(userId.asLong());
+    }
+  }
+
+  /**
+   * Evicts the memberships of all users which include a group matched by the filter created for the payload's group.
+   */
+  private void evictGroupMemberships(JsonNode payload, LongFunction<LongPredicate> filter) {
+    Long groupId = getGroupId(payload);
+    if (groupId != null) {
+      service.evictGroupMemberships(filter.apply(groupId));
+    }
+  }
+
+  /**
+   * Matches the given group and its (current) parent in the catalog.
+   */
+  private LongPredicate withParent(long groupId) {
+    GLGroup group = catalog.getGroup(groupId);
+    Long parentId = group != null ? group.getParentId() : null;
+    return id -> id == groupId || (parentId != null && id == parentId);
+  }
+
+  /**
+   * Matches the given group and its subgroups in the catalog.
+   */
+  private LongPredicate withSubgroups(long groupId) {
+    return id -> id == groupId || catalog.isDescendant(id, groupId);
+  }
+
+  private void evictGroupVariables(JsonNode payload) {
+    Long groupId = getGroupId(payload);
+    if (groupId != null) {
+      service.evictGroupVariables(groupId);
+    }
+  }
+
+  private void closeVariableEvents(JsonNode payload) {
+    Long groupId = getGroupId(payload);
+    if (groupId != null) {
+      eventHub.close(groupId);
+    }
+  }
+
+  private void refreshGroup(JsonNode payload) {
+    Long groupId = getGroupId(payload);
+    if (groupId != null) {
+      catalog.refreshGroup(groupId);
+    }
+  }
+
+  private void removeGroup(JsonNode payload) {
+    Long groupId = getGroupId(payload);
+    if (groupId != null) {
+      catalog.removeGroup(groupId);
+    }
+  }
+
+  private static Long getGroupId(JsonNode payload) {
+    JsonNode groupId = payload.get("group_id");
+    return groupId != null && groupId.canConvertToLong() ? groupId.asLong() : null;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api.model;
+
+/**
+ * Variable effective for a group - either defined in the group itself or inherited from the ancestor group with the
+ * given ID.
+ */
+public class EffectiveVariable extends Variable {
+  private Long groupId;
+
+  public EffectiveVariable(String key, String value, String variableType, Boolean isProtected, Boolean isMasked, String environmentScope, Long groupId) {
+    super(key, value, variableType, isProtected, isMasked, environmentScope);
+    this.groupId = groupId;
+  }
+
+  public Long getGroupId() {
+    return groupId;
+  }
+
+  @Override
+  public String toString() {
+    return "EffectiveVariable{" +
+        "key='" + getKey() + '\'' +
+        ", variableType='" + getVariableType() + '\'' +
+        ", isProtected=" + getIsProtected() +
+        ", isMasked=" + getIsMasked() +
+        ", environmentScope='" + getEnvironmentScope() + '\'' +
+        ", groupId=" + groupId +
+        '}';
+  }
+}
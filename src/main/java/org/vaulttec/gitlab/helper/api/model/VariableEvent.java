@@ -0,0 +1,74 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api.model;
+
+/**
+ * Change of a group variable pushed to event stream subscribers. Events carry no values - subscribers fetch the
+ * variables they're interested in.
+ */
+public class VariableEvent {
+  public static final String TYPE_CREATED = "created";
+  public static final String TYPE_UPDATED = "updated";
+  public static final String TYPE_DELETED = "deleted";
+  /**
+   * Events were dropped or changes can't be tracked - subscribers have to refetch all group variables.
+   */
+  public static final String TYPE_RESET = "reset";
+
+  private String type;
+  private long groupId;
+  private String key;
+  private String environmentScope;
+
+  public VariableEvent(String type, long groupId, String key, String environmentScope) {
+    this.type = type;
+    this.groupId = groupId;
+    this.key = key;
+    this.environmentScope = environmentScope;
+  }
+
+  public static VariableEvent reset(long groupId) {
+    return new VariableEvent(TYPE_RESET, groupId, null, null);
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public long getGroupId() {
+    return groupId;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public String getEnvironmentScope() {
+    return environmentScope;
+  }
+
+  @Override
+  public String toString() {
+    return "VariableEvent{" +
+        "type='" + type + '\'' +
+        ", groupId=" + groupId +
+        ", key='" + key + '\'' +
+        ", environmentScope='" + environmentScope + '\'' +
+        '}';
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api.model;
+
+import java.util.Objects;
+
+/**
+ * Variable without its value as returned by the keys-only projection.
+ */
+public class VariableKey {
+  private String key;
+  private String variableType;
+  private Boolean isProtected;
+  private Boolean isMasked;
+  private String environmentScope;
+
+  public VariableKey(String key, String variableType, Boolean isProtected, Boolean isMasked, String environmentScope) {
+    this.key = key;
+    this.variableType = variableType;
+    this.isProtected = isProtected;
+    this.isMasked = isMasked;
+    this.environmentScope = environmentScope;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public String getVariableType() {
+    return variableType;
+  }
+
+  public Boolean getIsProtected() {
+    return isProtected;
+  }
+
+  public Boolean getIsMasked() {
+    return isMasked;
+  }
+
+  public String getEnvironmentScope() {
+    return environmentScope;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    VariableKey that = (VariableKey) o;
+
+    return Objects.equals(key, that.key);
+  }
+
+  @Override
+  public int hashCode() {
+    return key != null ? key.hashCode() : 0;
+  }
+
+  @Override
+  public String toString() {
+    return "VariableKey{" +
+        "key='" + key + '\'' +
+        ", variableType='" + variableType + '\'' +
+        ", isProtected=" + isProtected +
+        ", isMasked=" + isMasked +
+        ", environmentScope='" + environmentScope + '\'' +
+        '}';
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.audit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.actuate.audit.AuditEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary record format of an {@link AuditEvent} in the {@link AuditEventLog}:
+ * <pre>
+ * long   epoch seconds
+ * int    nanos
+ * int    principal length, principal (UTF-8)
+ * int    type length, type (UTF-8)
+ * int    data length, data (JSON)
+ * </pre>
+ */
+final class AuditEventCodec {
+  private static final TypeReference<Map<String, Object>> DATA_TYPE = new TypeReference<>() {
+  };
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  byte[] encode(AuditEvent event) {
+    byte[] principal = toBytes(event.getPrincipal());
+    byte[] type = toBytes(event.getType());
+    byte[] data = encodeData(event.getData());
+    ByteBuffer buffer = ByteBuffer.allocate(8 + 4 + 4 + principal.length + 4 + type.length + 4 + data.length);
+    buffer.putLong(event.getTimestamp().getEpochSecond());
+    buffer.putInt(event.getTimestamp().getNano());
+    buffer.putInt(principal.length).put(principal);
+    buffer.putInt(type.length).put(type);
+    buffer.putInt(data.length).put(data);
+    return buffer.array();
+  }
+
+  AuditEvent decode(ByteBuffer buffer) throws IOException {
+    Instant timestamp = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+    String principal = readString(buffer);
+    String type = readString(buffer);
+    byte[] data = new byte[buffer.getInt()];
+    buffer.get(data);
+    return new AuditEvent(timestamp, principal, type, mapper.readValue(data, DATA_TYPE));
+  }
+
+  private byte[] encodeData(Map<String, Object> data) {
+    try {
+      return mapper.writeValueAsBytes(data);
+    } catch (JsonProcessingException e) {
+      // Fall back to the string representation of values Jackson can't handle
+      Map<String, Object> stringData = new LinkedHashMap<>();
+      data.forEach((key, value) -> stringData.put(key, value != null ? value.toString() : null));
+      try {
+        return mapper.writeValueAsBytes(stringData);
+      } catch (JsonProcessingException ex) {
+        throw new IllegalStateException("Encoding audit event data failed", ex);
+      }
+    }
+  }
+
+  private static byte[] toBytes(String value) {
+    return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
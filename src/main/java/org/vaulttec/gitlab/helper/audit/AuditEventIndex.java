@@ -0,0 +1,293 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.audit;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the records in an {@link AuditEventLog}.
+ * <p>
+ * Every record gets a sequence number in append order. Per sequence number the timestamp, the position in the log and
+ * the ids of the interned principal and type are stored in column arrays. Additionally, a posting list of sequence
+ * numbers is kept per principal and per type. The running maximum of the timestamps is non-decreasing (even if
+ * events arrive slightly out of order) so the first candidate for an "after" query is found by binary search.
+ * <p>
+ * There's a single writer (the background writer of {@link PersistentAuditEventRepository}). Readers see all
+ * entries up to the volatile size, which is incremented after the entry is completely written.
+ */
+final class AuditEventIndex {
+  private static final int ANY = -1;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final Map<String, Integer> principalIds = new ConcurrentHashMap<>();
+  private final Map<String, Integer> typeIds = new ConcurrentHashMap<>();
+  private final List<PostingList> principalPostings = new ArrayList<>();
+  private final List<PostingList> typePostings = new ArrayList<>();
+  private volatile PostingList[] principalPostingsView = new PostingList[0];
+  private volatile PostingList[] typePostingsView = new PostingList[0];
+  private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+  private volatile int size;
+
+  int size() {
+    return size;
+  }
+
+  void add(Instant timestamp, String principal, String type, long position) {
+    int sequence = size;
+    Columns current = columns;
+    if (sequence == current.positions.length) {
+      current = current.grow();
+      columns = current;
+    }
+    int principalId = principalIds.computeIfAbsent(principal != null ? principal : "", key -> newPostingList(principalPostings, true));
+    int typeId = typeIds.computeIfAbsent(type, key -> newPostingList(typePostings, false));
+    long nanos = toNanos(timestamp);
+    current.timestamps[sequence] = nanos;
+    current.maxTimestamps[sequence] = sequence > 0 ? Math.max(current.maxTimestamps[sequence - 1], nanos) : nanos;
+    current.positions[sequence] = position;
+    current.principals[sequence] = principalId;
+    current.types[sequence] = typeId;
+    principalPostings.get(principalId).add(sequence);
+    typePostings.get(typeId).add(sequence);
+    size = sequence + 1;
+  }
+
+  /**
+   * Returns the number of entries which refer to records before the given log position, i.e. which were deleted
+   * from the log.
+   */
+  int countBefore(long firstPosition) {
+    return lowerBound(columns.positions, 0, size, firstPosition);
+  }
+
+  /**
+   * Returns a new index with all the entries which refer to records at or after the given log position.
+   */
+  AuditEventIndex compact(long firstPosition) {
+    AuditEventIndex index = new AuditEventIndex();
+    String[] principals = namesById(principalIds);
+    String[] types = namesById(typeIds);
+    Columns current = columns;
+    for (int sequence = countBefore(firstPosition); sequence < size; sequence++) {
+      index.add(toInstant(current.timestamps[sequence]), principals[current.principals[sequence]],
+          types[current.types[sequence]], current.positions[sequence]);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the log positions of the matching entries at or after the given log position, newest first. A
+   * <code>null</code> argument matches everything.
+   */
+  PrimitiveIterator.OfLong find(String principal, Instant after, String type, long firstPosition) {
+    int end = size;
+    Columns current = columns;
+    int principalId = principal != null ? principalIds.getOrDefault(principal, Integer.MIN_VALUE) : ANY;
+    int typeId = type != null ? typeIds.getOrDefault(type, Integer.MIN_VALUE) : ANY;
+    if (principalId == Integer.MIN_VALUE || typeId == Integer.MIN_VALUE) {
+      return new Cursor(current, null, 0, 0, ANY, ANY, Long.MIN_VALUE);
+    }
+    long afterNanos = after != null ? toNanos(after) : Long.MIN_VALUE;
+    int start = Math.max(lowerBound(current.positions, 0, end, firstPosition),
+        after != null ? upperBound(current.maxTimestamps, 0, end, afterNanos) : 0);
+
+    // Walk the shorter posting list (if any) and check the remaining criteria against the columns
+    PostingList postings = null;
+    if (principalId != ANY) {
+      postings = principalPostingsView[principalId];
+    }
+    if (typeId != ANY) {
+      PostingList typePostingList = typePostingsView[typeId];
+      if (postings == null || typePostingList.size < postings.size) {
+        postings = typePostingList;
+      }
+    }
+    if (postings == null) {
+      return new Cursor(current, null, start, end, principalId, typeId, afterNanos);
+    }
+    int postingsSize = postings.size;
+    int[] sequences = postings.sequences;
+    return new Cursor(current, sequences, lowerBound(sequences, postingsSize, start),
+        lowerBound(sequences, postingsSize, end), principalId, typeId, afterNanos);
+  }
+
+  private int newPostingList(List<PostingList> postings, boolean principal) {
+    postings.add(new PostingList());
+    PostingList[] view = postings.toArray(new PostingList[0]);
+    if (principal) {
+      principalPostingsView = view;
+    } else {
+      typePostingsView = view;
+    }
+    return postings.size() - 1;
+  }
+
+  private static String[] namesById(Map<String, Integer> ids) {
+    String[] names = new String[ids.size()];
+    ids.forEach((name, id) -> names[id] = name);
+    return names;
+  }
+
+  private static long toNanos(Instant instant) {
+    return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+  }
+
+  private static Instant toInstant(long nanos) {
+    return Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L));
+  }
+
+  /** Returns the first index in [from, to) whose value is greater than or equal to the given key. */
+  private static int lowerBound(long[] values, int from, int to, long key) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (values[middle] < key) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** Returns the first index in [from, to) whose value is greater than the given key. */
+  private static int upperBound(long[] values, int from, int to, long key) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (values[middle] <= key) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** Returns the first index in [0, to) whose value is greater than or equal to the given key. */
+  private static int lowerBound(int[] values, int to, int key) {
+    int low = 0;
+    int high = to;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (values[middle] < key) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static final class Columns {
+    final long[] timestamps;
+    final long[] maxTimestamps;
+    final long[] positions;
+    final int[] principals;
+    final int[] types;
+
+    Columns(int capacity) {
+      this(new long[capacity], new long[capacity], new long[capacity], new int[capacity], new int[capacity]);
+    }
+
+    private Columns(long[] timestamps, long[] maxTimestamps, long[] positions, int[] principals, int[] types) {
+      this.timestamps = timestamps;
+      this.maxTimestamps = maxTimestamps;
+      this.positions = positions;
+      this.principals = principals;
+      this.types = types;
+    }
+
+    Columns grow() {
+      int capacity = positions.length * 2;
+      return new Columns(Arrays.copyOf(timestamps, capacity), Arrays.copyOf(maxTimestamps, capacity),
+          Arrays.copyOf(positions, capacity), Arrays.copyOf(principals, capacity), Arrays.copyOf(types, capacity));
+    }
+  }
+
+  private static final class PostingList {
+    volatile int[] sequences = new int[16];
+    volatile int size;
+
+    void add(int sequence) {
+      int[] current = sequences;
+      if (size == current.length) {
+        current = Arrays.copyOf(current, current.length * 2);
+        sequences = current;
+      }
+      current[size] = sequence;
+      size++;
+    }
+  }
+
+  /**
+   * Iterates backwards over the sequence numbers in [start, end) - either directly or via the given posting list.
+   */
+  private static final class Cursor implements PrimitiveIterator.OfLong {
+    private final Columns columns;
+    private final int[] postings;
+    private final int start;
+    private final int principalId;
+    private final int typeId;
+    private final long afterNanos;
+    private int index;
+    private int next = -1;
+
+    Cursor(Columns columns, int[] postings, int start, int end, int principalId, int typeId, long afterNanos) {
+      this.columns = columns;
+      this.postings = postings;
+      this.start = start;
+      this.principalId = principalId;
+      this.typeId = typeId;
+      this.afterNanos = afterNanos;
+      this.index = end;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next < 0 && index > start) {
+        index--;
+        int sequence = postings != null ? postings[index] : index;
+        if ((principalId == ANY || columns.principals[sequence] == principalId)
+            && (typeId == ANY || columns.types[sequence] == typeId) && columns.timestamps[sequence] > afterNanos) {
+          next = sequence;
+        }
+      }
+      return next >= 0;
+    }
+
+    @Override
+    public long nextLong() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      long position = columns.positions[next];
+      next = -1;
+      return position;
+    }
+  }
+}
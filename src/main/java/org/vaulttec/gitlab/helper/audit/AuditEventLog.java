@@ -0,0 +1,220 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.audit.AuditEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of encoded {@link AuditEvent}s split into memory-mapped segment files of a fixed size.
+ * <p>
+ * A record is stored as its length followed by the encoded event. The length is written after the event, so a
+ * partially written record (e.g. after a crash) reads as the end of the segment. A new segment is started if the
+ * active one is full or older than the configured maximum age, and the oldest segments are deleted if more than the
+ * configured number of segments exist.
+ * <p>
+ * The position of a record is made of the segment id (upper 32 bits) and the offset within the segment (lower 32 bits),
+ * so positions increase in the order the records are appended. All segments stay mapped for reading records by
+ * position. Reads are thread-safe, all writes are done by the background writer of
+ * {@link PersistentAuditEventRepository}.
+ */
+final class AuditEventLog implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(AuditEventLog.class);
+  private static final Pattern SEGMENT_NAME = Pattern.compile("^audit-(\\d{20})\\.log$");
+  private static final int RECORD_HEADER_SIZE = 4;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final Duration segmentMaxAge;
+  private final int maxSegments;
+  private final Deque<Long> segmentIds = new ArrayDeque<>();
+  private final ConcurrentNavigableMap<Long, ByteBuffer> segments = new ConcurrentSkipListMap<>();
+  private FileChannel activeChannel;
+  private MappedByteBuffer activeBuffer;
+  private Instant activeCreated;
+
+  AuditEventLog(Path directory, long segmentSize, Duration segmentMaxAge, int maxSegments) throws IOException {
+    // Segments are memory-mapped as a whole, so they're limited to 2GB
+    if (segmentSize <= RECORD_HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid segment size " + segmentSize + " - must be more than "
+          + RECORD_HEADER_SIZE + " bytes and at most 2GB");
+    }
+    if (maxSegments < 1) {
+      throw new IllegalArgumentException("At least one segment required");
+    }
+    this.directory = directory;
+    this.segmentSize = (int) segmentSize;
+    this.segmentMaxAge = segmentMaxAge;
+    this.maxSegments = maxSegments;
+    Files.createDirectories(directory);
+    for (long segmentId : listSegmentIds()) {
+      try (FileChannel channel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.READ)) {
+        segments.put(segmentId, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+      segmentIds.addLast(segmentId);
+    }
+  }
+
+  /**
+   * Hands the position and the decoded event of all records stored in the existing segments over to the given
+   * consumer, oldest first.
+   */
+  void replay(AuditEventCodec codec, RecordConsumer consumer) {
+    for (long segmentId : segmentIds) {
+      ByteBuffer buffer = segments.get(segmentId).duplicate();
+      while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+        int offset = buffer.position();
+        int length = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+          break;
+        }
+        ByteBuffer record = buffer.slice().limit(length);
+        buffer.position(buffer.position() + length);
+        try {
+          consumer.accept(toPosition(segmentId, offset), codec.decode(record));
+        } catch (IOException | RuntimeException e) {
+          LOG.warn("Skipping unreadable audit event in segment {}: {}", segmentId, e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the decoded event of the record at the given position or <code>null</code> if the segment holding this
+   * record was deleted in the meantime.
+   */
+  AuditEvent read(AuditEventCodec codec, long position) {
+    ByteBuffer segment = segments.get(position >>> 32);
+    if (segment != null) {
+      int offset = (int) position;
+      ByteBuffer buffer = segment.duplicate();
+      int length = buffer.getInt(offset);
+      try {
+        return codec.decode(buffer.position(offset + RECORD_HEADER_SIZE).limit(offset + RECORD_HEADER_SIZE + length));
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Reading audit event at position {} failed: {}", position, e.getMessage());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the position of the first record which is still retained.
+   */
+  long getFirstPosition() {
+    Map.Entry<Long, ByteBuffer> firstSegment = segments.firstEntry();
+    return firstSegment != null ? toPosition(firstSegment.getKey(), 0) : 0;
+  }
+
+  long append(byte[] record) throws IOException {
+    int required = RECORD_HEADER_SIZE + record.length;
+    if (required > segmentSize) {
+      throw new IOException("Audit event too large for segment: " + record.length + " bytes");
+    }
+    if (activeBuffer == null || activeBuffer.remaining() < required) {
+      roll();
+    }
+    int offset = activeBuffer.position();
+    activeBuffer.position(offset + RECORD_HEADER_SIZE);
+    activeBuffer.put(record);
+    activeBuffer.putInt(offset, record.length);
+    return toPosition(segmentIds.getLast(), offset);
+  }
+
+  void flush() {
+    if (activeBuffer != null) {
+      activeBuffer.force();
+    }
+  }
+
+  void rollIfExpired(Instant now) throws IOException {
+    if (activeBuffer != null && activeCreated.plus(segmentMaxAge).isBefore(now)) {
+      roll();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (activeChannel != null) {
+      activeBuffer.force();
+      activeChannel.close();
+      activeChannel = null;
+      activeBuffer = null;
+    }
+  }
+
+  private void roll() throws IOException {
+    close();
+    long segmentId = segmentIds.isEmpty() ? 1 : segmentIds.getLast() + 1;
+    activeChannel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    activeBuffer = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    activeCreated = Instant.now();
+    segmentIds.addLast(segmentId);
+    segments.put(segmentId, activeBuffer);
+    LOG.debug("Started audit event segment {}", segmentId);
+    while (segmentIds.size() > maxSegments) {
+      long oldestSegmentId = segmentIds.removeFirst();
+      segments.remove(oldestSegmentId);
+      Files.deleteIfExists(segmentPath(oldestSegmentId));
+      LOG.debug("Deleted audit event segment {}", oldestSegmentId);
+    }
+  }
+
+  private static long toPosition(long segmentId, int offset) {
+    return (segmentId << 32) | offset;
+  }
+
+  private Path segmentPath(long segmentId) {
+    return directory.resolve(String.format("audit-%020d.log", segmentId));
+  }
+
+  private List<Long> listSegmentIds() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.map(file -> SEGMENT_NAME.matcher(file.getFileName().toString())).filter(Matcher::matches)
+          .map(matcher -> Long.valueOf(matcher.group(1))).sorted().collect(Collectors.toList());
+    }
+  }
+
+  @FunctionalInterface
+  interface RecordConsumer {
+    void accept(long position, AuditEvent event);
+  }
+}
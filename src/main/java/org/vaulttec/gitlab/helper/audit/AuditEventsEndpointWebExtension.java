@@ -0,0 +1,88 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.audit;
+
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+import org.springframework.boot.actuate.audit.AuditEventsEndpoint;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.annotation.EndpointWebExtension;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Adds paging to the {@code auditevents} actuator endpoint. With the parameters {@code page} (zero-based) and
+ * {@code size} only the requested page of the matching events (newest first) is decoded from the
+ * {@link PersistentAuditEventRepository}. Without them the latest matching events are returned like by
+ * {@link AuditEventsEndpoint}.
+ */
+@Component
+@EndpointWebExtension(endpoint = AuditEventsEndpoint.class)
+@ConditionalOnAvailableEndpoint(endpoint = AuditEventsEndpoint.class)
+public class AuditEventsEndpointWebExtension {
+  static final int DEFAULT_PAGE_SIZE = 100;
+  static final int MAX_PAGE_SIZE = 1000;
+
+  private final AuditEventRepository repository;
+
+  public AuditEventsEndpointWebExtension(AuditEventRepository repository) {
+    this.repository = repository;
+  }
+
+  @ReadOperation
+  public AuditEvents events(@Nullable String principal, @Nullable OffsetDateTime after, @Nullable String type,
+                            @Nullable Integer page, @Nullable Integer size) {
+    Instant afterInstant = after != null ? after.toInstant() : null;
+    if (page == null && size == null) {
+      return new AuditEvents(repository.find(principal, afterInstant, type));
+    }
+    int pageNumber = page != null ? page : 0;
+    int pageSize = size != null ? size : DEFAULT_PAGE_SIZE;
+    if (pageNumber < 0 || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+      throw new InvalidEndpointRequestException("Invalid page " + pageNumber + " with size " + pageSize,
+          "Page must not be negative and size must be between 1 and " + MAX_PAGE_SIZE);
+    }
+    if (repository instanceof PersistentAuditEventRepository) {
+      return new AuditEvents(((PersistentAuditEventRepository) repository).find(principal, afterInstant, type, pageNumber, pageSize));
+    }
+    return new AuditEvents(repository.find(principal, afterInstant, type).stream().skip((long) pageNumber * pageSize)
+        .limit(pageSize).collect(Collectors.toList()));
+  }
+
+  /**
+   * Same JSON structure as returned by {@link AuditEventsEndpoint}.
+   */
+  public static final class AuditEvents {
+    private final List<AuditEvent> events;
+
+    private AuditEvents(List<AuditEvent> events) {
+      this.events = events;
+    }
+
+    public List<AuditEvent> getEvents() {
+      return events;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.audit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+import org.springframework.util.Assert;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link AuditEventRepository} which persists audit events in an {@link AuditEventLog} on local disk.
+ * <p>
+ * {@link #add(AuditEvent)} only publishes the event to a lock-free {@link RingBuffer} and never blocks. A background
+ * writer thread drains the ring buffer in batches, appends the events to the log and flushes it after every batch. If
+ * the writer falls behind and the ring buffer is full then the event is dropped and counted in the metric
+ * {@code helper.audit.events.dropped}. Drops are logged at most once per minute.
+ * <p>
+ * The events retained in the log are replayed on startup into an {@link AuditEventIndex}. Queries seek via this
+ * index and only decode the matching events from the log. Events become visible as soon as the writer has persisted
+ * them. The index is compacted once more than half of its entries refer to deleted segments.
+ */
+public class PersistentAuditEventRepository implements AuditEventRepository, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(PersistentAuditEventRepository.class);
+  private static final int BATCH_SIZE = 256;
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long DROP_LOG_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final RingBuffer<AuditEvent> buffer;
+  private final AuditEventLog log;
+  private final AuditEventCodec codec = new AuditEventCodec();
+  private final int capacity;
+  private volatile AuditEventIndex index = new AuditEventIndex();
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private final Counter droppedEventsCounter;
+  private final AtomicLong lastDropLogged = new AtomicLong(System.nanoTime() - DROP_LOG_INTERVAL_NANOS);
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  public PersistentAuditEventRepository(Path directory, int capacity, int bufferSize, long segmentSize,
+                                        Duration segmentMaxAge, int maxSegments, MeterRegistry meterRegistry) throws IOException {
+    Assert.notNull(directory, "Directory must not be null");
+    this.droppedEventsCounter = Counter.builder("helper.audit.events.dropped")
+        .description("Audit events dropped because the buffer was full").register(meterRegistry);
+    this.buffer = new RingBuffer<>(bufferSize);
+    this.log = new AuditEventLog(directory, segmentSize, segmentMaxAge, maxSegments);
+    this.capacity = capacity;
+    log.replay(codec, this::index);
+    this.writer = new Thread(this::write, "audit-event-writer");
+    writer.setDaemon(true);
+    writer.start();
+    LOG.info("Persisting audit events in '{}'", directory);
+  }
+
+  @Override
+  public void add(AuditEvent event) {
+    Assert.notNull(event, "AuditEvent must not be null");
+    if (!running || !buffer.offer(event)) {
+      long dropped = droppedEvents.incrementAndGet();
+      droppedEventsCounter.increment();
+      // Drops happen under load, so they are not logged one by one
+      long now = System.nanoTime();
+      long lastLogged = lastDropLogged.get();
+      if (now - lastLogged >= DROP_LOG_INTERVAL_NANOS && lastDropLogged.compareAndSet(lastLogged, now)) {
+        LOG.warn("Audit event buffer full - dropped {} event(s) so far, latest: {}", dropped, event);
+      }
+    }
+  }
+
+  /**
+   * Returns the latest matching events (newest first), limited to the configured capacity.
+   */
+  @Override
+  public List<AuditEvent> find(String principal, Instant after, String type) {
+    try (Stream<AuditEvent> events = stream(principal, after, type, 0)) {
+      return events.limit(capacity).collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Returns the given page of matching events (newest first). Used by {@link AuditEventsEndpointWebExtension}.
+   */
+  public List<AuditEvent> find(String principal, Instant after, String type, int page, int size) {
+    Assert.isTrue(page >= 0 && size > 0, "Invalid page");
+    try (Stream<AuditEvent> events = stream(principal, after, type, (long) page * size)) {
+      return events.limit(size).collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Returns a lazy stream of the matching events (newest first), skipping the given number of events without
+   * decoding them. Events are decoded from the log while the stream is consumed.
+   */
+  private Stream<AuditEvent> stream(String principal, Instant after, String type, long skip) {
+    Spliterator.OfLong positions = Spliterators.spliteratorUnknownSize(
+        index.find(principal, after, type, log.getFirstPosition()), Spliterator.ORDERED | Spliterator.NONNULL);
+    return StreamSupport.longStream(positions, false).skip(skip).mapToObj(position -> log.read(codec, position))
+        .filter(Objects::nonNull);
+  }
+
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write() {
+    while (running || buffer.drainTo(this::append, BATCH_SIZE) > 0) {
+      try {
+        if (buffer.drainTo(this::append, BATCH_SIZE) > 0) {
+          log.flush();
+          compactIndex();
+        } else {
+          log.rollIfExpired(Instant.now());
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.error("Writing audit events failed", e);
+      }
+    }
+    try {
+      log.close();
+    } catch (IOException e) {
+      LOG.error("Closing audit event log failed", e);
+    }
+  }
+
+  private void append(AuditEvent event) {
+    try {
+      index(log.append(codec.encode(event)), event);
+    } catch (IOException e) {
+      LOG.error("Persisting audit event failed: {}", event, e);
+    }
+  }
+
+  private void index(long position, AuditEvent event) {
+    index.add(event.getTimestamp(), event.getPrincipal(), event.getType(), position);
+  }
+
+  private void compactIndex() {
+    AuditEventIndex current = index;
+    long firstPosition = log.getFirstPosition();
+    if (current.countBefore(firstPosition) > current.size() / 2) {
+      index = current.compact(firstPosition);
+      LOG.debug("Compacted audit event index from {} to {} entries", current.size(), index.size());
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the cached GitLab data which is needed to serve requests right after a restart - the group catalog,
+ * the users' group memberships and the groups' variable keys. Variable values are never part of a snapshot.
+ * <p>
+ * The snapshot is stored in a compact binary format: a header (magic, version, creation time) followed by the
+ * sections of groups, memberships and variable keys, each prefixed with its number of entries. Strings are stored
+ * as UTF-8 bytes prefixed with their length ({@code -1} for {@code null}).
+ */
+final class CacheSnapshot {
+  private static final int MAGIC = 0x474c4853; // "GLHS"
+  private static final int VERSION = 1;
+  private static final byte FLAG_PROTECTED = 1;
+  private static final byte FLAG_MASKED = 2;
+
+  private final long createdAt;
+  private final List<GLGroup> groups;
+  private final Map<Long, List<GLMembership>> memberships;
+  private final Map<Long, List<GLVariableKey>> variableKeys;
+
+  CacheSnapshot(long createdAt, List<GLGroup> groups, Map<Long, List<GLMembership>> memberships,
+                Map<Long, List<GLVariableKey>> variableKeys) {
+    this.createdAt = createdAt;
+    this.groups = groups;
+    this.memberships = memberships;
+    this.variableKeys = variableKeys;
+  }
+
+  long getCreatedAt() {
+    return createdAt;
+  }
+
+  List<GLGroup> getGroups() {
+    return groups;
+  }
+
+  Map<Long, List<GLMembership>> getMemberships() {
+    return memberships;
+  }
+
+  Map<Long, List<GLVariableKey>> getVariableKeys() {
+    return variableKeys;
+  }
+
+  /**
+   * Writes the snapshot to a temporary file which then replaces the given file atomically.
+   */
+  void write(Path file) throws IOException {
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(createdAt);
+      out.writeInt(groups.size());
+      for (GLGroup group : groups) {
+        out.writeLong(group.getId());
+        out.writeLong(group.getParentId() != null ? group.getParentId() : 0);
+        writeString(out, group.getPath());
+        writeString(out, group.getFullPath());
+        writeString(out, group.getName());
+        writeString(out, group.getDescription());
+      }
+      out.writeInt(memberships.size());
+      for (Map.Entry<Long, List<GLMembership>> entry : memberships.entrySet()) {
+        out.writeLong(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (GLMembership membership : entry.getValue()) {
+          out.writeLong(membership.getSourceId());
+          writeString(out, membership.getSourceName());
+          writeString(out, membership.getSourceType());
+          writeString(out, membership.getPermission() != null ? membership.getPermission().getAccessLevel() : null);
+        }
+      }
+      out.writeInt(variableKeys.size());
+      for (Map.Entry<Long, List<GLVariableKey>> entry : variableKeys.entrySet()) {
+        out.writeLong(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (GLVariableKey variableKey : entry.getValue()) {
+          writeString(out, variableKey.getKey());
+          writeString(out, variableKey.getVariableType());
+          out.writeByte((variableKey.getIsProtected() ? FLAG_PROTECTED : 0) | (variableKey.getIsMasked() ? FLAG_MASKED : 0));
+          writeString(out, variableKey.getEnvironmentScope());
+        }
+      }
+    }
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the snapshot from the given file via a memory-mapped buffer.
+   */
+  static CacheSnapshot read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+        throw new IOException("Not a cache snapshot: " + file);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported cache snapshot version " + version + ": " + file);
+      }
+      long createdAt = buffer.getLong();
+      int groupCount = readCount(buffer);
+      List<GLGroup> groups = new ArrayList<>(groupCount);
+      for (int i = 0; i < groupCount; i++) {
+        GLGroup group = new GLGroup();
+        group.setId(buffer.getLong());
+        long parentId = buffer.getLong();
+        group.setParentId(parentId != 0 ? parentId : null);
+        group.setPath(readString(buffer));
+        group.setFullPath(readString(buffer));
+        group.setName(readString(buffer));
+        group.setDescription(readString(buffer));
+        groups.add(group);
+      }
+      int userCount = readCount(buffer);
+      Map<Long, List<GLMembership>> memberships = new HashMap<>(userCount * 2);
+      for (int i = 0; i < userCount; i++) {
+        long userId = buffer.getLong();
+        int count = readCount(buffer);
+        List<GLMembership> userMemberships = new ArrayList<>(count);
+        for (int j = 0; j < count; j++) {
+          GLMembership membership = new GLMembership();
+          membership.setSourceId(buffer.getLong());
+          membership.setSourceName(readString(buffer));
+          membership.setSourceType(readString(buffer));
+          String accessLevel = readString(buffer);
+          membership.setPermission(accessLevel != null ? GLPermission.fromAccessLevel(accessLevel) : null);
+          userMemberships.add(membership);
+        }
+        memberships.put(userId, userMemberships);
+      }
+      int groupVariablesCount = readCount(buffer);
+      Map<Long, List<GLVariableKey>> variableKeys = new HashMap<>(groupVariablesCount * 2);
+      for (int i = 0; i < groupVariablesCount; i++) {
+        long groupId = buffer.getLong();
+        int count = readCount(buffer);
+        List<GLVariableKey> keys = new ArrayList<>(count);
+        for (int j = 0; j < count; j++) {
+          GLVariableKey variableKey = new GLVariableKey();
+          variableKey.setKey(readString(buffer));
+          variableKey.setVariableType(readString(buffer));
+          byte flags = buffer.get();
+          variableKey.setIsProtected((flags & FLAG_PROTECTED) != 0);
+          variableKey.setIsMasked((flags & FLAG_MASKED) != 0);
+          variableKey.setEnvironmentScope(readString(buffer));
+          keys.add(variableKey);
+        }
+        variableKeys.put(groupId, keys);
+      }
+      return new CacheSnapshot(createdAt, groups, memberships, variableKeys);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Corrupt cache snapshot: " + file, e);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static int readCount(ByteBuffer buffer) {
+    int count = buffer.getInt();
+    // Every entry takes at least one byte, so larger counts indicate a corrupt snapshot
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid count " + count);
+    }
+    return count;
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    } else if (length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
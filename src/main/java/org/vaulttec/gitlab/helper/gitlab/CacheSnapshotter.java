@@ -0,0 +1,118 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Takes periodic snapshots of the local caches and the group catalog (see {@link CacheSnapshot}) and restores them
+ * at startup, so a restarted helper doesn't start with cold caches.
+ * <p>
+ * Restored entries are served until they exceed the configured staleness and are revalidated against GitLab in the
+ * background when accessed (see {@link GitLabService}). The group catalog is refreshed right after startup anyway.
+ */
+@Service
+public class CacheSnapshotter {
+  private static final Logger LOG = LoggerFactory.getLogger(CacheSnapshotter.class);
+
+  private final GitLabCacheConfig config;
+  private final GitLabService service;
+  private final GroupCatalog catalog;
+  private final Path file;
+
+  public CacheSnapshotter(GitLabCacheConfig config, GitLabService service, GroupCatalog catalog) {
+    this.config = config;
+    this.service = service;
+    this.catalog = catalog;
+    if (!StringUtils.hasText(config.getSnapshot().getFile())) {
+      this.file = null;
+    } else if (config.getShared().isEnabled()) {
+      LOG.warn("Cache snapshots aren't supported with shared cache");
+      this.file = null;
+    } else {
+      this.file = Paths.get(config.getSnapshot().getFile());
+    }
+  }
+
+  @PostConstruct
+  public void restore() {
+    if (file == null || !Files.exists(file)) {
+      return;
+    }
+    CacheSnapshot snapshot;
+    try {
+      snapshot = CacheSnapshot.read(file);
+    } catch (IOException e) {
+      LOG.warn("Reading cache snapshot failed: {}", e.getMessage());
+      return;
+    }
+    long age = System.currentTimeMillis() - snapshot.getCreatedAt();
+    if (age > config.getSnapshot().getMaxStaleness().toMillis()) {
+      LOG.info("Ignoring cache snapshot older than {}", config.getSnapshot().getMaxStaleness());
+      return;
+    }
+    catalog.restore(snapshot.getGroups());
+    snapshot.getMemberships().forEach((userId, memberships) -> service.restoreGroupMemberships(userId, memberships, snapshot.getCreatedAt()));
+    snapshot.getVariableKeys().forEach((groupId, variableKeys) -> service.restoreGroupVariableKeys(groupId, variableKeys, snapshot.getCreatedAt()));
+    LOG.info("Restored cache snapshot from {} ms ago: {} groups, memberships of {} users, variable keys of {} groups", age,
+        snapshot.getGroups().size(), snapshot.getMemberships().size(), snapshot.getVariableKeys().size());
+  }
+
+  @Scheduled(fixedDelayString = "${gitlab.cache.snapshot.interval:PT5M}", initialDelayString = "${gitlab.cache.snapshot.interval:PT5M}")
+  public void snapshot() {
+    if (file == null) {
+      return;
+    }
+    Map<Long, List<GLMembership>> memberships = service.exportGroupMemberships();
+    Map<Long, List<GLVariableKey>> variableKeys = service.exportGroupVariableKeys();
+    if (memberships == null || variableKeys == null) {
+      return;
+    }
+    // A catalog which wasn't refreshed since restoring it is left out like the other restored entries
+    List<GLGroup> groups = catalog.isRestored() ? List.of() : catalog.getGroups();
+    CacheSnapshot snapshot = new CacheSnapshot(System.currentTimeMillis(), groups, memberships, variableKeys);
+    try {
+      snapshot.write(file);
+      LOG.debug("Wrote cache snapshot: {} groups, memberships of {} users, variable keys of {} groups",
+          snapshot.getGroups().size(), memberships.size(), variableKeys.size());
+    } catch (IOException e) {
+      LOG.warn("Writing cache snapshot failed: {}", e.getMessage());
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    snapshot();
+  }
+}
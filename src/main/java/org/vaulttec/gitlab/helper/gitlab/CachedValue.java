@@ -0,0 +1,124 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Value retrieved from GitLab together with a hash of its content. The hash is computed once when the value is
+ * cached and serves as weak ETag for the responses built from this value. The encoded responses and other values
+ * derived from it are kept here as well, so they are dropped together with the cached value.
+ */
+public class CachedValue<T> implements Serializable {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final T value;
+  private final String hash;
+  private final long restoredAt;
+  private transient volatile Map<String, Object> derivedValues;
+
+  CachedValue(T value, String hash, long restoredAt) {
+    this.value = value;
+    this.hash = hash;
+    this.restoredAt = restoredAt;
+  }
+
+  public static <T> CachedValue<T> of(T value) {
+    return new CachedValue<>(value, hash(value), 0);
+  }
+
+  /**
+   * Creates a value restored from a snapshot taken at the given time (in epoch millis). The hash only depends on the
+   * content, so ETags handed out before the snapshot remain valid.
+   */
+  static <T> CachedValue<T> restored(T value, long snapshotTime) {
+    return new CachedValue<>(value, hash(value), snapshotTime);
+  }
+
+  private static String hash(Object value) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest(MAPPER.writeValueAsBytes(value)));
+    } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * Returns {@code true} if this value was restored from a snapshot and not retrieved from GitLab yet.
+   */
+  public boolean isRestored() {
+    return restoredAt > 0;
+  }
+
+  public long getRestoredAt() {
+    return restoredAt;
+  }
+
+  public String getHash() {
+    return hash;
+  }
+
+  /**
+   * Returns the given representation of this value, encoded by the given function on first access.
+   */
+  public byte[] getEncoded(String representation, Function<T, byte[]> encoder) {
+    return getDerived(representation, encoder);
+  }
+
+  /**
+   * Returns the named value derived from this value (e.g. an index), computed by the given function on first
+   * access.
+   */
+  @SuppressWarnings("unchecked")
+  public <D> D getDerived(String name, Function<T, D> function) {
+    Map<String, Object> derived = derivedValues;
+    if (derived == null) {
+      synchronized (this) {
+        derived = derivedValues;
+        if (derived == null) {
+          derived = new ConcurrentHashMap<>();
+          derivedValues = derived;
+        }
+      }
+    }
+    return (D) derived.computeIfAbsent(name, n -> function.apply(value));
+  }
+
+  /**
+   * Returns the hash as weak ETag (quoted as required by RFC 7232). The hash identifies the content, not the bytes of
+   * a representation - the same response is sent with or without compression. Tomcat doesn't compress responses with
+   * a strong ETag.
+   */
+  public String getETag() {
+    return "W/\"" + hash + "\"";
+  }
+}
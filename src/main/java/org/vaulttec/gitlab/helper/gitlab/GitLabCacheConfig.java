@@ -0,0 +1,328 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hazelcast.config.*;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.spring.cache.HazelcastCacheManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.CompositeCacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches of GitLab data used by {@link GitLabService}.
+ * <p>
+ * By default every helper instance uses local Caffeine caches. If the shared cache is enabled then an embedded
+ * Hazelcast member is started which joins the configured members, so the caches of users and memberships are shared
+ * by all replicas. Every shared cache is a distributed map with a near cache holding deserialized objects, so local
+ * hits don't deserialize anything. Evictions invalidate the near caches of all members.
+ * <p>
+ * Hazelcast's open source edition neither authenticates members nor encrypts their traffic. So members are never
+ * discovered via multicast, and the variables (CI secrets) are always cached locally - changes made via another
+ * replica show up here after the variables TTL at the latest.
+ * <p>
+ * Local caches can be snapshotted to a file, so they are warm again after a restart (see {@link CacheSnapshotter}).
+ * <p>
+ * Personal access tokens rejected by GitLab are remembered per instance (see {@link RejectedTokenFilter}).
+ * <p>
+ * Values of variables in local caches are stored off-heap (see {@link VariableValueStore}).
+ */
+@Configuration
+@ConfigurationProperties(prefix = "gitlab.cache")
+public class GitLabCacheConfig {
+  private static final Logger LOG = LoggerFactory.getLogger(GitLabCacheConfig.class);
+
+  private long maximumSize = 10000;
+  private Duration userTtl = Duration.ofMinutes(1);
+  private Duration membershipTtl = Duration.ofMinutes(5);
+  private Duration variableTtl = Duration.ofMinutes(5);
+  private final Shared shared = new Shared();
+  private final Snapshot snapshot = new Snapshot();
+  private final RejectedTokens rejectedTokens = new RejectedTokens();
+  private final OffHeapValues offHeapValues = new OffHeapValues();
+
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  public void setMaximumSize(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  public Duration getUserTtl() {
+    return userTtl;
+  }
+
+  public void setUserTtl(Duration userTtl) {
+    this.userTtl = userTtl;
+  }
+
+  public Duration getMembershipTtl() {
+    return membershipTtl;
+  }
+
+  public void setMembershipTtl(Duration membershipTtl) {
+    this.membershipTtl = membershipTtl;
+  }
+
+  public Duration getVariableTtl() {
+    return variableTtl;
+  }
+
+  public void setVariableTtl(Duration variableTtl) {
+    this.variableTtl = variableTtl;
+  }
+
+  public Shared getShared() {
+    return shared;
+  }
+
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  public RejectedTokens getRejectedTokens() {
+    return rejectedTokens;
+  }
+
+  public OffHeapValues getOffHeapValues() {
+    return offHeapValues;
+  }
+
+  @Bean
+  public CacheManager cacheManager(ObjectProvider<HazelcastInstance> hazelcastInstance) {
+    return createCacheManager(hazelcastInstance.getIfAvailable());
+  }
+
+  CacheManager createCacheManager(HazelcastInstance instance) {
+    CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+    cacheManager.setAllowNullValues(false);
+    cacheManager.registerCustomCache(GitLabService.CACHE_VARIABLES, createCache(getVariableTtl()));
+    if (instance != null) {
+      // Only the local caches registered above are provided by Caffeine - all others are shared
+      cacheManager.setCacheNames(List.of());
+      return new CompositeCacheManager(cacheManager, new HazelcastCacheManager(instance));
+    }
+    cacheManager.registerCustomCache(GitLabService.CACHE_USERS, createCache(getUserTtl()));
+    cacheManager.registerCustomCache(GitLabService.CACHE_MEMBERSHIPS, createCache(getMembershipTtl()));
+    return cacheManager;
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  @ConditionalOnProperty(prefix = "gitlab.cache.shared", name = "enabled", havingValue = "true")
+  public HazelcastInstance hazelcastInstance() {
+    return Hazelcast.newHazelcastInstance(createSharedConfig());
+  }
+
+  Config createSharedConfig() {
+    if (shared.getMembers().isEmpty()) {
+      throw new IllegalStateException("Shared cache requires the members to join (gitlab.cache.shared.members)");
+    }
+    Config config = new Config();
+    config.setClusterName(shared.getClusterName());
+    config.setProperty("hazelcast.phone.home.enabled", "false");
+    // Send near cache invalidations immediately instead of batching them
+    config.setProperty("hazelcast.map.invalidation.batch.enabled", "false");
+    NetworkConfig network = config.getNetworkConfig();
+    network.setPort(shared.getPort()).setPortAutoIncrement(true);
+    JoinConfig join = network.getJoin();
+    join.getAutoDetectionConfig().setEnabled(false);
+    join.getMulticastConfig().setEnabled(false);
+    join.getTcpIpConfig().setEnabled(true).setMembers(shared.getMembers());
+    config.addMapConfig(createMapConfig(GitLabService.CACHE_USERS, getUserTtl()));
+    config.addMapConfig(createMapConfig(GitLabService.CACHE_MEMBERSHIPS, getMembershipTtl()));
+    LOG.info("Sharing caches in cluster '{}' with members {}", shared.getClusterName(), shared.getMembers());
+    return config;
+  }
+
+  private MapConfig createMapConfig(String name, Duration ttl) {
+    NearCacheConfig nearCache = new NearCacheConfig(name).setInMemoryFormat(InMemoryFormat.OBJECT)
+        .setInvalidateOnChange(true).setCacheLocalEntries(true).setTimeToLiveSeconds((int) ttl.toSeconds());
+    nearCache.getEvictionConfig().setEvictionPolicy(EvictionPolicy.LRU)
+        .setMaxSizePolicy(MaxSizePolicy.ENTRY_COUNT).setSize((int) getMaximumSize());
+    MapConfig map = new MapConfig(name).setTimeToLiveSeconds((int) ttl.toSeconds()).setNearCacheConfig(nearCache);
+    map.getEvictionConfig().setEvictionPolicy(EvictionPolicy.LRU).setMaxSizePolicy(MaxSizePolicy.PER_NODE)
+        .setSize((int) getMaximumSize());
+    return map;
+  }
+
+  private com.github.benmanes.caffeine.cache.Cache<Object, Object> createCache(Duration ttl) {
+    return Caffeine.newBuilder().maximumSize(getMaximumSize()).expireAfterWrite(ttl).recordStats().build();
+  }
+
+  public static class Shared {
+    private boolean enabled;
+    private String clusterName = "gitlab-helper";
+    private int port = 5701;
+    private List<String> members = new ArrayList<>();
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public String getClusterName() {
+      return clusterName;
+    }
+
+    public void setClusterName(String clusterName) {
+      this.clusterName = clusterName;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public void setPort(int port) {
+      this.port = port;
+    }
+
+    public List<String> getMembers() {
+      return members;
+    }
+
+    public void setMembers(List<String> members) {
+      this.members = members;
+    }
+  }
+
+  public static class Snapshot {
+    private String file;
+    private Duration interval = Duration.ofMinutes(5);
+    private Duration maxStaleness = Duration.ofMinutes(30);
+
+    public String getFile() {
+      return file;
+    }
+
+    public void setFile(String file) {
+      this.file = file;
+    }
+
+    public Duration getInterval() {
+      return interval;
+    }
+
+    public void setInterval(Duration interval) {
+      this.interval = interval;
+    }
+
+    public Duration getMaxStaleness() {
+      return maxStaleness;
+    }
+
+    public void setMaxStaleness(Duration maxStaleness) {
+      this.maxStaleness = maxStaleness;
+    }
+  }
+
+  public static class RejectedTokens {
+    private boolean enabled = true;
+    private int expectedTokens = 100000;
+    private double falsePositiveProbability = 0.000001;
+    private Duration expiry = Duration.ofMinutes(10);
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getExpectedTokens() {
+      return expectedTokens;
+    }
+
+    public void setExpectedTokens(int expectedTokens) {
+      this.expectedTokens = expectedTokens;
+    }
+
+    public double getFalsePositiveProbability() {
+      return falsePositiveProbability;
+    }
+
+    public void setFalsePositiveProbability(double falsePositiveProbability) {
+      this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    public Duration getExpiry() {
+      return expiry;
+    }
+
+    public void setExpiry(Duration expiry) {
+      this.expiry = expiry;
+    }
+  }
+
+  public static class OffHeapValues {
+    private boolean enabled = true;
+    private boolean compressionEnabled = true;
+    private DataSize compressionThreshold = DataSize.ofKilobytes(1);
+    private boolean encryptionEnabled = true;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public boolean isCompressionEnabled() {
+      return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+      this.compressionEnabled = compressionEnabled;
+    }
+
+    public DataSize getCompressionThreshold() {
+      return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(DataSize compressionThreshold) {
+      this.compressionThreshold = compressionThreshold;
+    }
+
+    public boolean isEncryptionEnabled() {
+      return encryptionEnabled;
+    }
+
+    public void setEncryptionEnabled(boolean encryptionEnabled) {
+      this.encryptionEnabled = encryptionEnabled;
+    }
+  }
+}
@@ -17,8 +17,10 @@
  */
 package org.vaulttec.gitlab.helper.gitlab;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
@@ -26,38 +28,81 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
 import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPage;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
 import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
 import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
 import org.vaulttec.http.client.AbstractRestClient;
+import org.vaulttec.http.client.Bulkhead;
+import org.vaulttec.http.client.BulkheadInterceptor;
+import org.vaulttec.http.client.CompressionInterceptor;
 import org.vaulttec.http.client.LinkHeader;
+import org.vaulttec.http.client.RequestHedger;
+import org.vaulttec.http.client.TokenPool;
+import org.vaulttec.http.client.TokenPoolInterceptor;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 @Service
+@ConditionalOnProperty(name = "gitlab.graphql-enabled", havingValue = "false", matchIfMissing = true)
 public class GitLabClient extends AbstractRestClient {
 
   public static final String HEADER_NAME_AUTHENTICATION = "PRIVATE-TOKEN";
+  public static final String HEADER_NAME_TOTAL = "X-Total";
+  public static final String PARAM_ENVIRONMENT_SCOPE_FILTER = "filter[environment_scope]";
   protected static final ParameterizedTypeReference<GLUser> RESPONSE_TYPE_USER = new ParameterizedTypeReference<>() {
   };
+  protected static final ParameterizedTypeReference<GLGroup> RESPONSE_TYPE_GROUP = new ParameterizedTypeReference<>() {
+  };
   protected static final ParameterizedTypeReference<List<GLGroup>> RESPONSE_TYPE_GROUPS = new ParameterizedTypeReference<>() {
   };
   protected static final ParameterizedTypeReference<List<GLMembership>> RESPONSE_TYPE_MEMBERSHIPS = new ParameterizedTypeReference<>() {
   };
   protected static final ParameterizedTypeReference<List<GLVariable>> RESPONSE_TYPE_VARIABLES = new ParameterizedTypeReference<>() {
   };
+  protected static final ParameterizedTypeReference<List<GLVariableKey>> RESPONSE_TYPE_VARIABLE_KEYS = new ParameterizedTypeReference<>() {
+  };
   private static final Logger LOG = LoggerFactory.getLogger(GitLabClient.class);
+  private static final String PARAM_VALUE = "value";
+
+  private final Bulkhead writeBulkhead;
 
-  GitLabClient(GitLabClientConfig config, RestTemplateBuilder restTemplateBuilder) {
-    super(config, restTemplateBuilder);
+  GitLabClient(GitLabClientConfig config, RestTemplateBuilder restTemplateBuilder, MeterRegistry meterRegistry) {
+    super(config, restTemplateBuilder, createRequestHedger(config, meterRegistry));
+    if (config.isBulkheadEnabled()) {
+      writeBulkhead = new Bulkhead("gitlab.client", "writes", meterRegistry, config.getBulkheadMaxConcurrentWrites(), config.getBulkheadMaxWaiting(), config.getBulkheadMaxWait());
+      restTemplate.getInterceptors().add(new BulkheadInterceptor(
+          new Bulkhead("gitlab.client", "reads", meterRegistry, config.getBulkheadMaxConcurrentReads(), config.getBulkheadMaxWaiting(), config.getBulkheadMaxWait()),
+          writeBulkhead, this::isReadRequest));
+    } else {
+      writeBulkhead = null;
+    }
+    if (config.isCompressionEnabled()) {
+      restTemplate.getInterceptors().add(new CompressionInterceptor("gitlab.client", meterRegistry));
+    }
+    if (!config.getAdditionalPersonalAccessTokens().isEmpty()) {
+      List<String> tokens = new ArrayList<>();
+      tokens.add(config.getPersonalAccessToken());
+      tokens.addAll(config.getAdditionalPersonalAccessTokens());
+      restTemplate.getInterceptors().add(new TokenPoolInterceptor(HEADER_NAME_AUTHENTICATION,
+          new TokenPool("gitlab.client", meterRegistry, tokens, config.getTokenSuspension())));
+    }
     prepareAuthenticationEntity(HEADER_NAME_AUTHENTICATION, config.getPersonalAccessToken());
   }
 
+  /**
+   * Retrieves the user of the given token. Returns {@code null} if the request failed and throws
+   * {@link InvalidTokenException} if GitLab rejected the token.
+   */
   public GLUser getUser(String personalAccessToken) {
     if (!StringUtils.hasText(personalAccessToken)) {
       throw new IllegalStateException("GitLab user's private access token required");
@@ -66,7 +111,15 @@ public class GitLabClient extends AbstractRestClient {
     String apiCall = "/user";
     HttpEntity<String> authenticationEntity = createAuthenticationEntity(HEADER_NAME_AUTHENTICATION, personalAccessToken);
     Map<String, String> uriVariables = createVariablesMap();
-    return makeReadApiCall(apiCall, HttpMethod.GET, authenticationEntity, RESPONSE_TYPE_USER, uriVariables);
+    String url = getApiUrl(apiCall);
+    try {
+      return exchange(apiCall, HttpMethod.GET, () -> restTemplate.exchange(url, HttpMethod.GET, authenticationEntity, RESPONSE_TYPE_USER, uriVariables)).getBody();
+    } catch (HttpClientErrorException.Unauthorized e) {
+      throw new InvalidTokenException("GitLab user's personal access token rejected");
+    } catch (RestClientException e) {
+      logException(HttpMethod.GET, uriVariables, url, e, null);
+    }
+    return null;
   }
 
   public List<GLMembership> getGroupMemberships(long userId) {
@@ -76,6 +129,23 @@ public class GitLabClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_MEMBERSHIPS, uriVariables);
   }
 
+  public GLPage<GLMembership> getGroupMembershipsPage(long userId, Map<String, String> pageParams) {
+    LOG.debug("Retrieving memberships page for user {}: {}", userId, pageParams);
+    String apiCall = "/users/{userId}/memberships?type=Namespace";
+    Map<String, String> uriVariables = createVariablesMap("userId", Long.toString(userId));
+    return makeReadPageApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_MEMBERSHIPS, uriVariables, pageParams);
+  }
+
+  /**
+   * Retrieves the user of the given token together with the variables of the given group with a single request of the
+   * user's own token, so GitLab only returns the variables if the user is permitted to administer them. The REST API
+   * requires separate requests for this, so {@code null} is returned - the user has to be authorised via the group
+   * memberships.
+   */
+  public UserAndVariables getUserAndGroupVariables(String personalAccessToken, long groupId) {
+    return null;
+  }
+
   public List<GLGroup> getGroups(String search, boolean withStatistics) {
     LOG.debug("Retrieving groups: search={}, withStatistics={}", search, withStatistics);
     String apiCall = "/groups?statistics={statistics}";
@@ -87,6 +157,28 @@ public class GitLabClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUPS, uriVariables);
   }
 
+  /**
+   * Retrieves the groups where the user of the given token has at least the given access level (incl. inherited
+   * membership). The filtering is done by GitLab.
+   */
+  public List<GLGroup> getGroups(String personalAccessToken, GLPermission minAccessLevel) {
+    if (!StringUtils.hasText(personalAccessToken)) {
+      throw new IllegalStateException("GitLab user's private access token required");
+    }
+    LOG.debug("Retrieving groups with min access level {}", minAccessLevel);
+    String apiCall = "/groups?min_access_level={minAccessLevel}";
+    HttpEntity<String> authenticationEntity = createAuthenticationEntity(HEADER_NAME_AUTHENTICATION, personalAccessToken);
+    Map<String, String> uriVariables = createVariablesMap("minAccessLevel", minAccessLevel.getAccessLevel());
+    return makeReadListApiCall(apiCall, HttpMethod.GET, authenticationEntity, RESPONSE_TYPE_GROUPS, uriVariables);
+  }
+
+  public GLGroup getGroup(long groupId) {
+    LOG.debug("Retrieving group: groupId={}", groupId);
+    String apiCall = "/groups/{groupId}?with_projects=false";
+    Map<String, String> uriVariables = createVariablesMap("groupId", Long.toString(groupId));
+    return makeReadApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_GROUP, uriVariables, HttpStatus.NOT_FOUND);
+  }
+
   public List<GLVariable> getGroupVariables(long groupId) {
     LOG.debug("Retrieving group variables: groupId={}", groupId);
     String apiCall = "/groups/{groupId}/variables";
@@ -94,6 +186,23 @@ public class GitLabClient extends AbstractRestClient {
     return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_VARIABLES, uriVariables);
   }
 
+  /**
+   * Retrieves the group variables without their values - these are skipped while parsing GitLab's response.
+   */
+  public List<GLVariableKey> getGroupVariableKeys(long groupId) {
+    LOG.debug("Retrieving group variable keys: groupId={}", groupId);
+    String apiCall = "/groups/{groupId}/variables";
+    Map<String, String> uriVariables = createVariablesMap("groupId", Long.toString(groupId));
+    return makeReadListApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_VARIABLE_KEYS, uriVariables);
+  }
+
+  public GLPage<GLVariable> getGroupVariablesPage(long groupId, Map<String, String> pageParams) {
+    LOG.debug("Retrieving group variables page: groupId={}, {}", groupId, pageParams);
+    String apiCall = "/groups/{groupId}/variables";
+    Map<String, String> uriVariables = createVariablesMap("groupId", Long.toString(groupId));
+    return makeReadPageApiCall(apiCall, HttpMethod.GET, RESPONSE_TYPE_VARIABLES, uriVariables, pageParams);
+  }
+
   public GLVariable createGroupVariable(long groupId, String key, String value, String... settings) {
     if (settings.length % 2 != 0) {
       throw new IllegalStateException("Key-value required - uneven number of settings");
@@ -109,14 +218,17 @@ public class GitLabClient extends AbstractRestClient {
     return makeWriteApiCall(apiCall, HttpMethod.POST, entity, GLVariable.class, uriVariables);
   }
 
-  public GLVariable updateGroupVariable(long groupId, String key, String value, String[] settings) {
+  public GLVariable updateGroupVariable(long groupId, String key, String environmentScopeFilter, String value, String[] settings) {
     if (settings.length % 2 != 0) {
       throw new IllegalStateException("Key-value required - uneven number of settings");
     }
-    LOG.debug("Updating group variable: groupId={}, key={}", groupId, key);
+    LOG.debug("Updating group variable: groupId={}, key={}, environmentScopeFilter={}", groupId, key, environmentScopeFilter);
     String apiCall = "/groups/{groupId}/variables/{key}";
     Map<String, String> uriVariables = createVariablesMap("groupId", Long.toString(groupId), "key", key);
     MultiValueMap<String, String> body = createSettingsMap(null, value, settings);
+    if (environmentScopeFilter != null) {
+      body.add(PARAM_ENVIRONMENT_SCOPE_FILTER, environmentScopeFilter);
+    }
     HttpHeaders headers = new HttpHeaders();
     headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
     headers.set(HEADER_NAME_AUTHENTICATION, authenticationEntity.getHeaders().getFirst(HEADER_NAME_AUTHENTICATION));
@@ -124,29 +236,101 @@ public class GitLabClient extends AbstractRestClient {
     return makeWriteApiCall(apiCall, HttpMethod.PUT, entity, GLVariable.class, uriVariables);
   }
 
-  public boolean deleteGroupVariable(long groupId, String key) {
-    LOG.debug("Deleting variable '{}' from group '{}'", key, groupId);
+  /**
+   * Creates a group variable with the value read from the given stream. The value is streamed to GitLab and skipped
+   * while parsing GitLab's response, so it's never held in memory as a whole.
+   */
+  public GLVariableKey createGroupVariable(long groupId, String key, InputStream value, String... settings) {
+    if (settings.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of settings");
+    }
+    LOG.debug("Creating group variable from stream: groupId={}, key={}", groupId, key);
+    String apiCall = "/groups/{groupId}/variables";
+    Map<String, String> uriVariables = createVariablesMap("groupId", Long.toString(groupId));
+    MultiValueMap<String, String> fields = createSettingsMap(key, null, settings);
+    return makeStreamingWriteApiCall(apiCall, HttpMethod.POST, fields, value, uriVariables);
+  }
+
+  /**
+   * Updates a group variable with the value read from the given stream. The value is streamed to GitLab and skipped
+   * while parsing GitLab's response, so it's never held in memory as a whole.
+   */
+  public GLVariableKey updateGroupVariable(long groupId, String key, String environmentScopeFilter, InputStream value, String[] settings) {
+    if (settings.length % 2 != 0) {
+      throw new IllegalStateException("Key-value required - uneven number of settings");
+    }
+    LOG.debug("Updating group variable from stream: groupId={}, key={}, environmentScopeFilter={}", groupId, key, environmentScopeFilter);
     String apiCall = "/groups/{groupId}/variables/{key}";
     Map<String, String> uriVariables = createVariablesMap("groupId", Long.toString(groupId), "key", key);
+    MultiValueMap<String, String> fields = createSettingsMap(null, null, settings);
+    if (environmentScopeFilter != null) {
+      fields.add(PARAM_ENVIRONMENT_SCOPE_FILTER, environmentScopeFilter);
+    }
+    return makeStreamingWriteApiCall(apiCall, HttpMethod.PUT, fields, value, uriVariables);
+  }
+
+  public boolean deleteGroupVariable(long groupId, String key, String environmentScopeFilter) {
+    LOG.debug("Deleting variable '{}' ({}) from group '{}'", key, environmentScopeFilter, groupId);
+    String apiCall = "/groups/{groupId}/variables/{key}";
+    Map<String, String> uriVariables = createVariablesMap("groupId", Long.toString(groupId), "key", key);
+    if (environmentScopeFilter != null) {
+      apiCall += "?" + PARAM_ENVIRONMENT_SCOPE_FILTER + "={environmentScope}";
+      uriVariables.put("environmentScope", environmentScopeFilter);
+    }
     return makeWriteApiCall(apiCall, HttpMethod.DELETE, uriVariables);
   }
 
+  /**
+   * Returns {@code true} if the given request only reads data, so it's run in the bulkhead for reads.
+   */
+  protected boolean isReadRequest(HttpRequest request) {
+    return BulkheadInterceptor.isSafeMethod(request);
+  }
+
+  private static RequestHedger createRequestHedger(GitLabClientConfig config, MeterRegistry meterRegistry) {
+    if (!config.isHedgingEnabled()) {
+      return null;
+    }
+    return new RequestHedger("gitlab.client", meterRegistry, config.getHedgingPercentile(),
+        config.getHedgingMinDelay(), config.getHedgingBudgetPercent(), config.getHedgingMaxConcurrent());
+  }
+
   private static MultiValueMap<String, String> createSettingsMap(String key, String value, String[] settings) {
     MultiValueMap<String, String> body = new LinkedMultiValueMap<>();
     if (key != null) {
       body.add("key", key);
     }
-    body.add("value", value);
+    if (value != null) {
+      body.add(PARAM_VALUE, value);
+    }
     for (int i = 0; i < settings.length; i += 2) {
       body.add(settings[i], settings[i + 1]);
     }
     return body;
   }
 
+  /**
+   * Streams the given value as last form field to GitLab. The streaming request bypasses the interceptors, so it's
+   * run in the bulkhead for writes here.
+   */
+  private GLVariableKey makeStreamingWriteApiCall(String apiCall, HttpMethod method, MultiValueMap<String, String> fields, InputStream value, Map<String, String> uriVariables) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HEADER_NAME_AUTHENTICATION, authenticationEntity.getHeaders().getFirst(HEADER_NAME_AUTHENTICATION));
+    if (writeBulkhead == null) {
+      return makeStreamingWriteApiCall(apiCall, method, headers, fields, PARAM_VALUE, value, GLVariableKey.class, uriVariables);
+    }
+    writeBulkhead.acquire();
+    try {
+      return makeStreamingWriteApiCall(apiCall, method, headers, fields, PARAM_VALUE, value, GLVariableKey.class, uriVariables);
+    } finally {
+      writeBulkhead.release();
+    }
+  }
+
   protected <T> T makeReadApiCall(String apiCall, HttpMethod method, HttpEntity<String> authenticationEntity, ParameterizedTypeReference<T> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
     try {
-      ResponseEntity<T> response = restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables);
+      ResponseEntity<T> response = exchange(apiCall, method, () -> restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables));
       return response.getBody();
     } catch (RestClientException e) {
       logException(method, uriVariables, url, e, ignoreStatus);
@@ -156,11 +340,15 @@ public class GitLabClient extends AbstractRestClient {
 
   @Override
   protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method, ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
+    return makeReadListApiCall(apiCall, method, authenticationEntity, typeReference, uriVariables, ignoreStatus);
+  }
+
+  protected <T> List<T> makeReadListApiCall(String apiCall, HttpMethod method, HttpEntity<String> authenticationEntity, ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall + (apiCall.contains("?") ? "&" : "?") + "per_page={perPage}");
     uriVariables.put("perPage", perPageAsString());
     try {
       List<T> entities;
-      ResponseEntity<List<T>> response = restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables);
+      ResponseEntity<List<T>> response = exchange(apiCall, method, () -> restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables));
       LinkHeader linkHeader = LinkHeader.parse(response.getHeaders());
       if (linkHeader == null || !linkHeader.hasLink(LinkHeader.Rel.NEXT)) {
         entities = response.getBody();
@@ -168,7 +356,7 @@ public class GitLabClient extends AbstractRestClient {
         entities = new ArrayList<>(response.getBody());
         do {
           URI nextResourceUri = linkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri();
-          response = restTemplate.exchange(nextResourceUri, method, authenticationEntity, typeReference);
+          response = exchange(apiCall, method, () -> restTemplate.exchange(nextResourceUri, method, authenticationEntity, typeReference));
           entities.addAll(response.getBody());
           linkHeader = LinkHeader.parse(response.getHeaders());
         } while (linkHeader != null && linkHeader.hasLink(LinkHeader.Rel.NEXT));
@@ -179,4 +367,32 @@ public class GitLabClient extends AbstractRestClient {
     }
     return null;
   }
+
+  /**
+   * Retrieves a single page only. The given pagination params are passed to GitLab as-is, so offset as well as
+   * keyset pagination is supported and no preceding pages have to be retrieved.
+   */
+  protected <T> GLPage<T> makeReadPageApiCall(String apiCall, HttpMethod method, ParameterizedTypeReference<List<T>> typeReference, Map<String, String> uriVariables, Map<String, String> pageParams, HttpStatus... ignoreStatus) {
+    StringBuilder pageApiCall = new StringBuilder(apiCall);
+    pageParams.forEach((name, value) -> {
+      if (GLPage.isPageParam(name)) {
+        pageApiCall.append(pageApiCall.indexOf("?") < 0 ? '?' : '&').append(name).append("={").append(name).append('}');
+        uriVariables.put(name, value);
+      }
+    });
+    String url = getApiUrl(pageApiCall.toString());
+    try {
+      ResponseEntity<List<T>> response = exchange(apiCall, method, () -> restTemplate.exchange(url, method, authenticationEntity, typeReference, uriVariables));
+      LinkHeader linkHeader = LinkHeader.parse(response.getHeaders());
+      Map<String, String> next = null;
+      if (linkHeader != null && linkHeader.hasLink(LinkHeader.Rel.NEXT)) {
+        next = GLPage.getPageParams(linkHeader.getLink(LinkHeader.Rel.NEXT).getResourceUri());
+      }
+      String total = response.getHeaders().getFirst(HEADER_NAME_TOTAL);
+      return new GLPage<>(response.getBody(), next, StringUtils.hasText(total) ? Integer.valueOf(total) : null);
+    } catch (RestClientException e) {
+      logException(method, uriVariables, url, e, ignoreStatus);
+    }
+    return null;
+  }
 }
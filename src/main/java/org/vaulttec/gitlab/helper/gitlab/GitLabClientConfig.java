@@ -29,6 +29,9 @@ import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 @ConfigurationProperties(prefix = "gitlab")
@@ -39,8 +42,24 @@ public class GitLabClientConfig implements RestClientConfig {
   @Min(1025)
   @Max(65536)
   private int perPage = 100;
+  private Duration connectTimeout = Duration.ofSeconds(10);
+  private Duration readTimeout = Duration.ofSeconds(60);
   @NotEmpty
   private String personalAccessToken;
+  private List<String> additionalPersonalAccessTokens = new ArrayList<>();
+  private Duration tokenSuspension = Duration.ofMinutes(5);
+  private boolean compressionEnabled = true;
+  private boolean graphqlEnabled;
+  private boolean hedgingEnabled;
+  private double hedgingPercentile = 0.95;
+  private Duration hedgingMinDelay = Duration.ofMillis(50);
+  private int hedgingBudgetPercent = 10;
+  private int hedgingMaxConcurrent = 10;
+  private boolean bulkheadEnabled = true;
+  private int bulkheadMaxConcurrentReads = 20;
+  private int bulkheadMaxConcurrentWrites = 5;
+  private int bulkheadMaxWaiting = 100;
+  private Duration bulkheadMaxWait = Duration.ofSeconds(5);
 
   GitLabClientConfig(Environment env) {
     this.env = env;
@@ -69,6 +88,24 @@ public class GitLabClientConfig implements RestClientConfig {
     this.perPage = perPage;
   }
 
+  @Override
+  public Duration getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(Duration connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  @Override
+  public Duration getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(Duration readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
   public String getPersonalAccessToken() {
     return personalAccessToken;
   }
@@ -77,6 +114,118 @@ public class GitLabClientConfig implements RestClientConfig {
     this.personalAccessToken = personalAccessToken;
   }
 
+  public List<String> getAdditionalPersonalAccessTokens() {
+    return additionalPersonalAccessTokens;
+  }
+
+  public void setAdditionalPersonalAccessTokens(List<String> additionalPersonalAccessTokens) {
+    this.additionalPersonalAccessTokens = additionalPersonalAccessTokens;
+  }
+
+  public Duration getTokenSuspension() {
+    return tokenSuspension;
+  }
+
+  public void setTokenSuspension(Duration tokenSuspension) {
+    this.tokenSuspension = tokenSuspension;
+  }
+
+  public boolean isCompressionEnabled() {
+    return compressionEnabled;
+  }
+
+  public void setCompressionEnabled(boolean compressionEnabled) {
+    this.compressionEnabled = compressionEnabled;
+  }
+
+  public boolean isGraphqlEnabled() {
+    return graphqlEnabled;
+  }
+
+  public void setGraphqlEnabled(boolean graphqlEnabled) {
+    this.graphqlEnabled = graphqlEnabled;
+  }
+
+  public boolean isHedgingEnabled() {
+    return hedgingEnabled;
+  }
+
+  public void setHedgingEnabled(boolean hedgingEnabled) {
+    this.hedgingEnabled = hedgingEnabled;
+  }
+
+  public double getHedgingPercentile() {
+    return hedgingPercentile;
+  }
+
+  public void setHedgingPercentile(double hedgingPercentile) {
+    this.hedgingPercentile = hedgingPercentile;
+  }
+
+  public Duration getHedgingMinDelay() {
+    return hedgingMinDelay;
+  }
+
+  public void setHedgingMinDelay(Duration hedgingMinDelay) {
+    this.hedgingMinDelay = hedgingMinDelay;
+  }
+
+  public int getHedgingBudgetPercent() {
+    return hedgingBudgetPercent;
+  }
+
+  public void setHedgingBudgetPercent(int hedgingBudgetPercent) {
+    this.hedgingBudgetPercent = hedgingBudgetPercent;
+  }
+
+  public int getHedgingMaxConcurrent() {
+    return hedgingMaxConcurrent;
+  }
+
+  public void setHedgingMaxConcurrent(int hedgingMaxConcurrent) {
+    this.hedgingMaxConcurrent = hedgingMaxConcurrent;
+  }
+
+  public boolean isBulkheadEnabled() {
+    return bulkheadEnabled;
+  }
+
+  public void setBulkheadEnabled(boolean bulkheadEnabled) {
+    this.bulkheadEnabled = bulkheadEnabled;
+  }
+
+  public int getBulkheadMaxConcurrentReads() {
+    return bulkheadMaxConcurrentReads;
+  }
+
+  public void setBulkheadMaxConcurrentReads(int bulkheadMaxConcurrentReads) {
+    this.bulkheadMaxConcurrentReads = bulkheadMaxConcurrentReads;
+  }
+
+  public int getBulkheadMaxConcurrentWrites() {
+    return bulkheadMaxConcurrentWrites;
+  }
+
+  public void setBulkheadMaxConcurrentWrites(int bulkheadMaxConcurrentWrites) {
+    this.bulkheadMaxConcurrentWrites = bulkheadMaxConcurrentWrites;
+  }
+
+  public int getBulkheadMaxWaiting() {
+    return bulkheadMaxWaiting;
+  }
+
+  public void setBulkheadMaxWaiting(int bulkheadMaxWaiting) {
+    this.bulkheadMaxWaiting = bulkheadMaxWaiting;
+  }
+
+  public Duration getBulkheadMaxWait() {
+    return bulkheadMaxWait;
+  }
+
+  public void setBulkheadMaxWait(Duration bulkheadMaxWait) {
+    this.bulkheadMaxWait = bulkheadMaxWait;
+  }
+
   @Override
   public Proxy getProxy() {
     if (StringUtils.hasText(env.getProperty("proxy.host"))) {
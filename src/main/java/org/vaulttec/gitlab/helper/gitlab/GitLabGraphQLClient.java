@@ -0,0 +1,346 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestClientException;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * GitLab client which retrieves group memberships and group variables via GitLab's GraphQL API. Only the fields
+ * needed by the {@code GL*} models are selected, and up to {@value #PAGE_SIZE} nodes are retrieved per request.
+ * The user of a personal access token together with the variables of a group are retrieved with a single request
+ * of that token. Pagination of single pages and all writes use the REST API of {@link GitLabClient}.
+ * <p>
+ * GraphQL looks up groups by full path, which is taken from the {@link GroupCatalog}. Groups unknown to the catalog
+ * are retrieved via the REST API, as are groups whose cached full path is outdated (e.g. after an ancestor group was
+ * renamed) - the ID of the group found by GraphQL has to match the requested one.
+ */
+@Service
+@ConditionalOnProperty(name = "gitlab.graphql-enabled", havingValue = "true")
+public class GitLabGraphQLClient extends GitLabClient {
+  public static final String GRAPHQL_PATH = "/api/graphql";
+  static final int PAGE_SIZE = 100;
+  private static final Logger LOG = LoggerFactory.getLogger(GitLabGraphQLClient.class);
+  private static final String GID_USER = "gid://gitlab/User/";
+  private static final String GID_GROUP = "gid://gitlab/Group/";
+  private static final String SOURCE_TYPE_NAMESPACE = "Namespace";
+  private static final String MEMBERSHIPS_SELECTION = "groupMemberships(first: " + PAGE_SIZE + ", after: $membershipsAfter) "
+      + "{ nodes { group { id name } accessLevel { integerValue } } pageInfo { hasNextPage endCursor } }";
+  private static final String VARIABLES_SELECTION = "ciVariables(first: " + PAGE_SIZE + ", after: $variablesAfter) "
+      + "{ nodes { key value variableType protected masked environmentScope } pageInfo { hasNextPage endCursor } }";
+  private static final String VARIABLE_KEYS_SELECTION = "ciVariables(first: " + PAGE_SIZE + ", after: $variablesAfter) "
+      + "{ nodes { key variableType protected masked environmentScope } pageInfo { hasNextPage endCursor } }";
+  static final String QUERY_MEMBERSHIPS = "query($userId: UserID!, $membershipsAfter: String) "
+      + "{ user(id: $userId) { " + MEMBERSHIPS_SELECTION + " } }";
+  static final String QUERY_VARIABLES = "query($fullPath: ID!, $variablesAfter: String) "
+      + "{ group(fullPath: $fullPath) { id " + VARIABLES_SELECTION + " } }";
+  static final String QUERY_USER_AND_VARIABLES = "query($fullPath: ID!, $variablesAfter: String) "
+      + "{ currentUser { id username name } group(fullPath: $fullPath) { id " + VARIABLES_SELECTION + " } }";
+  static final String QUERY_VARIABLE_KEYS = "query($fullPath: ID!, $variablesAfter: String) "
+      + "{ group(fullPath: $fullPath) { id " + VARIABLE_KEYS_SELECTION + " } }";
+
+  private final GroupCatalog catalog;
+  private final HttpHeaders graphQLHeaders;
+
+  GitLabGraphQLClient(GitLabClientConfig config, RestTemplateBuilder restTemplateBuilder, MeterRegistry meterRegistry, @Lazy GroupCatalog catalog) {
+    super(config, restTemplateBuilder, meterRegistry);
+    this.catalog = catalog;
+    this.graphQLHeaders = createHeaders(config.getPersonalAccessToken());
+  }
+
+  @Override
+  public List<GLMembership> getGroupMemberships(long userId) {
+    LOG.debug("Retrieving memberships for user {}", userId);
+    JsonNode data = query(QUERY_MEMBERSHIPS, createQueryVariables("userId", GID_USER + userId));
+    return getMemberships(userId, data);
+  }
+
+  @Override
+  public List<GLVariable> getGroupVariables(long groupId) {
+    String fullPath = getFullPath(groupId);
+    if (fullPath == null) {
+      return super.getGroupVariables(groupId);
+    }
+    LOG.debug("Retrieving group variables: groupId={}", groupId);
+    Map<String, Object> variables = createQueryVariables("fullPath", fullPath);
+    JsonNode data = query(QUERY_VARIABLES, variables);
+    if (data == null) {
+      return null;
+    }
+    if (!isGroup(groupId, data)) {
+      LOG.debug("Group {} not found at '{}' - retrieving its variables via REST API", groupId, fullPath);
+      return super.getGroupVariables(groupId);
+    }
+    return getNodes(getConnection(data, "group", "ciVariables"),
+        after -> getGroupConnection(groupId, query(QUERY_VARIABLES, withAfter(variables, "variablesAfter", after))),
+        GitLabGraphQLClient::toVariable);
+  }
+
+  @Override
+  public List<GLVariableKey> getGroupVariableKeys(long groupId) {
+    String fullPath = getFullPath(groupId);
+    if (fullPath == null) {
+      return super.getGroupVariableKeys(groupId);
+    }
+    LOG.debug("Retrieving group variable keys: groupId={}", groupId);
+    Map<String, Object> variables = createQueryVariables("fullPath", fullPath);
+    JsonNode data = query(QUERY_VARIABLE_KEYS, variables);
+    if (data == null) {
+      return null;
+    }
+    if (!isGroup(groupId, data)) {
+      LOG.debug("Group {} not found at '{}' - retrieving its variable keys via REST API", groupId, fullPath);
+      return super.getGroupVariableKeys(groupId);
+    }
+    return getNodes(getConnection(data, "group", "ciVariables"),
+        after -> getGroupConnection(groupId, query(QUERY_VARIABLE_KEYS, withAfter(variables, "variablesAfter", after))),
+        node -> GLVariableKey.of(toVariable(node)));
+  }
+
+  /**
+   * Retrieves the user of the given token together with the variables of the given group with a single request. It's
+   * sent with the user's own token, so GitLab does the authorisation: the group's {@code ciVariables} are only returned
+   * if the user is permitted to administer them. Only further pages (beyond {@value #PAGE_SIZE} variables) need
+   * additional requests.
+   */
+  @Override
+  public UserAndVariables getUserAndGroupVariables(String personalAccessToken, long groupId) {
+    String fullPath = getFullPath(groupId);
+    if (fullPath == null || !StringUtils.hasText(personalAccessToken)) {
+      return super.getUserAndGroupVariables(personalAccessToken, groupId);
+    }
+    LOG.debug("Retrieving user and variables of group {}", groupId);
+    HttpHeaders headers = createHeaders(personalAccessToken);
+    Map<String, Object> variables = createQueryVariables("fullPath", fullPath);
+    JsonNode data = query(QUERY_USER_AND_VARIABLES, variables, headers);
+    GLUser user = data != null ? toUser(data.path("currentUser")) : null;
+    if (user == null) {
+      return null;
+    }
+    JsonNode connection = getGroupConnection(groupId, data);
+    if (connection == null) {
+      LOG.debug("Variables of group {} not returned for user {}", groupId, user.getUsername());
+      return new UserAndVariables(user, null);
+    }
+    return new UserAndVariables(user, getNodes(connection,
+        after -> getGroupConnection(groupId, query(QUERY_VARIABLES, withAfter(variables, "variablesAfter", after), headers)),
+        GitLabGraphQLClient::toVariable));
+  }
+
+  /**
+   * GraphQL queries are sent via POST, but only read data.
+   */
+  @Override
+  protected boolean isReadRequest(HttpRequest request) {
+    return super.isReadRequest(request) || request.getURI().getPath().endsWith(GRAPHQL_PATH);
+  }
+
+  private String getFullPath(long groupId) {
+    GLGroup group = catalog.getGroup(groupId);
+    return group != null ? group.getFullPath() : null;
+  }
+
+  private List<GLMembership> getMemberships(long userId, JsonNode data) {
+    Map<String, Object> variables = createQueryVariables("userId", GID_USER + userId);
+    return getNodes(getConnection(data, "user", "groupMemberships"),
+        after -> getConnection(query(QUERY_MEMBERSHIPS, withAfter(variables, "membershipsAfter", after)), "user", "groupMemberships"),
+        GitLabGraphQLClient::toMembership);
+  }
+
+  /**
+   * Executes the given query and returns its data. Returns {@code null} if the request failed or GitLab reported
+   * errors.
+   */
+  private JsonNode query(String query, Map<String, Object> variables) {
+    return query(query, variables, graphQLHeaders);
+  }
+
+  private JsonNode query(String query, Map<String, Object> variables, HttpHeaders headers) {
+    String url = getServerUrl() + GRAPHQL_PATH;
+    Map<String, Object> body = new HashMap<>();
+    body.put("query", query);
+    body.put("variables", variables);
+    HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
+    try {
+      JsonNode response = restTemplate.exchange(url, HttpMethod.POST, entity, JsonNode.class).getBody();
+      if (response == null) {
+        return null;
+      }
+      JsonNode errors = response.path("errors");
+      if (errors.size() > 0) {
+        LOG.error("GraphQL query {} failed with {}", variables, errors);
+        return null;
+      }
+      return response.path("data");
+    } catch (RestClientException e) {
+      logException(HttpMethod.POST, null, url, e, null);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the connection at the given path or {@code null} if not available, e.g. the user or group doesn't exist.
+   */
+  private static JsonNode getConnection(JsonNode data, String... path) {
+    if (data == null) {
+      return null;
+    }
+    JsonNode node = data;
+    for (String name : path) {
+      node = node.path(name);
+    }
+    return node.isObject() ? node : null;
+  }
+
+  /**
+   * Returns {@code true} if the group found by the query is the given one. After renaming a group, the full path
+   * cached for it (or its subgroups) doesn't exist any more or even belongs to another group.
+   */
+  private static boolean isGroup(long groupId, JsonNode data) {
+    return (GID_GROUP + groupId).equals(data.path("group").path("id").asText(null));
+  }
+
+  /**
+   * Returns the variables connection of the given group or {@code null} if the query failed or found another group.
+   */
+  private static JsonNode getGroupConnection(long groupId, JsonNode data) {
+    return data != null && isGroup(groupId, data) ? getConnection(data, "group", "ciVariables") : null;
+  }
+
+  /**
+   * Returns the nodes of the given connection and all following pages. Nodes mapped to {@code null} are skipped.
+   * Returns {@code null} if a page isn't available.
+   */
+  private static <T> List<T> getNodes(JsonNode connection, Function<String, JsonNode> nextPage, Function<JsonNode, T> mapper) {
+    List<T> items = new ArrayList<>();
+    while (connection != null) {
+      for (JsonNode node : connection.path("nodes")) {
+        T item = mapper.apply(node);
+        if (item != null) {
+          items.add(item);
+        }
+      }
+      JsonNode pageInfo = connection.path("pageInfo");
+      if (!pageInfo.path("hasNextPage").asBoolean()) {
+        return items;
+      }
+      connection = nextPage.apply(pageInfo.path("endCursor").asText());
+    }
+    return null;
+  }
+
+  private static HttpHeaders createHeaders(String personalAccessToken) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.setBearerAuth(personalAccessToken);
+    return headers;
+  }
+
+  private static Map<String, Object> createQueryVariables(String... variables) {
+    Map<String, Object> queryVariables = new HashMap<>();
+    for (int i = 0; i < variables.length; i += 2) {
+      queryVariables.put(variables[i], variables[i + 1]);
+    }
+    return queryVariables;
+  }
+
+  private static Map<String, Object> withAfter(Map<String, Object> variables, String name, String after) {
+    Map<String, Object> pageVariables = new HashMap<>(variables);
+    pageVariables.put(name, after);
+    return pageVariables;
+  }
+
+  /**
+   * Returns the membership of the given node or {@code null} if its group isn't visible to the helper's token.
+   */
+  private static GLMembership toMembership(JsonNode node) {
+    JsonNode group = node.path("group");
+    String groupId = group.path("id").asText(null);
+    if (groupId == null) {
+      LOG.debug("Skipping membership without group: {}", node);
+      return null;
+    }
+    GLMembership membership = new GLMembership();
+    membership.setSourceId(getId(groupId));
+    membership.setSourceName(group.path("name").asText(null));
+    membership.setSourceType(SOURCE_TYPE_NAMESPACE);
+    membership.setPermission(GLPermission.fromAccessLevel(node.path("accessLevel").path("integerValue").asText()));
+    return membership;
+  }
+
+  /**
+   * Returns the user of the given node or {@code null} if there's none, e.g. the token is missing.
+   */
+  private static GLUser toUser(JsonNode node) {
+    String userId = node.path("id").asText(null);
+    if (userId == null) {
+      return null;
+    }
+    GLUser user = new GLUser();
+    user.setId(getId(userId));
+    user.setUsername(node.path("username").asText(null));
+    user.setName(node.path("name").asText(null));
+    return user;
+  }
+
+  private static GLVariable toVariable(JsonNode node) {
+    GLVariable variable = new GLVariable();
+    variable.setKey(node.path("key").asText(null));
+    variable.setValue(node.path("value").asText(null));
+    // GraphQL returns the enum name (e.g. ENV_VAR) instead of the REST API's value (e.g. env_var)
+    String variableType = node.path("variableType").asText(null);
+    variable.setVariableType(variableType != null ? variableType.toLowerCase(Locale.ROOT) : null);
+    variable.setIsProtected(node.path("protected").asBoolean());
+    variable.setIsMasked(node.path("masked").asBoolean());
+    variable.setEnvironmentScope(node.path("environmentScope").asText(null));
+    return variable;
+  }
+
+  /**
+   * Returns the numeric ID of the given global ID, e.g. {@code 42} for {@code gid://gitlab/Group/42}.
+   */
+  static Long getId(String globalId) {
+    return Long.valueOf(globalId.substring(globalId.lastIndexOf('/') + 1));
+  }
+}
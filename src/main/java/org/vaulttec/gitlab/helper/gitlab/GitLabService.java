@@ -17,47 +17,566 @@
  */
 package org.vaulttec.gitlab.helper.gitlab;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
 import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPage;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
 import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
 import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 public class GitLabService {
+  public static final String CACHE_USERS = "users";
+  public static final String CACHE_MEMBERSHIPS = "memberships";
+  public static final String CACHE_VARIABLES = "variables";
+  private static final Logger LOG = LoggerFactory.getLogger(GitLabService.class);
+  private static final String SOURCE_TYPE_NAMESPACE = "Namespace";
+  private static final String VARIABLE_KEYS_SUFFIX = ":keys";
+  private static final String USER_TOKENS_PREFIX = "tokens:";
+  private static final List<GLPermission> MEMBERSHIP_PERMISSIONS = List.of(GLPermission.OWNER, GLPermission.MAINTAINER,
+      GLPermission.DEVELOPER, GLPermission.REPORTER);
 
   private final GitLabClient client;
+  private final PermissionResolver permissionResolver;
+  private final Cache userCache;
+  private final Cache membershipCache;
+  private final Cache variableCache;
+  private final Duration maxStaleness;
+  private final Executor executor;
+  private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+  private final RejectedTokenFilter rejectedTokens;
+  private final VariableValueStore valueStore;
 
-  public GitLabService(GitLabClient client) {
+  public GitLabService(GitLabClient client, PermissionResolver permissionResolver, CacheManager cacheManager, GitLabCacheConfig cacheConfig, @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
     this.client = client;
+    this.permissionResolver = permissionResolver;
+    this.maxStaleness = cacheConfig.getSnapshot().getMaxStaleness();
+    this.executor = executor;
+    this.userCache = getCache(cacheManager, CACHE_USERS);
+    this.membershipCache = getCache(cacheManager, CACHE_MEMBERSHIPS);
+    this.variableCache = getCache(cacheManager, CACHE_VARIABLES);
+    GitLabCacheConfig.RejectedTokens rejectedTokensConfig = cacheConfig.getRejectedTokens();
+    this.rejectedTokens = rejectedTokensConfig.isEnabled() ? new RejectedTokenFilter(rejectedTokensConfig.getExpectedTokens(),
+        rejectedTokensConfig.getFalsePositiveProbability(), rejectedTokensConfig.getExpiry()) : null;
+    GitLabCacheConfig.OffHeapValues offHeapValuesConfig = cacheConfig.getOffHeapValues();
+    this.valueStore = offHeapValuesConfig.isEnabled() ? new VariableValueStore(
+        offHeapValuesConfig.isCompressionEnabled() ? (int) offHeapValuesConfig.getCompressionThreshold().toBytes() : -1,
+        offHeapValuesConfig.isEncryptionEnabled()) : null;
   }
 
   public GLUser getUser(String personalAccessToken) {
-    return client.getUser(personalAccessToken);
+    if (!StringUtils.hasText(personalAccessToken)) {
+      return client.getUser(personalAccessToken);
+    }
+    byte[] tokenHash = hashToken(personalAccessToken);
+    String tokenKey = HexFormat.of().formatHex(tokenHash);
+    // Valid tokens are looked up in the cache first, so false positives of the rejected tokens don't affect them
+    return getCached(userCache, tokenKey, () -> {
+      if (rejectedTokens != null && rejectedTokens.mightContain(tokenHash)) {
+        LOG.debug("Rejecting recently rejected token");
+        return null;
+      }
+      try {
+        GLUser user = client.getUser(personalAccessToken);
+        if (user != null) {
+          addUserToken(user.getId(), tokenKey);
+        }
+        return user;
+      } catch (InvalidTokenException e) {
+        if (rejectedTokens != null) {
+          rejectedTokens.add(tokenHash);
+        }
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Returns {@code true} if GitLab authenticated the given token recently, i.e. the token's user is cached.
+   */
+  public boolean isAuthenticated(String personalAccessToken) {
+    return StringUtils.hasText(personalAccessToken)
+        && userCache.get(HexFormat.of().formatHex(hashToken(personalAccessToken))) != null;
   }
 
   public List<GLMembership> getGroupMemberships(long userId) {
-    return client.getGroupMemberships(userId);
+    return getValue(getCachedGroupMemberships(userId));
+  }
+
+  public CachedValue<List<GLMembership>> getCachedGroupMemberships(long userId) {
+    return getCachedValue(membershipCache, userId, () -> client.getGroupMemberships(userId));
+  }
+
+  /**
+   * Returns the memberships of the given user with at least the given access level. The groups are filtered by
+   * GitLab with a single request, so only the groups in question are transferred. If the user's direct memberships are
+   * cached already then each group's actual access level is resolved from them (including the group's ancestors) -
+   * they are never retrieved for this. Otherwise, and for groups the user can access in another way (e.g. shared with
+   * one of the user's groups), the given access level is used.
+   */
+  public CachedValue<List<GLMembership>> getCachedGroupMemberships(GLUser user, String personalAccessToken, GLPermission minPermission) {
+    if (minPermission.compareAccessLevel(GLPermission.OWNER) > 0) {
+      throw new IllegalArgumentException("Access level " + minPermission + " not available for group memberships");
+    }
+    if (minPermission.compareAccessLevel(GLPermission.GUEST) <= 0) {
+      return getCachedGroupMemberships(user.getId());
+    }
+    return getCachedValue(membershipCache, getMembershipsKey(user.getId(), minPermission), () -> {
+      List<GLGroup> groups = client.getGroups(personalAccessToken, minPermission);
+      if (groups == null) {
+        return null;
+      }
+      CachedValue<List<GLMembership>> directMemberships = getFresh(membershipCache, user.getId());
+      List<GLMembership> memberships = new ArrayList<>();
+      for (GLGroup group : groups) {
+        GLPermission permission = directMemberships != null ? permissionResolver.getPermission(group.getId(), directMemberships) : null;
+        if (permission == null || permission.compareAccessLevel(minPermission) < 0) {
+          permission = minPermission;
+        }
+        GLMembership membership = new GLMembership();
+        membership.setSourceId(group.getId());
+        membership.setSourceName(group.getName());
+        membership.setSourceType(SOURCE_TYPE_NAMESPACE);
+        membership.setPermission(permission);
+        memberships.add(membership);
+      }
+      return memberships;
+    });
+  }
+
+  /**
+   * Returns a single page of the user's memberships - sliced from the cached memberships if available.
+   */
+  public GLPage<GLMembership> getGroupMembershipsPage(long userId, Map<String, String> pageParams) {
+    return getPage(membershipCache, userId, pageParams, () -> client.getGroupMembershipsPage(userId, pageParams));
+  }
+
+  public List<GLGroup> searchGroups(String search) {
+    return client.getGroups(search, false);
   }
 
   public List<GLVariable> getGroupVariables(long groupId) {
-    return client.getGroupVariables(groupId);
+    return getValue(getCachedGroupVariables(groupId));
+  }
+
+  public CachedValue<List<GLVariable>> getCachedGroupVariables(long groupId) {
+    return getCachedValue(variableCache, groupId, () -> storeValues(client.getGroupVariables(groupId)));
+  }
+
+  /**
+   * Returns the group's variables if GitLab permits the user of the given token to administer them. The user and the
+   * variables are retrieved with a single request of the user's own token (see
+   * {@link GitLabClient#getUserAndGroupVariables(String, long)}), so GitLab does the authorisation. Both are cached
+   * afterwards.
+   * <p>
+   * This is only done if the variables aren't cached and the user's memberships aren't either - otherwise the
+   * separate retrieval needs a single request at most. Returns {@code null} if not done, not supported by the client,
+   * the request failed or the user isn't permitted. Then the user has to be authorised via the group memberships.
+   */
+  public CachedValue<List<GLVariable>> getCachedGroupVariables(String personalAccessToken, long groupId) {
+    if (!StringUtils.hasText(personalAccessToken) || getFresh(variableCache, groupId) != null) {
+      return null;
+    }
+    byte[] tokenHash = hashToken(personalAccessToken);
+    String tokenKey = HexFormat.of().formatHex(tokenHash);
+    Cache.ValueWrapper cachedUser = userCache.get(tokenKey);
+    if (cachedUser != null ? getFresh(membershipCache, ((GLUser) cachedUser.get()).getId()) != null
+        : rejectedTokens != null && rejectedTokens.mightContain(tokenHash)) {
+      return null;
+    }
+    UserAndVariables userAndVariables = client.getUserAndGroupVariables(personalAccessToken, groupId);
+    if (userAndVariables == null) {
+      return null;
+    }
+    if (cachedUser == null) {
+      addUserToken(userAndVariables.getUser().getId(), tokenKey);
+      userCache.putIfAbsent(tokenKey, userAndVariables.getUser());
+    }
+    if (userAndVariables.getVariables() == null) {
+      return null;
+    }
+    CachedValue<List<GLVariable>> variables = CachedValue.of(storeValues(userAndVariables.getVariables()));
+    variableCache.put(groupId, variables);
+    return variables;
+  }
+
+  /**
+   * Returns the index of the group's variables by key and environment scope. It's built once per cached variables.
+   */
+  public VariableIndex getGroupVariableIndex(long groupId) {
+    CachedValue<List<GLVariable>> variables = getCachedGroupVariables(groupId);
+    return variables != null ? variables.getDerived("index", VariableIndex::of) : null;
+  }
+
+  /**
+   * Returns the group's variables without values. These are derived from the cached variables if available.
+   * Otherwise they are retrieved without ever holding the values in memory.
+   */
+  @SuppressWarnings("unchecked")
+  public CachedValue<List<GLVariableKey>> getCachedGroupVariableKeys(long groupId) {
+    return getCachedValue(variableCache, getVariableKeysKey(groupId), () -> {
+      Cache.ValueWrapper cached = variableCache.get(groupId);
+      if (cached != null) {
+        return ((CachedValue<List<GLVariable>>) cached.get()).getValue().stream().map(GLVariableKey::of).collect(Collectors.toList());
+      }
+      return client.getGroupVariableKeys(groupId);
+    });
+  }
+
+  /**
+   * Returns a single page of the group's variables - sliced from the cached variables if available.
+   */
+  public GLPage<GLVariable> getGroupVariablesPage(long groupId, Map<String, String> pageParams) {
+    return getPage(variableCache, groupId, pageParams, () -> client.getGroupVariablesPage(groupId, pageParams));
   }
 
   public GLVariable createGroupVariable(long groupId, String key, String value, String variableType, Boolean isProtected, Boolean isMasked, String environmentScope) {
     List<String> settings = createVariableSettings(variableType, isProtected, isMasked, environmentScope);
-    return client.createGroupVariable(groupId, key, value, settings.toArray(new String[0]));
+    try {
+      return client.createGroupVariable(groupId, key, value, settings.toArray(new String[0]));
+    } finally {
+      evictGroupVariables(groupId);
+    }
+  }
+
+  /**
+   * Updates the variable with the given key in the environment scope given as filter. Without filter GitLab
+   * updates the variable only if the key is unique.
+   */
+  public GLVariable updateGroupVariable(long groupId, String key, String environmentScopeFilter, String value, String variableType, Boolean isProtected, Boolean isMasked, String environmentScope) {
+    List<String> settings = createVariableSettings(variableType, isProtected, isMasked, environmentScope);
+    try {
+      return client.updateGroupVariable(groupId, key, environmentScopeFilter, value, settings.toArray(new String[0]));
+    } finally {
+      evictGroupVariables(groupId);
+    }
   }
 
-  public GLVariable updateGroupVariable(long groupId, String key, String value, String variableType, Boolean isProtected, Boolean isMasked, String environmentScope) {
+  /**
+   * Creates a variable with the value read from the given stream, see
+   * {@link GitLabClient#createGroupVariable(long, String, InputStream, String...)}.
+   */
+  public GLVariableKey createGroupVariable(long groupId, String key, InputStream value, String variableType, Boolean isProtected, Boolean isMasked, String environmentScope) {
     List<String> settings = createVariableSettings(variableType, isProtected, isMasked, environmentScope);
-    return client.updateGroupVariable(groupId, key, value, settings.toArray(new String[0]));
+    try {
+      return client.createGroupVariable(groupId, key, value, settings.toArray(new String[0]));
+    } finally {
+      evictGroupVariables(groupId);
+    }
+  }
+
+  /**
+   * Updates a variable with the value read from the given stream, see
+   * {@link GitLabClient#updateGroupVariable(long, String, String, InputStream, String[])}.
+   */
+  public GLVariableKey updateGroupVariable(long groupId, String key, String environmentScopeFilter, InputStream value, String variableType, Boolean isProtected, Boolean isMasked, String environmentScope) {
+    List<String> settings = createVariableSettings(variableType, isProtected, isMasked, environmentScope);
+    try {
+      return client.updateGroupVariable(groupId, key, environmentScopeFilter, value, settings.toArray(new String[0]));
+    } finally {
+      evictGroupVariables(groupId);
+    }
+  }
+
+  public boolean deleteGroupVariable(long groupId, String key, String environmentScopeFilter) {
+    try {
+      return client.deleteGroupVariable(groupId, key, environmentScopeFilter);
+    } finally {
+      evictGroupVariables(groupId);
+    }
+  }
+
+  /**
+   * Evicts the given user, cached for each of the user's tokens.
+   */
+  @SuppressWarnings("unchecked")
+  public void evictUser(long userId) {
+    LOG.debug("Evicting cached user {}", userId);
+    Cache.ValueWrapper tokenKeys = userCache.get(getUserTokensKey(userId));
+    if (tokenKeys != null) {
+      ((Set<String>) tokenKeys.get()).forEach(userCache::evict);
+      userCache.evict(getUserTokensKey(userId));
+    }
+  }
+
+  public void evictGroupMemberships(long userId) {
+    LOG.debug("Evicting cached memberships of user {}", userId);
+    membershipCache.evict(userId);
+    for (GLPermission permission : MEMBERSHIP_PERMISSIONS) {
+      membershipCache.evict(getMembershipsKey(userId, permission));
+    }
+  }
+
+  public void evictAllGroupMemberships() {
+    LOG.debug("Evicting all cached memberships");
+    membershipCache.clear();
+  }
+
+  /**
+   * Evicts the cached memberships of all users which include a group matching the given filter, e.g. a renamed
+   * group. Memberships in a shared cache can't be searched, so all of them are evicted instead.
+   */
+  public void evictGroupMemberships(LongPredicate groupFilter) {
+    Map<Object, Object> cached = getLocalEntries(membershipCache);
+    if (cached == null) {
+      evictAllGroupMemberships();
+      return;
+    }
+    cached.entrySet().removeIf(entry -> {
+      List<GLMembership> memberships = getCachedList(entry.getValue());
+      if (memberships.stream().anyMatch(membership -> groupFilter.test(membership.getSourceId()))) {
+        LOG.debug("Evicting cached memberships '{}'", entry.getKey());
+        return true;
+      }
+      return false;
+    });
   }
 
-  public boolean deleteGroupVariable(long groupId, String key) {
-    return client.deleteGroupVariable(groupId, key);
+  public void evictGroupVariables(long groupId) {
+    LOG.debug("Evicting cached variables of group {}", groupId);
+    variableCache.evict(groupId);
+    variableCache.evict(getVariableKeysKey(groupId));
+  }
+
+  /**
+   * Moves the values of the given variables off-heap before they are cached (if enabled).
+   */
+  private List<GLVariable> storeValues(List<GLVariable> variables) {
+    return valueStore != null && variables != null ? valueStore.store(variables) : variables;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T getCached(Cache cache, Object key, Supplier<T> loader) {
+    Cache.ValueWrapper cached = cache.get(key);
+    if (cached != null) {
+      return (T) cached.get();
+    }
+    T value = loader.get();
+    // Failed GitLab calls return null, so they are retried with the next request
+    if (value != null) {
+      cache.put(key, value);
+    }
+    return value;
+  }
+
+  /**
+   * Like {@link #getCached(Cache, Object, Supplier)} but caches the value together with its content hash.
+   * <p>
+   * Values restored from a snapshot are served until they exceed the configured staleness. Meanwhile they are
+   * revalidated against GitLab in the background.
+   */
+  private <T> CachedValue<T> getCachedValue(Cache cache, Object key, Supplier<T> loader) {
+    Supplier<CachedValue<T>> valueLoader = () -> {
+      T value = loader.get();
+      return value != null ? CachedValue.of(value) : null;
+    };
+    CachedValue<T> cached = getFresh(cache, key);
+    if (cached != null) {
+      if (cached.isRestored()) {
+        revalidate(cache, key, valueLoader);
+      }
+      return cached;
+    }
+    CachedValue<T> value = valueLoader.get();
+    // Failed GitLab calls return null, so they are retried with the next request
+    if (value != null) {
+      cache.put(key, value);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the cached value unless it was restored from a snapshot which is too old.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> CachedValue<T> getFresh(Cache cache, Object key) {
+    Cache.ValueWrapper wrapper = cache.get(key);
+    if (wrapper == null) {
+      return null;
+    }
+    CachedValue<T> cached = (CachedValue<T>) wrapper.get();
+    if (cached.isRestored() && System.currentTimeMillis() - cached.getRestoredAt() > maxStaleness.toMillis()) {
+      LOG.debug("Discarding stale restored value of '{}' in cache '{}'", key, cache.getName());
+      return null;
+    }
+    return cached;
+  }
+
+  private <T> void revalidate(Cache cache, Object key, Supplier<CachedValue<T>> loader) {
+    String revalidationKey = cache.getName() + "/" + key;
+    if (revalidating.add(revalidationKey)) {
+      try {
+        executor.execute(() -> {
+          try {
+            CachedValue<T> value = loader.get();
+            if (value != null) {
+              cache.put(key, value);
+            }
+          } finally {
+            revalidating.remove(revalidationKey);
+          }
+        });
+      } catch (RuntimeException e) {
+        revalidating.remove(revalidationKey);
+        LOG.warn("Revalidating '{}' in cache '{}' failed: {}", key, cache.getName(), e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Pages aren't cached on their own, as partial lists would be served as complete ones otherwise.
+   */
+  private <T> GLPage<T> getPage(Cache cache, Object key, Map<String, String> pageParams, Supplier<GLPage<T>> loader) {
+    if (GLPage.isOffsetPagination(pageParams)) {
+      CachedValue<List<T>> cached = getFresh(cache, key);
+      if (cached != null) {
+        return GLPage.of(cached.getValue(), pageParams);
+      }
+    }
+    return loader.get();
+  }
+
+  /**
+   * Returns the group memberships of all users in the local cache or {@code null} if the cache isn't local. Restored
+   * entries are left out until revalidated, so they don't outlive their staleness via later snapshots.
+   */
+  Map<Long, List<GLMembership>> exportGroupMemberships() {
+    Map<Object, Object> cached = getLocalEntries(membershipCache);
+    if (cached == null) {
+      return null;
+    }
+    Map<Long, List<GLMembership>> memberships = new HashMap<>();
+    cached.forEach((key, value) -> {
+      // Filtered memberships (with String keys) and not yet revalidated entries aren't exported
+      if (key instanceof Long && !((CachedValue<?>) value).isRestored()) {
+        memberships.put((Long) key, getCachedList(value));
+      }
+    });
+    return memberships;
+  }
+
+  /**
+   * Returns the variable keys (without values) of all groups in the local cache or {@code null} if the cache isn't
+   * local.
+   */
+  Map<Long, List<GLVariableKey>> exportGroupVariableKeys() {
+    Map<Object, Object> cached = getLocalEntries(variableCache);
+    if (cached == null) {
+      return null;
+    }
+    Map<Long, List<GLVariableKey>> variableKeys = new HashMap<>();
+    cached.forEach((key, value) -> {
+      if (((CachedValue<?>) value).isRestored()) {
+        return;
+      }
+      if (key instanceof Long) {
+        List<GLVariable> variables = getCachedList(value);
+        variableKeys.putIfAbsent((Long) key, variables.stream().map(GLVariableKey::of).collect(Collectors.toList()));
+      } else if (key instanceof String && ((String) key).endsWith(VARIABLE_KEYS_SUFFIX)) {
+        String groupId = ((String) key).substring(0, ((String) key).length() - VARIABLE_KEYS_SUFFIX.length());
+        variableKeys.put(Long.valueOf(groupId), getCachedList(value));
+      }
+    });
+    return variableKeys;
+  }
+
+  void restoreGroupMemberships(long userId, List<GLMembership> memberships, long snapshotTime) {
+    membershipCache.putIfAbsent(userId, CachedValue.restored(memberships, snapshotTime));
+  }
+
+  void restoreGroupVariableKeys(long groupId, List<GLVariableKey> variableKeys, long snapshotTime) {
+    variableCache.putIfAbsent(getVariableKeysKey(groupId), CachedValue.restored(variableKeys, snapshotTime));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> getCachedList(Object value) {
+    return ((CachedValue<List<T>>) value).getValue();
+  }
+
+  /**
+   * Returns the entries of a local (Caffeine) cache. Shared caches aren't iterated, as this would transfer all
+   * entries of the cluster.
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<Object, Object> getLocalEntries(Cache cache) {
+    Object nativeCache = cache.getNativeCache();
+    if (nativeCache instanceof com.github.benmanes.caffeine.cache.Cache) {
+      return ((com.github.benmanes.caffeine.cache.Cache<Object, Object>) nativeCache).asMap();
+    }
+    return null;
+  }
+
+  private static <T> T getValue(CachedValue<T> cachedValue) {
+    return cachedValue != null ? cachedValue.getValue() : null;
+  }
+
+  /**
+   * Records the hash of a token of the given user, so the users cached by token hash can be evicted by ID. The index
+   * is kept in the user cache as well, so it's shared (and expires) like the users. It's always rewritten, so it
+   * outlives the users cached before.
+   */
+  @SuppressWarnings("unchecked")
+  private synchronized void addUserToken(long userId, String tokenKey) {
+    Cache.ValueWrapper cached = userCache.get(getUserTokensKey(userId));
+    HashSet<String> tokenKeys = cached != null ? new HashSet<>((Set<String>) cached.get()) : new HashSet<>();
+    tokenKeys.add(tokenKey);
+    userCache.put(getUserTokensKey(userId), tokenKeys);
+  }
+
+  private static String getUserTokensKey(long userId) {
+    return USER_TOKENS_PREFIX + userId;
+  }
+
+  private static String getMembershipsKey(long userId, GLPermission minPermission) {
+    return userId + ":" + minPermission.name();
+  }
+
+  private static String getVariableKeysKey(long groupId) {
+    return groupId + VARIABLE_KEYS_SUFFIX;
+  }
+
+  private static Cache getCache(CacheManager cacheManager, String name) {
+    Cache cache = cacheManager.getCache(name);
+    if (cache == null) {
+      throw new IllegalStateException("Cache '" + name + "' not available");
+    }
+    return cache;
+  }
+
+  private static byte[] hashToken(String personalAccessToken) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return digest.digest(personalAccessToken.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
   }
 
   private static List<String> createVariableSettings(String variableType, Boolean isProtected, Boolean isMasked, String environmentScope) {
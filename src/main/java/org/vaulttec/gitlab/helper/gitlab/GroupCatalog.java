@@ -0,0 +1,233 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * In-memory catalog of all GitLab groups with a {@link GroupIndex} for searching them and a {@link GroupHierarchy}
+ * for resolving their ancestors.
+ * <p>
+ * The catalog is loaded at startup and completely refreshed periodically. In between, single groups are refreshed
+ * or removed when GitLab hooks report changes - without rebuilding the index and hierarchy of all groups.
+ * <p>
+ * A complete refresh builds a new map of groups which replaces the current one in a single step, so readers never
+ * see a partially loaded catalog. Changes of single groups made while a refresh retrieves all groups are recorded
+ * and re-applied to the new map, as the retrieved groups may predate them.
+ */
+@Service
+public class GroupCatalog {
+  private static final Logger LOG = LoggerFactory.getLogger(GroupCatalog.class);
+
+  // GitLab limits the nesting of subgroups to 20 levels
+  private static final int MAX_GROUP_DEPTH = 21;
+
+  private final GitLabClient client;
+  // Changes of single groups (null if removed) while a refresh is running - guarded by this
+  private final Map<Long, Change> changes = new HashMap<>();
+  private volatile Map<Long, GLGroup> groups = new ConcurrentHashMap<>();
+  private volatile GroupIndex index = GroupIndex.EMPTY;
+  private volatile GroupHierarchy hierarchy = GroupHierarchy.EMPTY;
+  private volatile boolean loaded;
+  private volatile boolean restored;
+  private long changeCount;
+  private int runningRefreshes;
+
+  public GroupCatalog(GitLabClient client) {
+    this.client = client;
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  public GLGroup getGroup(long groupId) {
+    return groups.get(groupId);
+  }
+
+  /**
+   * Returns the IDs of the given group and its ancestors - starting with the given group. The ancestors are looked
+   * up in the catalog's {@link GroupHierarchy}, groups missing in the catalog are retrieved from GitLab. Returns
+   * {@code null} if a group isn't available.
+   */
+  public List<Long> getAncestry(long groupId) {
+    List<Long> ancestry = new ArrayList<>();
+    long id = groupId;
+    while (id != GroupHierarchy.NO_PARENT && ancestry.size() < MAX_GROUP_DEPTH) {
+      long parentId = hierarchy.getParentId(id);
+      if (parentId == GroupHierarchy.UNKNOWN) {
+        GLGroup group = client.getGroup(id);
+        if (group == null) {
+          return null;
+        }
+        synchronized (this) {
+          update(id, group);
+        }
+        parentId = group.getParentId() != null ? group.getParentId() : GroupHierarchy.NO_PARENT;
+      }
+      ancestry.add(id);
+      id = parentId;
+    }
+    return ancestry;
+  }
+
+  /**
+   * Returns {@code true} if the given group is a descendant of the given ancestor. Only the catalog's
+   * {@link GroupHierarchy} is used - groups missing in the catalog aren't retrieved from GitLab.
+   */
+  public boolean isDescendant(long groupId, long ancestorId) {
+    GroupHierarchy groupHierarchy = hierarchy;
+    long id = groupHierarchy.getParentId(groupId);
+    for (int depth = 1; id != GroupHierarchy.NO_PARENT && id != GroupHierarchy.UNKNOWN && depth < MAX_GROUP_DEPTH; depth++) {
+      if (id == ancestorId) {
+        return true;
+      }
+      id = groupHierarchy.getParentId(id);
+    }
+    return false;
+  }
+
+  public List<GLGroup> search(String query, Predicate<GLGroup> filter, int limit) {
+    return index.search(query, filter, limit);
+  }
+
+  @Scheduled(fixedDelayString = "${gitlab.group-catalog-refresh-interval:PT10M}")
+  public void refresh() {
+    long startChangeCount;
+    synchronized (this) {
+      runningRefreshes++;
+      startChangeCount = changeCount;
+    }
+    try {
+      List<GLGroup> allGroups = client.getGroups(null, false);
+      if (allGroups == null) {
+        LOG.warn("Refreshing group catalog failed - keeping {} groups", groups.size());
+        return;
+      }
+      Map<Long, GLGroup> newGroups = new ConcurrentHashMap<>();
+      allGroups.forEach(group -> newGroups.put(group.getId(), group));
+      GroupHierarchy newHierarchy = GroupHierarchy.of(allGroups);
+      GroupIndex newIndex = new GroupIndex(allGroups);
+      synchronized (this) {
+        for (Map.Entry<Long, Change> entry : changes.entrySet()) {
+          Change change = entry.getValue();
+          if (change.number() > startChangeCount) {
+            long groupId = entry.getKey();
+            LOG.debug("Re-applying change of group {} made while refreshing", groupId);
+            if (change.group() != null) {
+              newGroups.put(groupId, change.group());
+              newHierarchy = newHierarchy.with(change.group());
+              newIndex = newIndex.with(change.group());
+            } else {
+              newGroups.remove(groupId);
+              newHierarchy = newHierarchy.without(groupId);
+              newIndex = newIndex.without(groupId);
+            }
+          }
+        }
+        groups = newGroups;
+        hierarchy = newHierarchy;
+        index = newIndex;
+        loaded = true;
+        restored = false;
+      }
+      LOG.info("Refreshed group catalog with {} groups", newGroups.size());
+    } finally {
+      synchronized (this) {
+        if (--runningRefreshes == 0) {
+          changes.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the catalog with the given groups (e.g. restored from a snapshot) unless it's loaded already.
+   */
+  public void restore(List<GLGroup> restoredGroups) {
+    synchronized (this) {
+      if (!loaded) {
+        Map<Long, GLGroup> newGroups = new ConcurrentHashMap<>(groups);
+        restoredGroups.forEach(group -> newGroups.putIfAbsent(group.getId(), group));
+        groups = newGroups;
+        hierarchy = GroupHierarchy.of(newGroups.values());
+        index = new GroupIndex(new ArrayList<>(newGroups.values()));
+        loaded = true;
+        restored = true;
+      }
+    }
+    LOG.info("Restored group catalog with {} groups", restoredGroups.size());
+  }
+
+  /**
+   * Returns {@code true} if the catalog was restored and not refreshed from GitLab yet.
+   */
+  public boolean isRestored() {
+    return restored;
+  }
+
+  public List<GLGroup> getGroups() {
+    return new ArrayList<>(groups.values());
+  }
+
+  public void refreshGroup(long groupId) {
+    GLGroup group = client.getGroup(groupId);
+    synchronized (this) {
+      update(groupId, group);
+    }
+  }
+
+  public void removeGroup(long groupId) {
+    synchronized (this) {
+      update(groupId, null);
+    }
+  }
+
+  /**
+   * Adds, replaces or (if {@code null}) removes the given group. The change is recorded if a refresh is running, so
+   * it isn't reverted by the groups retrieved before. Requires the lock on this catalog.
+   */
+  private void update(long groupId, GLGroup group) {
+    changeCount++;
+    if (runningRefreshes > 0) {
+      changes.put(groupId, new Change(changeCount, group));
+    }
+    if (group != null) {
+      groups.put(groupId, group);
+      hierarchy = hierarchy.with(group);
+      index = index.with(group);
+    } else if (groups.remove(groupId) != null) {
+      hierarchy = hierarchy.without(groupId);
+      index = index.without(groupId);
+    }
+  }
+
+  private record Change(long number, GLGroup group) {
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable parent map of {@link GLGroup}s - the group IDs in a sorted array with the parent pointers in a parallel
+ * array (16 bytes per group). Single groups are added, moved or removed by copying the arrays.
+ */
+final class GroupHierarchy {
+  static final GroupHierarchy EMPTY = new GroupHierarchy(new long[0], new long[0]);
+  static final long NO_PARENT = 0;
+  static final long UNKNOWN = -1;
+
+  private final long[] ids;
+  private final long[] parentIds;
+
+  private GroupHierarchy(long[] ids, long[] parentIds) {
+    this.ids = ids;
+    this.parentIds = parentIds;
+  }
+
+  static GroupHierarchy of(Collection<GLGroup> groups) {
+    long[][] pairs = groups.stream().map(group -> new long[]{group.getId(), getParentId(group)})
+        .sorted((first, second) -> Long.compare(first[0], second[0])).toArray(long[][]::new);
+    long[] ids = new long[pairs.length];
+    long[] parentIds = new long[pairs.length];
+    for (int i = 0; i < pairs.length; i++) {
+      ids[i] = pairs[i][0];
+      parentIds[i] = pairs[i][1];
+    }
+    return new GroupHierarchy(ids, parentIds);
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  boolean contains(long groupId) {
+    return Arrays.binarySearch(ids, groupId) >= 0;
+  }
+
+  /**
+   * Returns the parent's ID of the given group, {@link #NO_PARENT} for top-level groups or {@link #UNKNOWN} if the
+   * group isn't available.
+   */
+  long getParentId(long groupId) {
+    int index = Arrays.binarySearch(ids, groupId);
+    return index >= 0 ? parentIds[index] : UNKNOWN;
+  }
+
+  GroupHierarchy with(GLGroup group) {
+    long groupId = group.getId();
+    long parentId = getParentId(group);
+    int index = Arrays.binarySearch(ids, groupId);
+    if (index >= 0) {
+      if (parentIds[index] == parentId) {
+        return this;
+      }
+      long[] newParentIds = parentIds.clone();
+      newParentIds[index] = parentId;
+      return new GroupHierarchy(ids, newParentIds);
+    }
+    int insertIndex = -index - 1;
+    long[] newIds = new long[ids.length + 1];
+    long[] newParentIds = new long[ids.length + 1];
+    System.arraycopy(ids, 0, newIds, 0, insertIndex);
+    System.arraycopy(parentIds, 0, newParentIds, 0, insertIndex);
+    newIds[insertIndex] = groupId;
+    newParentIds[insertIndex] = parentId;
+    System.arraycopy(ids, insertIndex, newIds, insertIndex + 1, ids.length - insertIndex);
+    System.arraycopy(parentIds, insertIndex, newParentIds, insertIndex + 1, ids.length - insertIndex);
+    return new GroupHierarchy(newIds, newParentIds);
+  }
+
+  GroupHierarchy without(long groupId) {
+    int index = Arrays.binarySearch(ids, groupId);
+    if (index < 0) {
+      return this;
+    }
+    long[] newIds = new long[ids.length - 1];
+    long[] newParentIds = new long[ids.length - 1];
+    System.arraycopy(ids, 0, newIds, 0, index);
+    System.arraycopy(parentIds, 0, newParentIds, 0, index);
+    System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+    System.arraycopy(parentIds, index + 1, newParentIds, index, ids.length - index - 1);
+    return new GroupHierarchy(newIds, newParentIds);
+  }
+
+  private static long getParentId(GLGroup group) {
+    return group.getParentId() != null ? group.getParentId() : NO_PARENT;
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable search index over the name, path and full path of {@link GLGroup}s.
+ * <p>
+ * Prefix lookups use a sorted array of terms (the name, path and full path as a whole plus their single words). For
+ * queries with at least three characters an inverted index of the trigrams of name and full path finds substring
+ * matches, and - if there's none - groups sharing most of the query's trigrams.
+ * <p>
+ * Single groups are added, replaced or removed without rebuilding the whole index. The changed groups are indexed in
+ * a small delta segment which hides the base segment's entries of these groups. Once more than the square root of the
+ * base segment's size (at least 64) groups are changed, both are merged into a new base segment. So a single change
+ * costs O(sqrt(n)) amortized instead of rebuilding the index.
+ */
+final class GroupIndex {
+  static final GroupIndex EMPTY = new GroupIndex(List.of());
+
+  private static final int MIN_MERGE_SIZE = 64;
+
+  private static final int SCORE_EXACT = 100;
+  private static final int SCORE_EXACT_WORD = 80;
+  private static final int SCORE_PREFIX = 60;
+  private static final int SCORE_PREFIX_WORD = 50;
+  private static final int SCORE_SUBSTRING = 40;
+  private static final int SCORE_SIMILAR = 20;
+
+  private final Segment base;
+  private final Segment delta;
+  private final Map<Long, GLGroup> deltaGroups;
+  // IDs of the changed groups - their entries in the base segment are hidden
+  private final Set<Long> hidden;
+
+  GroupIndex(Collection<GLGroup> groups) {
+    this(new Segment(groups), Map.of(), Set.of());
+  }
+
+  private GroupIndex(Segment base, Map<Long, GLGroup> deltaGroups, Set<Long> hidden) {
+    this.base = base;
+    this.delta = deltaGroups.isEmpty() ? Segment.EMPTY : new Segment(deltaGroups.values());
+    this.deltaGroups = deltaGroups;
+    this.hidden = hidden;
+  }
+
+  /**
+   * Returns an index with the given group added or replaced.
+   */
+  GroupIndex with(GLGroup group) {
+    Map<Long, GLGroup> changedGroups = new LinkedHashMap<>(deltaGroups);
+    changedGroups.put(group.getId(), group);
+    return update(changedGroups, group.getId());
+  }
+
+  /**
+   * Returns an index without the given group.
+   */
+  GroupIndex without(long groupId) {
+    if (!deltaGroups.containsKey(groupId) && hidden.contains(groupId)) {
+      return this;
+    }
+    Map<Long, GLGroup> changedGroups = new LinkedHashMap<>(deltaGroups);
+    changedGroups.remove(groupId);
+    return update(changedGroups, groupId);
+  }
+
+  private GroupIndex update(Map<Long, GLGroup> changedGroups, long groupId) {
+    Set<Long> changedIds = new HashSet<>(hidden);
+    changedIds.add(groupId);
+    if (changedIds.size() <= Math.max(MIN_MERGE_SIZE, (int) Math.sqrt(base.groups.length))) {
+      return new GroupIndex(base, changedGroups, changedIds);
+    }
+    List<GLGroup> groups = new ArrayList<>(base.groups.length + changedGroups.size());
+    for (GLGroup group : base.groups) {
+      if (!changedIds.contains(group.getId())) {
+        groups.add(group);
+      }
+    }
+    groups.addAll(changedGroups.values());
+    return new GroupIndex(groups);
+  }
+
+  /**
+   * Returns up to <code>limit</code> groups matching the given query and accepted by the given filter, best match
+   * first.
+   */
+  List<GLGroup> search(String query, Predicate<GLGroup> filter, int limit) {
+    String normalizedQuery = normalize(query.trim());
+    if (normalizedQuery.isEmpty() || limit <= 0) {
+      return List.of();
+    }
+    List<Match> matches = base.match(normalizedQuery, hidden);
+    matches.addAll(delta.match(normalizedQuery, Set.of()));
+    matches.sort(Comparator.comparingInt(Match::score).reversed()
+        .thenComparingInt(match -> match.text().length())
+        .thenComparing(Match::text));
+    List<GLGroup> result = new ArrayList<>(Math.min(limit, matches.size()));
+    for (Match match : matches) {
+      GLGroup group = match.group();
+      if (filter.test(group)) {
+        result.add(group);
+        if (result.size() == limit) {
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Returns the distinct trigrams of the given text, each packed into a long. */
+  private static long[] trigrams(String text) {
+    if (text.length() < 3) {
+      return new long[0];
+    }
+    return IntStream.range(0, text.length() - 2)
+        .mapToLong(i -> ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2))
+        .distinct().toArray();
+  }
+
+  private static String normalize(String text) {
+    return text.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Immutable index of a fixed set of groups.
+   */
+  private static final class Segment {
+    static final Segment EMPTY = new Segment(List.of());
+
+    private final GLGroup[] groups;
+    private final String[] texts;
+    private final String[] terms;
+    private final int[] termGroups;
+    private final boolean[] termWhole;
+    private final Map<Long, int[]> trigrams;
+
+    Segment(Collection<GLGroup> groups) {
+      this.groups = groups.toArray(new GLGroup[0]);
+      this.texts = new String[this.groups.length];
+      List<Term> terms = new ArrayList<>();
+      Map<Long, List<Integer>> trigrams = new HashMap<>();
+      for (int i = 0; i < this.groups.length; i++) {
+        GLGroup group = this.groups[i];
+        Set<String> wholeTerms = new LinkedHashSet<>();
+        Set<String> wordTerms = new LinkedHashSet<>();
+        for (String text : new String[]{group.getName(), group.getPath(), group.getFullPath()}) {
+          if (text != null && !text.isEmpty()) {
+            String normalized = normalize(text);
+            wholeTerms.add(normalized);
+            for (String word : normalized.split("[^\\p{L}\\p{N}]+")) {
+              if (!word.isEmpty() && !wholeTerms.contains(word)) {
+                wordTerms.add(word);
+              }
+            }
+          }
+        }
+        int groupIndex = i;
+        wholeTerms.forEach(term -> terms.add(new Term(term, groupIndex, true)));
+        wordTerms.forEach(term -> terms.add(new Term(term, groupIndex, false)));
+        texts[i] = normalize((group.getName() != null ? group.getName() : "") + " "
+            + (group.getFullPath() != null ? group.getFullPath() : group.getPath() != null ? group.getPath() : ""));
+        for (long trigram : trigrams(texts[i])) {
+          trigrams.computeIfAbsent(trigram, key -> new ArrayList<>()).add(groupIndex);
+        }
+      }
+      terms.sort(Comparator.comparing(Term::text));
+      this.terms = new String[terms.size()];
+      this.termGroups = new int[terms.size()];
+      this.termWhole = new boolean[terms.size()];
+      for (int i = 0; i < terms.size(); i++) {
+        this.terms[i] = terms.get(i).text();
+        this.termGroups[i] = terms.get(i).group();
+        this.termWhole[i] = terms.get(i).whole();
+      }
+      this.trigrams = new HashMap<>(trigrams.size() * 2);
+      trigrams.forEach((trigram, postings) -> this.trigrams.put(trigram,
+          postings.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /**
+     * Returns the groups matching the given (normalized) query except the hidden ones - unsorted.
+     */
+    List<Match> match(String query, Set<Long> hidden) {
+      Map<Integer, Integer> scores = new HashMap<>();
+      for (int i = lowerBound(query); i < terms.length && terms[i].startsWith(query); i++) {
+        if (!isHidden(termGroups[i], hidden)) {
+          int score = terms[i].length() == query.length()
+              ? termWhole[i] ? SCORE_EXACT : SCORE_EXACT_WORD
+              : termWhole[i] ? SCORE_PREFIX : SCORE_PREFIX_WORD;
+          scores.merge(termGroups[i], score, Math::max);
+        }
+      }
+      if (query.length() >= 3) {
+        addTrigramMatches(query, hidden, scores);
+      }
+      List<Match> matches = new ArrayList<>(scores.size());
+      scores.forEach((group, score) -> matches.add(new Match(groups[group], score, texts[group])));
+      return matches;
+    }
+
+    private boolean isHidden(int group, Set<Long> hidden) {
+      return !hidden.isEmpty() && hidden.contains(groups[group].getId());
+    }
+
+    private void addTrigramMatches(String query, Set<Long> hidden, Map<Integer, Integer> scores) {
+      long[] queryTrigrams = trigrams(query);
+      Map<Integer, Integer> counts = new HashMap<>();
+      for (long trigram : queryTrigrams) {
+        int[] postings = trigrams.get(trigram);
+        if (postings != null) {
+          for (int group : postings) {
+            if (!isHidden(group, hidden)) {
+              counts.merge(group, 1, Integer::sum);
+            }
+          }
+        }
+      }
+      boolean substringFound = false;
+      for (Map.Entry<Integer, Integer> count : counts.entrySet()) {
+        if (count.getValue() == queryTrigrams.length && texts[count.getKey()].contains(query)) {
+          scores.merge(count.getKey(), SCORE_SUBSTRING, Math::max);
+          substringFound = true;
+        }
+      }
+      if (!substringFound && scores.isEmpty()) {
+        for (Map.Entry<Integer, Integer> count : counts.entrySet()) {
+          if (count.getValue() * 2 >= queryTrigrams.length) {
+            scores.merge(count.getKey(), SCORE_SIMILAR * count.getValue() / queryTrigrams.length, Math::max);
+          }
+        }
+      }
+    }
+
+    private int lowerBound(String key) {
+      int low = 0;
+      int high = terms.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (terms[middle].compareTo(key) < 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
+  private record Match(GLGroup group, int score, String text) {
+  }
+
+  private record Term(String text, int group, boolean whole) {
+  }
+}
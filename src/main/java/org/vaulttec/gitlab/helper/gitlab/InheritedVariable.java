@@ -0,0 +1,50 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+
+/**
+ * Variable effective for a group together with the ID of the (ancestor) group it's defined in.
+ */
+public final class InheritedVariable {
+  private final GLVariable variable;
+  private final long groupId;
+
+  public InheritedVariable(GLVariable variable, long groupId) {
+    this.variable = variable;
+    this.groupId = groupId;
+  }
+
+  public GLVariable getVariable() {
+    return variable;
+  }
+
+  public long getGroupId() {
+    return groupId;
+  }
+
+  @Override
+  public String toString() {
+    return "InheritedVariable{" +
+        "key='" + variable.getKey() + '\'' +
+        ", environmentScope='" + variable.getEnvironmentScope() + '\'' +
+        ", groupId=" + groupId +
+        '}';
+  }
+}
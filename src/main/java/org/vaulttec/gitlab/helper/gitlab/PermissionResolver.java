@@ -0,0 +1,73 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.springframework.stereotype.Service;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves a user's effective permission in a group. GitLab passes memberships down to subgroups, so the highest
+ * access level of the user's direct memberships in the group and its ancestors applies. The ancestors are resolved
+ * from the {@link GroupCatalog}, so no additional GitLab requests are needed for groups known to the catalog. The
+ * catalog refreshes a group's parent when a GitLab hook reports the group's transfer.
+ */
+@Service
+public class PermissionResolver {
+
+  private final GroupCatalog catalog;
+
+  public PermissionResolver(GroupCatalog catalog) {
+    this.catalog = catalog;
+  }
+
+  /**
+   * Returns the user's effective permission in the given group or {@code null} if the user isn't member of the group
+   * or any of its ancestors.
+   */
+  public GLPermission getPermission(long groupId, CachedValue<List<GLMembership>> memberships) {
+    Map<Long, GLPermission> permissions = memberships.getDerived("permissions", PermissionResolver::toPermissions);
+    GLPermission permission = permissions.get(groupId);
+    if (permissions.isEmpty() || permission == GLPermission.OWNER) {
+      return permission;
+    }
+    List<Long> ancestry = catalog.getAncestry(groupId);
+    if (ancestry == null) {
+      return permission;
+    }
+    for (int i = 1; i < ancestry.size(); i++) {
+      GLPermission inherited = permissions.get(ancestry.get(i));
+      if (inherited != null && (permission == null || inherited.compareAccessLevel(permission) > 0)) {
+        permission = inherited;
+      }
+    }
+    return permission;
+  }
+
+  private static Map<Long, GLPermission> toPermissions(List<GLMembership> memberships) {
+    Map<Long, GLPermission> permissions = new HashMap<>(memberships.size() * 2);
+    for (GLMembership membership : memberships) {
+      permissions.merge(membership.getSourceId(), membership.getPermission(), (first, second) -> first.compareAccessLevel(second) >= 0 ? first : second);
+    }
+    return permissions;
+  }
+}
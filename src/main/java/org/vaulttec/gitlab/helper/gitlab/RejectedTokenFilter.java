@@ -0,0 +1,145 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the hashes of personal access tokens recently rejected by GitLab in a Bloom filter, so repeated requests
+ * with the same invalid token are rejected without asking GitLab again.
+ * <p>
+ * Tokens expire by rotating two generations: tokens are added to the current generation and looked up in both.
+ * Every half of the expiry the previous generation is dropped, so a token is remembered for at least half and at
+ * most the full expiry. A generation which is full (holds the expected number of tokens) is rotated early, so the
+ * false positive probability never exceeds the configured one. The memory used is fixed by the two bit sets.
+ * <p>
+ * A false positive rejects a valid token until it expires, so callers should look up known valid tokens first.
+ */
+class RejectedTokenFilter {
+  private final int capacity;
+  private final int numBits;
+  private final int numHashes;
+  private final long rotationNanos;
+  private volatile Generation current;
+  private volatile Generation previous;
+
+  RejectedTokenFilter(int expectedTokens, double falsePositiveProbability, Duration expiry) {
+    this.capacity = Math.max(1, expectedTokens);
+    double bits = -capacity * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+    this.numBits = (int) Math.min(Integer.MAX_VALUE - Long.SIZE, Math.max(Long.SIZE, Math.ceil(bits)));
+    this.numHashes = Math.max(1, (int) Math.round((double) numBits / capacity * Math.log(2)));
+    this.rotationNanos = expiry.toNanos() / 2;
+    long now = System.nanoTime();
+    this.current = new Generation(numBits, now);
+    this.previous = new Generation(numBits, now);
+  }
+
+  /**
+   * Returns {@code true} if the token with the given hash (at least 16 bytes) was rejected recently - or in rare
+   * cases (false positives) if it wasn't.
+   */
+  boolean mightContain(byte[] tokenHash) {
+    return mightContain(tokenHash, System.nanoTime());
+  }
+
+  boolean mightContain(byte[] tokenHash, long now) {
+    rotateIfDue(now);
+    long h1 = getHash1(tokenHash);
+    long h2 = getHash2(tokenHash);
+    return current.contains(h1, h2) || previous.contains(h1, h2);
+  }
+
+  void add(byte[] tokenHash) {
+    add(tokenHash, System.nanoTime());
+  }
+
+  void add(byte[] tokenHash, long now) {
+    rotateIfDue(now);
+    Generation generation = current;
+    generation.add(getHash1(tokenHash), getHash2(tokenHash));
+    if (generation.count.incrementAndGet() >= capacity) {
+      rotate(generation, now);
+    }
+  }
+
+  int getNumBits() {
+    return numBits;
+  }
+
+  int getNumHashes() {
+    return numHashes;
+  }
+
+  private void rotateIfDue(long now) {
+    Generation generation = current;
+    if (now - generation.createdAt >= rotationNanos) {
+      rotate(generation, now);
+    }
+  }
+
+  private synchronized void rotate(Generation expected, long now) {
+    if (current == expected) {
+      previous = expected;
+      current = new Generation(numBits, now);
+    }
+  }
+
+  private static long getHash1(byte[] tokenHash) {
+    return ByteBuffer.wrap(tokenHash, 0, Long.BYTES).getLong();
+  }
+
+  private static long getHash2(byte[] tokenHash) {
+    // Odd, so the probe sequence doesn't collapse
+    return ByteBuffer.wrap(tokenHash, Long.BYTES, Long.BYTES).getLong() | 1;
+  }
+
+  /**
+   * Bit set probed at {@code h1 + i * h2} for the i-th hash function (Kirsch-Mitzenmacher).
+   */
+  private final class Generation {
+    private final AtomicLongArray bits;
+    private final AtomicInteger count = new AtomicInteger();
+    private final long createdAt;
+
+    private Generation(int numBits, long createdAt) {
+      this.bits = new AtomicLongArray((numBits + Long.SIZE - 1) / Long.SIZE);
+      this.createdAt = createdAt;
+    }
+
+    private boolean contains(long h1, long h2) {
+      for (int i = 0; i < numHashes; i++) {
+        int index = (int) Math.floorMod(h1 + i * h2, (long) numBits);
+        if ((bits.get(index >>> 6) & (1L << index)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void add(long h1, long h2) {
+      for (int i = 0; i < numHashes; i++) {
+        int index = (int) Math.floorMod(h1 + i * h2, (long) numBits);
+        long mask = 1L << index;
+        bits.getAndUpdate(index >>> 6, word -> word | mask);
+      }
+    }
+  }
+}
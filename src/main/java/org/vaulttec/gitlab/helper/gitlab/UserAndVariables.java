@@ -0,0 +1,46 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+
+import java.util.List;
+
+/**
+ * User of a personal access token together with the variables of a group, as retrieved by
+ * {@link GitLabClient#getUserAndGroupVariables(String, long)}. The variables are {@code null} if the user isn't
+ * permitted to administer them.
+ */
+public final class UserAndVariables {
+  private final GLUser user;
+  private final List<GLVariable> variables;
+
+  public UserAndVariables(GLUser user, List<GLVariable> variables) {
+    this.user = user;
+    this.variables = variables;
+  }
+
+  public GLUser getUser() {
+    return user;
+  }
+
+  public List<GLVariable> getVariables() {
+    return variables;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of a group's variables by key and environment scope - GitLab allows the same key in several
+ * environment scopes.
+ */
+public final class VariableIndex {
+  public static final String DEFAULT_ENVIRONMENT_SCOPE = GLVariableKey.DEFAULT_ENVIRONMENT_SCOPE;
+
+  private final Map<String, Map<String, GLVariable>> variables;
+
+  private VariableIndex(Map<String, Map<String, GLVariable>> variables) {
+    this.variables = variables;
+  }
+
+  public static VariableIndex of(List<GLVariable> variables) {
+    Map<String, Map<String, GLVariable>> index = new HashMap<>(variables.size() * 2);
+    for (GLVariable variable : variables) {
+      index.computeIfAbsent(variable.getKey(), key -> new LinkedHashMap<>(2))
+          .put(getEnvironmentScope(variable.getEnvironmentScope()), variable);
+    }
+    return new VariableIndex(index);
+  }
+
+  public boolean contains(String key) {
+    return variables.containsKey(key);
+  }
+
+  public boolean contains(String key, String environmentScope) {
+    return get(key, environmentScope) != null;
+  }
+
+  public GLVariable get(String key, String environmentScope) {
+    Map<String, GLVariable> scopes = variables.get(key);
+    return scopes != null ? scopes.get(getEnvironmentScope(environmentScope)) : null;
+  }
+
+  /**
+   * Returns the variables with the given key in all environment scopes.
+   */
+  public Collection<GLVariable> get(String key) {
+    Map<String, GLVariable> scopes = variables.get(key);
+    return scopes != null ? Collections.unmodifiableCollection(scopes.values()) : Collections.emptyList();
+  }
+
+  public static String getEnvironmentScope(String environmentScope) {
+    return GLVariableKey.normalizeEnvironmentScope(environmentScope);
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.stereotype.Service;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.http.client.Deadline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the variables effective for a group - its own variables and the ones inherited from its ancestor
+ * groups. Variables of a group take precedence over the ones of its ancestors.
+ */
+@Service
+public class VariableResolver {
+  private static final Logger LOG = LoggerFactory.getLogger(VariableResolver.class);
+
+  private final GitLabService service;
+  private final GroupCatalog catalog;
+  private final Executor executor;
+
+  public VariableResolver(GitLabService service, GroupCatalog catalog, @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
+    this.service = service;
+    this.catalog = catalog;
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the variables effective for the given group. Without environment all variables are returned, one per
+   * key and environment scope. With environment only the variables matching the environment are returned, one per
+   * key with the most specific environment scope.
+   * <p>
+   * The variables of all ancestor groups are retrieved concurrently (within the current request's deadline). They are
+   * cached per group, so sibling groups share them. Returns {@code null} if a group or its variables aren't available.
+   */
+  public List<InheritedVariable> getEffectiveVariables(long groupId, String environment) {
+    List<Long> ancestry = catalog.getAncestry(groupId);
+    if (ancestry == null) {
+      return null;
+    }
+    List<CompletableFuture<List<GLVariable>>> futures = ancestry.stream()
+        .map(id -> CompletableFuture.supplyAsync(Deadline.propagate(() -> service.getGroupVariables(id)), executor))
+        .collect(Collectors.toList());
+    List<List<GLVariable>> variables = new ArrayList<>(ancestry.size());
+    for (int i = 0; i < ancestry.size(); i++) {
+      List<GLVariable> groupVariables;
+      try {
+        groupVariables = futures.get(i).join();
+      } catch (CompletionException e) {
+        // Rethrow the original exception, e.g. a rejection by the GitLab client's bulkhead
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+      if (groupVariables == null) {
+        LOG.warn("Retrieving variables of group {} failed", ancestry.get(i));
+        return null;
+      }
+      variables.add(groupVariables);
+    }
+    return environment == null ? merge(ancestry, variables) : merge(ancestry, variables, environment);
+  }
+
+  private static List<InheritedVariable> merge(List<Long> ancestry, List<List<GLVariable>> variables) {
+    Map<String, Map<String, InheritedVariable>> effective = new LinkedHashMap<>();
+    for (int i = 0; i < ancestry.size(); i++) {
+      for (GLVariable variable : variables.get(i)) {
+        effective.computeIfAbsent(variable.getKey(), key -> new LinkedHashMap<>())
+            .putIfAbsent(VariableIndex.getEnvironmentScope(variable.getEnvironmentScope()), new InheritedVariable(variable, ancestry.get(i)));
+      }
+    }
+    return effective.values().stream().flatMap(scopes -> scopes.values().stream()).collect(Collectors.toList());
+  }
+
+  private static List<InheritedVariable> merge(List<Long> ancestry, List<List<GLVariable>> variables, String environment) {
+    Map<String, InheritedVariable> effective = new LinkedHashMap<>();
+    for (int i = 0; i < ancestry.size(); i++) {
+      // Within a group the most specific environment scope wins, across groups the nearest group wins
+      Map<String, GLVariable> groupVariables = new HashMap<>();
+      for (GLVariable variable : variables.get(i)) {
+        String scope = VariableIndex.getEnvironmentScope(variable.getEnvironmentScope());
+        if (!effective.containsKey(variable.getKey()) && matchesEnvironment(scope, environment)) {
+          groupVariables.merge(variable.getKey(), variable, (current, other) ->
+              getSpecificity(VariableIndex.getEnvironmentScope(other.getEnvironmentScope())) > getSpecificity(VariableIndex.getEnvironmentScope(current.getEnvironmentScope())) ? other : current);
+        }
+      }
+      long groupId = ancestry.get(i);
+      groupVariables.values().forEach(variable -> effective.put(variable.getKey(), new InheritedVariable(variable, groupId)));
+    }
+    return new ArrayList<>(effective.values());
+  }
+
+  /**
+   * Matches the environment against the given environment scope where {@code *} matches any characters.
+   */
+  static boolean matchesEnvironment(String scope, String environment) {
+    int s = 0, e = 0, starIndex = -1, matchIndex = 0;
+    while (e < environment.length()) {
+      if (s < scope.length() && scope.charAt(s) == environment.charAt(e)) {
+        s++;
+        e++;
+      } else if (s < scope.length() && scope.charAt(s) == '*') {
+        starIndex = s++;
+        matchIndex = e;
+      } else if (starIndex >= 0) {
+        s = starIndex + 1;
+        e = ++matchIndex;
+      } else {
+        return false;
+      }
+    }
+    while (s < scope.length() && scope.charAt(s) == '*') {
+      s++;
+    }
+    return s == scope.length();
+  }
+
+  /**
+   * Exact environment scopes are more specific than wildcard ones, which are more specific the more literal
+   * characters they contain.
+   */
+  private static int getSpecificity(String scope) {
+    return scope.indexOf('*') < 0 ? Integer.MAX_VALUE : scope.replace("*", "").length();
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableValue;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores the values of cached {@link GLVariable}s off-heap, so large values (e.g. certificates or kubeconfigs of file
+ * variables) don't add to the heap and its GC pauses. The variables only keep a handle of their value, which is
+ * decoded on every access.
+ * <p>
+ * The values of a variable list are written into a single direct buffer, which is released together with the cached
+ * list. Values exceeding the compression threshold are deflated (if this saves space). With encryption enabled every
+ * value is encrypted with AES-CTR and a random IV under a key generated on startup. The key never leaves the process,
+ * so dumps of native memory or swapped pages don't reveal values - the key itself is held on heap though.
+ * <p>
+ * The direct memory used is reported by the JVM's buffer pool metrics ({@code jvm.buffer.memory.used}).
+ */
+class VariableValueStore {
+  private static final String CIPHER = "AES/CTR/NoPadding";
+  private static final int IV_LENGTH = 16;
+
+  private final int compressionThreshold;
+  private final SecretKey key;
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * @param compressionThreshold minimum size of values to compress or {@code -1} for no compression
+   */
+  VariableValueStore(int compressionThreshold, boolean encryptionEnabled) {
+    this.compressionThreshold = compressionThreshold;
+    try {
+      if (encryptionEnabled) {
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256, random);
+        this.key = keyGenerator.generateKey();
+      } else {
+        this.key = null;
+      }
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("AES not available", e);
+    }
+  }
+
+  /**
+   * Moves the values of the given variables into a new direct buffer and returns the variables.
+   */
+  List<GLVariable> store(List<GLVariable> variables) {
+    byte[][] encoded = new byte[variables.size()][];
+    boolean[] compressed = new boolean[variables.size()];
+    int size = 0;
+    for (int i = 0; i < variables.size(); i++) {
+      GLVariable variable = variables.get(i);
+      if (variable.getStoredValue() == null && variable.getValue() != null) {
+        byte[] bytes = variable.getValue().getBytes(StandardCharsets.UTF_8);
+        if (compressionThreshold >= 0 && bytes.length >= compressionThreshold) {
+          byte[] deflated = deflate(bytes);
+          if (deflated.length < bytes.length) {
+            bytes = deflated;
+            compressed[i] = true;
+          }
+        }
+        encoded[i] = key != null ? encrypt(bytes) : bytes;
+        size += encoded[i].length;
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    for (int i = 0; i < variables.size(); i++) {
+      if (encoded[i] != null) {
+        int offset = buffer.position();
+        buffer.put(encoded[i]);
+        variables.get(i).setStoredValue(new StoredValue(buffer, offset, encoded[i].length, compressed[i]));
+        Arrays.fill(encoded[i], (byte) 0);
+      }
+    }
+    return variables;
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+      byte[] chunk = new byte[8192];
+      while (!deflater.finished()) {
+        out.write(chunk, 0, deflater.deflate(chunk));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Returns the encrypted bytes prefixed with the IV.
+   */
+  private byte[] encrypt(byte[] bytes) {
+    byte[] iv = new byte[IV_LENGTH];
+    random.nextBytes(iv);
+    byte[] encrypted = new byte[IV_LENGTH + bytes.length];
+    System.arraycopy(iv, 0, encrypted, 0, IV_LENGTH);
+    try {
+      createCipher(Cipher.ENCRYPT_MODE, iv).doFinal(bytes, 0, bytes.length, encrypted, IV_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Encrypting variable value failed", e);
+    }
+    return encrypted;
+  }
+
+  private Cipher createCipher(int mode, byte[] iv) throws GeneralSecurityException {
+    Cipher cipher = Cipher.getInstance(CIPHER);
+    cipher.init(mode, key, new IvParameterSpec(iv));
+    return cipher;
+  }
+
+  private class StoredValue implements GLVariableValue {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+    private final boolean compressed;
+
+    StoredValue(ByteBuffer buffer, int offset, int length, boolean compressed) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.length = length;
+      this.compressed = compressed;
+    }
+
+    @Override
+    public String get() {
+      try (InputStream in = openStream()) {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Decoding variable value failed", e);
+      }
+    }
+
+    @Override
+    public Reader openReader() throws IOException {
+      return new InputStreamReader(openStream(), StandardCharsets.UTF_8);
+    }
+
+    private InputStream openStream() throws IOException {
+      // Every access gets its own view of the shared buffer
+      ByteBuffer data = buffer.slice(offset, length);
+      InputStream in;
+      if (key != null) {
+        byte[] iv = new byte[IV_LENGTH];
+        data.get(iv);
+        try {
+          in = new CipherInputStream(new BufferInputStream(data), createCipher(Cipher.DECRYPT_MODE, iv));
+        } catch (GeneralSecurityException e) {
+          throw new IOException("Decrypting variable value failed", e);
+        }
+      } else {
+        in = new BufferInputStream(data);
+      }
+      return compressed ? new InflaterInputStream(in) : in;
+    }
+  }
+
+  private static class BufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    BufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -17,16 +17,22 @@
  */
 package org.vaulttec.gitlab.helper.gitlab.model;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import java.io.Serializable;
 import java.util.Objects;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class GLGroup {
+public class GLGroup implements Serializable {
   private Long id;
   private String path;
+  @JsonAlias("full_path")
+  private String fullPath;
   private String name;
   private String description;
+  @JsonAlias("parent_id")
+  private Long parentId;
 
   public Long getId() {
     return id;
@@ -44,6 +50,14 @@ public class GLGroup {
     this.path = path;
   }
 
+  public String getFullPath() {
+    return fullPath;
+  }
+
+  public void setFullPath(String fullPath) {
+    this.fullPath = fullPath;
+  }
+
   public String getName() {
     return name;
   }
@@ -60,6 +74,14 @@ public class GLGroup {
     this.description = description;
   }
 
+  public Long getParentId() {
+    return parentId;
+  }
+
+  public void setParentId(Long parentId) {
+    this.parentId = parentId;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -80,8 +102,10 @@ public class GLGroup {
     return "GLGroup{" +
         "id=" + id +
         ", path='" + path + '\'' +
+        ", fullPath='" + fullPath + '\'' +
         ", name='" + name + '\'' +
         ", description='" + description + '\'' +
+        ", parentId=" + parentId +
         '}';
   }
 }
@@ -20,10 +20,11 @@ package org.vaulttec.gitlab.helper.gitlab.model;
 import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import java.io.Serializable;
 import java.util.Objects;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class GLMembership {
+public class GLMembership implements Serializable {
   @JsonAlias("source_id")
   private Long sourceId;
   @JsonAlias("source_name")
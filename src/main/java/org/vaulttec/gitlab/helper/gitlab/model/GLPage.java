@@ -0,0 +1,121 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab.model;
+
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single page of a GitLab listing. The next page is described by the GitLab query params needed to retrieve it -
+ * either offset ({@code page}) or keyset ({@code cursor}, {@code id_after}, ...) based.
+ */
+public class GLPage<T> {
+  public static final String PARAM_PAGE = "page";
+  public static final String PARAM_PER_PAGE = "per_page";
+  public static final int DEFAULT_PER_PAGE = 20;
+  public static final int MAX_PER_PAGE = 100;
+  private static final Set<String> PAGE_PARAMS = Set.of(PARAM_PAGE, PARAM_PER_PAGE, "pagination", "cursor",
+      "id_after", "order_by", "sort");
+
+  private final List<T> items;
+  private final Map<String, String> next;
+  private final Integer total;
+
+  public GLPage(List<T> items, Map<String, String> next, Integer total) {
+    this.items = items;
+    this.next = next;
+    this.total = total;
+  }
+
+  /**
+   * Creates the page requested via offset pagination params from the given complete list.
+   */
+  public static <T> GLPage<T> of(List<T> all, Map<String, String> pageParams) {
+    int page = getPage(pageParams);
+    int perPage = getPerPage(pageParams);
+    int from = (int) Math.min((long) (page - 1) * perPage, all.size());
+    int to = Math.min(from + perPage, all.size());
+    Map<String, String> next = null;
+    if (to < all.size()) {
+      next = new LinkedHashMap<>();
+      next.put(PARAM_PAGE, Integer.toString(page + 1));
+      next.put(PARAM_PER_PAGE, Integer.toString(perPage));
+    }
+    return new GLPage<>(all.subList(from, to), next, all.size());
+  }
+
+  /**
+   * Returns the pagination params from the query of the given (GitLab) URI.
+   */
+  public static Map<String, String> getPageParams(URI uri) {
+    MultiValueMap<String, String> queryParams = UriComponentsBuilder.fromUri(uri).build().getQueryParams();
+    Map<String, String> pageParams = new LinkedHashMap<>();
+    queryParams.forEach((name, values) -> {
+      if (isPageParam(name) && !values.isEmpty() && values.get(0) != null) {
+        pageParams.put(name, UriUtils.decode(values.get(0), StandardCharsets.UTF_8));
+      }
+    });
+    return pageParams;
+  }
+
+  public static boolean isPageParam(String name) {
+    return PAGE_PARAMS.contains(name);
+  }
+
+  /**
+   * Returns {@code true} if the given params only use offset pagination, so the page can be sliced from a
+   * complete list.
+   */
+  public static boolean isOffsetPagination(Map<String, String> pageParams) {
+    return pageParams.keySet().stream().allMatch(name -> PARAM_PAGE.equals(name) || PARAM_PER_PAGE.equals(name));
+  }
+
+  private static int getPage(Map<String, String> pageParams) {
+    String page = pageParams.get(PARAM_PAGE);
+    return page != null ? Math.max(1, Integer.parseInt(page)) : 1;
+  }
+
+  private static int getPerPage(Map<String, String> pageParams) {
+    String perPage = pageParams.get(PARAM_PER_PAGE);
+    return perPage != null ? Math.min(MAX_PER_PAGE, Math.max(1, Integer.parseInt(perPage))) : DEFAULT_PER_PAGE;
+  }
+
+  public List<T> getItems() {
+    return items;
+  }
+
+  public Map<String, String> getNext() {
+    return next;
+  }
+
+  public boolean hasNext() {
+    return next != null && !next.isEmpty();
+  }
+
+  public Integer getTotal() {
+    return total;
+  }
+}
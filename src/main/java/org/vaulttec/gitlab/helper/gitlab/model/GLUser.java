@@ -20,6 +20,7 @@ package org.vaulttec.gitlab.helper.gitlab.model;
 import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import java.io.Serializable;
 import java.net.URL;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
@@ -27,7 +28,7 @@ import java.util.Map;
 import java.util.Objects;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class GLUser {
+public class GLUser implements Serializable {
   public static final String CUSTOM_ATTRIBUTE_JOINED = "community_joined";
   public static final DateTimeFormatter JOINED_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE;
 
@@ -18,12 +18,14 @@
 package org.vaulttec.gitlab.helper.gitlab.model;
 
 import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import java.io.Serializable;
 import java.util.Objects;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class GLVariable {
+public class GLVariable implements Serializable {
   private String key;
   private String value;
   @JsonAlias("variable_type")
@@ -34,6 +36,7 @@ public class GLVariable {
   private boolean isMasked;
   @JsonAlias("environment_scope")
   private String environmentScope;
+  private transient GLVariableValue storedValue;
 
   public String getKey() {
     return key;
@@ -44,11 +47,29 @@ public class GLVariable {
   }
 
   public String getValue() {
-    return value;
+    return storedValue != null ? storedValue.get() : value;
   }
 
   public void setValue(String value) {
     this.value = value;
+    this.storedValue = null;
+  }
+
+  /**
+   * Returns the value if it's stored outside of this variable, e.g. for streaming it. Otherwise {@code null}.
+   */
+  @JsonIgnore
+  public GLVariableValue getStoredValue() {
+    return storedValue;
+  }
+
+  /**
+   * Replaces the value with the given stored one.
+   */
+  @JsonIgnore
+  public void setStoredValue(GLVariableValue storedValue) {
+    this.storedValue = storedValue;
+    this.value = null;
   }
 
   public String getVariableType() {
@@ -83,6 +104,9 @@ public class GLVariable {
     this.environmentScope = environmentScope;
   }
 
+  /**
+   * Variables are identified by key and environment scope - without scope it's the default one.
+   */
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -90,12 +114,13 @@ public class GLVariable {
 
     GLVariable that = (GLVariable) o;
 
-    return Objects.equals(key, that.key);
+    return Objects.equals(key, that.key) && GLVariableKey.normalizeEnvironmentScope(environmentScope)
+        .equals(GLVariableKey.normalizeEnvironmentScope(that.environmentScope));
   }
 
   @Override
   public int hashCode() {
-    return key != null ? key.hashCode() : 0;
+    return Objects.hash(key, GLVariableKey.normalizeEnvironmentScope(environmentScope));
   }
 
   @Override
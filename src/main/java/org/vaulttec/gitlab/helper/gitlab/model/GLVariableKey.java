@@ -0,0 +1,130 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab.model;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Compact form of {@link GLVariable} without its value. When deserialised from GitLab's response the values are
+ * skipped by the parser and never held in memory.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GLVariableKey implements Serializable {
+  public static final String DEFAULT_ENVIRONMENT_SCOPE = "*";
+
+  private String key;
+  @JsonAlias("variable_type")
+  private String variableType;
+  @JsonAlias("protected")
+  private boolean isProtected;
+  @JsonAlias("masked")
+  private boolean isMasked;
+  @JsonAlias("environment_scope")
+  private String environmentScope;
+
+  /**
+   * Returns the given environment scope or the default one if there's none.
+   */
+  public static String normalizeEnvironmentScope(String environmentScope) {
+    return environmentScope != null && !environmentScope.isEmpty() ? environmentScope : DEFAULT_ENVIRONMENT_SCOPE;
+  }
+
+  public static GLVariableKey of(GLVariable variable) {
+    GLVariableKey variableKey = new GLVariableKey();
+    variableKey.setKey(variable.getKey());
+    variableKey.setVariableType(variable.getVariableType());
+    variableKey.setIsProtected(variable.getIsProtected());
+    variableKey.setIsMasked(variable.getIsMasked());
+    variableKey.setEnvironmentScope(variable.getEnvironmentScope());
+    return variableKey;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public void setKey(String key) {
+    this.key = key;
+  }
+
+  public String getVariableType() {
+    return variableType;
+  }
+
+  public void setVariableType(String variableType) {
+    this.variableType = variableType;
+  }
+
+  public boolean getIsProtected() {
+    return isProtected;
+  }
+
+  public void setIsProtected(boolean isProtected) {
+    this.isProtected = isProtected;
+  }
+
+  public boolean getIsMasked() {
+    return isMasked;
+  }
+
+  public void setIsMasked(boolean isMasked) {
+    this.isMasked = isMasked;
+  }
+
+  public String getEnvironmentScope() {
+    return environmentScope;
+  }
+
+  public void setEnvironmentScope(String environmentScope) {
+    this.environmentScope = environmentScope;
+  }
+
+  /**
+   * Variables are identified by key and environment scope - without scope it's the default one.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    GLVariableKey that = (GLVariableKey) o;
+
+    return Objects.equals(key, that.key) && normalizeEnvironmentScope(environmentScope)
+        .equals(normalizeEnvironmentScope(that.environmentScope));
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(key, normalizeEnvironmentScope(environmentScope));
+  }
+
+  @Override
+  public String toString() {
+    return "GLVariableKey{" +
+        "key='" + key + '\'' +
+        ", variableType='" + variableType + '\'' +
+        ", isProtected=" + isProtected +
+        ", isMasked=" + isMasked +
+        ", environmentScope='" + environmentScope + '\'' +
+        '}';
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab.model;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Value of a {@link GLVariable} which is stored outside of the variable (e.g. off-heap). It's decoded on every
+ * access, so callers should read it only if needed and stream it if possible.
+ */
+public interface GLVariableValue {
+
+  String get();
+
+  /**
+   * Returns a reader of the decoded value, which has to be closed by the caller.
+   */
+  Reader openReader() throws IOException;
+}
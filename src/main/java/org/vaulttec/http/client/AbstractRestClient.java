@@ -22,16 +22,18 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
 
-import java.net.Proxy;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public abstract class AbstractRestClient {
 
@@ -39,25 +41,42 @@ public abstract class AbstractRestClient {
 
   protected final RestClientConfig config;
   protected final RestTemplate restTemplate;
+  protected final RestTemplate streamingRestTemplate;
+  protected final RequestHedger hedger;
   protected HttpEntity<String> authenticationEntity;
 
   public AbstractRestClient(RestClientConfig config, RestTemplateBuilder restTemplateBuilder) {
+    this(config, restTemplateBuilder, null);
+  }
+
+  public AbstractRestClient(RestClientConfig config, RestTemplateBuilder restTemplateBuilder, RequestHedger hedger) {
     this.config = config;
-    this.restTemplate = createRestTemplate(restTemplateBuilder, config.getProxy());
+    this.restTemplate = createRestTemplate(restTemplateBuilder, config);
+    this.streamingRestTemplate = createStreamingRestTemplate(config);
+    this.hedger = hedger;
   }
 
   protected String getServerUrl() {
     return config.getServerUrl();
   }
 
-  private RestTemplate createRestTemplate(RestTemplateBuilder restTemplateBuilder, Proxy proxy) {
-    RestTemplate restTemplate = restTemplateBuilder.build();
-    if (proxy != null) {
-      SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
-      requestFactory.setProxy(proxy);
-      restTemplate.setRequestFactory(requestFactory);
-    }
-    return restTemplate;
+  private RestTemplate createRestTemplate(RestTemplateBuilder restTemplateBuilder, RestClientConfig config) {
+    return restTemplateBuilder.requestFactory(() -> new DeadlineRequestFactory(config.getProxy(),
+        config.getConnectTimeout(), config.getReadTimeout())).build();
+  }
+
+  /**
+   * Creates a template which streams request bodies instead of buffering them. It has no interceptors (these require
+   * buffered bodies), but the same message converters and error handling.
+   */
+  private RestTemplate createStreamingRestTemplate(RestClientConfig config) {
+    DeadlineRequestFactory requestFactory = new DeadlineRequestFactory(config.getProxy(), config.getConnectTimeout(),
+        config.getReadTimeout());
+    requestFactory.setBufferRequestBody(false);
+    RestTemplate streamingRestTemplate = new RestTemplate(requestFactory);
+    streamingRestTemplate.setMessageConverters(restTemplate.getMessageConverters());
+    streamingRestTemplate.setErrorHandler(restTemplate.getErrorHandler());
+    return streamingRestTemplate;
   }
 
   protected String perPageAsString() {
@@ -90,13 +109,26 @@ public abstract class AbstractRestClient {
     return new HttpEntity<String>(headers);
   }
 
+  /**
+   * Executes the given exchange with the API - hedged if it's a GET request and a {@link RequestHedger} is available.
+   */
+  protected <T> T exchange(String apiCall, HttpMethod method, Supplier<T> exchange) {
+    if (hedger != null && method == HttpMethod.GET) {
+      int queryIndex = apiCall.indexOf('?');
+      return hedger.execute(queryIndex < 0 ? apiCall : apiCall.substring(0, queryIndex), exchange);
+    }
+    return exchange.get();
+  }
+
   protected <T> T makeReadApiCall(String apiCall, HttpMethod method, ParameterizedTypeReference<T> typeReference,
                                   Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
     try {
-      ResponseEntity<T> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
+      ResponseEntity<T> response = exchange(apiCall, method, () -> restTemplate.exchange(url, method,
+          authenticationEntity, typeReference, uriVariables));
       return response.getBody();
+    } catch (BulkheadFullException e) {
+      throw e;
     } catch (Exception e) {
       logException(method, uriVariables, url, e, ignoreStatus);
     }
@@ -108,9 +140,11 @@ public abstract class AbstractRestClient {
                                             Map<String, String> uriVariables, HttpStatus... ignoreStatus) {
     String url = getApiUrl(apiCall);
     try {
-      ResponseEntity<List<T>> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
-          uriVariables);
+      ResponseEntity<List<T>> response = exchange(apiCall, method, () -> restTemplate.exchange(url, method,
+          authenticationEntity, typeReference, uriVariables));
       return response.getBody();
+    } catch (BulkheadFullException e) {
+      throw e;
     } catch (Exception e) {
       logException(method, uriVariables, url, e, ignoreStatus);
     }
@@ -123,6 +157,8 @@ public abstract class AbstractRestClient {
     try {
       restTemplate.exchange(url, method, entity, Void.class, uriVariables);
       return true;
+    } catch (BulkheadFullException e) {
+      throw e;
     } catch (Exception e) {
       logException(method, uriVariables, url, e, ignoreStatus);
     }
@@ -135,6 +171,8 @@ public abstract class AbstractRestClient {
     try {
       restTemplate.exchange(url, method, authenticationEntity, Void.class, uriVariables);
       return true;
+    } catch (BulkheadFullException e) {
+      throw e;
     } catch (Exception e) {
       logException(method, uriVariables, url, e, ignoreStatus);
     }
@@ -148,6 +186,8 @@ public abstract class AbstractRestClient {
       ResponseEntity<T> response = restTemplate.exchange(url, method, authenticationEntity, typeReference,
           uriVariables);
       return response.getBody();
+    } catch (BulkheadFullException e) {
+      throw e;
     } catch (Exception e) {
       logException(method, null, url, e, ignoreStatus);
     }
@@ -160,14 +200,63 @@ public abstract class AbstractRestClient {
     try {
       ResponseEntity<T> response = restTemplate.exchange(url, method, entity, type, uriVariables);
       return response.getBody();
+    } catch (BulkheadFullException e) {
+      throw e;
     } catch (Exception e) {
       logException(method, uriVariables, url, e, ignoreStatus);
     }
     return null;
   }
 
+  /**
+   * Sends the given form fields followed by the given stream as value of the given field. The body is streamed (see
+   * {@link FormEncoder}) with the {@link #streamingRestTemplate}, so interceptors aren't applied. Runtime exceptions
+   * thrown while reading the stream disconnect the request's connection and are rethrown.
+   */
+  protected <T> T makeStreamingWriteApiCall(String apiCall, HttpMethod method, HttpHeaders headers,
+                                            MultiValueMap<String, String> fields, String streamField,
+                                            InputStream stream, Class<T> type, Map<String, String> uriVariables,
+                                            HttpStatus... ignoreStatus) {
+    String url = getApiUrl(apiCall);
+    // The connection is opened under this deadline, so it can be disconnected if the body can't be completed
+    Deadline attempt = Deadline.abortable(Deadline.current());
+    RequestCallback requestCallback = request -> {
+      request.getHeaders().putAll(headers);
+      request.getHeaders().setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+      try {
+        FormEncoder.write(fields, streamField, stream, request.getBody());
+      } catch (IOException | RuntimeException e) {
+        // A partially sent chunked body leaves the connection half-open
+        attempt.cancel();
+        throw e;
+      }
+    };
+    try {
+      ResponseEntity<T> response = attempt.bind(() -> streamingRestTemplate.execute(url, method, requestCallback,
+          streamingRestTemplate.responseEntityExtractor(type), uriVariables)).get();
+      return response != null ? response.getBody() : null;
+    } catch (RestClientException e) {
+      logException(method, uriVariables, url, e, ignoreStatus);
+    } finally {
+      attempt.release();
+    }
+    return null;
+  }
+
+  /**
+   * Logs the given exception of an API call. If the call failed due to the current thread's {@link Deadline} then a
+   * {@link DeadlineExceededException} is thrown instead, so the remaining calls of the request are skipped.
+   */
   protected void logException(HttpMethod method, Map<String, String> uriVariables, String url, Exception e,
                               HttpStatus[] ignoreStatus) {
+    if (e instanceof DeadlineExceededException) {
+      throw (DeadlineExceededException) e;
+    }
+    Deadline deadline = Deadline.current();
+    if (deadline != null && deadline.isExpired()) {
+      LOG.debug("API call {} '{}' {} exceeded deadline: {}", method.name(), url, uriVariables, e.getMessage());
+      deadline.check();
+    }
     if (e instanceof RestClientResponseException) {
       // Check HTTP status of response for skip logging
       if (ignoreStatus != null) {
@@ -0,0 +1,103 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of concurrent requests. Requests exceeding the limit wait up to the given time for a permit,
+ * but only as many as fit into the wait queue. Further requests are rejected immediately with a
+ * {@link BulkheadFullException}, so callers shed load instead of piling up blocked threads.
+ * <p>
+ * Rejected requests are counted per bulkhead and reason. Requests with a {@link Deadline} wait no longer than until
+ * the deadline.
+ */
+public class Bulkhead {
+  private final String name;
+  private final Semaphore permits;
+  private final int maxWaiting;
+  private final long maxWaitNanos;
+  private final Duration retryAfter;
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final Counter queueFullRejections;
+  private final Counter timeoutRejections;
+
+  public Bulkhead(String metricsPrefix, String name, MeterRegistry meterRegistry, int maxConcurrent, int maxWaiting,
+                  Duration maxWait) {
+    this.name = name;
+    this.permits = new Semaphore(maxConcurrent, true);
+    this.maxWaiting = maxWaiting;
+    this.maxWaitNanos = maxWait.toNanos();
+    // Waiting requests are processed within the maximum wait time
+    this.retryAfter = Duration.ofSeconds(Math.max(1, (maxWait.toMillis() + 999) / 1000));
+    this.queueFullRejections = Counter.builder(metricsPrefix + ".bulkhead.rejected").tag("bulkhead", name)
+        .tag("reason", "queue-full").description("Requests rejected by the bulkhead").register(meterRegistry);
+    this.timeoutRejections = Counter.builder(metricsPrefix + ".bulkhead.rejected").tag("bulkhead", name)
+        .tag("reason", "timeout").description("Requests rejected by the bulkhead").register(meterRegistry);
+  }
+
+  /**
+   * Acquires a permit - waiting if none is available and the wait queue isn't full. Every successful call has to be
+   * followed by {@link #release()}.
+   */
+  public void acquire() {
+    if (permits.tryAcquire()) {
+      return;
+    }
+    if (waiting.incrementAndGet() > maxWaiting) {
+      waiting.decrementAndGet();
+      queueFullRejections.increment();
+      throw new BulkheadFullException("Too many concurrent " + name + " requests", retryAfter);
+    }
+    try {
+      // Don't wait beyond the deadline of the current thread
+      Deadline deadline = Deadline.current();
+      long remainingNanos = deadline != null ? TimeUnit.MILLISECONDS.toNanos(deadline.getRemainingMillis()) : Long.MAX_VALUE;
+      if (!permits.tryAcquire(Math.min(maxWaitNanos, remainingNanos), TimeUnit.NANOSECONDS)) {
+        if (remainingNanos < maxWaitNanos) {
+          throw new DeadlineExceededException("Request deadline exceeded while waiting for " + name + " request");
+        }
+        timeoutRejections.increment();
+        throw new BulkheadFullException("Timed out waiting for " + name + " request", retryAfter);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BulkheadFullException("Interrupted while waiting for " + name + " request", retryAfter);
+    } finally {
+      waiting.decrementAndGet();
+    }
+  }
+
+  public void release() {
+    permits.release();
+  }
+
+  public int getAvailablePermits() {
+    return permits.availablePermits();
+  }
+
+  public int getWaiting() {
+    return waiting.get();
+  }
+}
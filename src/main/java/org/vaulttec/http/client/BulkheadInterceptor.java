@@ -0,0 +1,114 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Runs reads and writes in separate {@link Bulkhead bulkheads}, so a spike of one kind doesn't starve the other. A
+ * permit is held until the response is closed, as the connection is busy until the body is read.
+ */
+public class BulkheadInterceptor implements ClientHttpRequestInterceptor {
+  private final Bulkhead reads;
+  private final Bulkhead writes;
+  private final Predicate<HttpRequest> readRequest;
+
+  public BulkheadInterceptor(Bulkhead reads, Bulkhead writes) {
+    this(reads, writes, BulkheadInterceptor::isSafeMethod);
+  }
+
+  public BulkheadInterceptor(Bulkhead reads, Bulkhead writes, Predicate<HttpRequest> readRequest) {
+    this.reads = reads;
+    this.writes = writes;
+    this.readRequest = readRequest;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+    Bulkhead bulkhead = readRequest.test(request) ? reads : writes;
+    bulkhead.acquire();
+    try {
+      return new ReleasingResponse(execution.execute(request, body), bulkhead);
+    } catch (IOException | RuntimeException e) {
+      bulkhead.release();
+      throw e;
+    }
+  }
+
+  public static boolean isSafeMethod(HttpRequest request) {
+    return request.getMethod() == HttpMethod.GET || request.getMethod() == HttpMethod.HEAD;
+  }
+
+  private static class ReleasingResponse implements ClientHttpResponse {
+    private final ClientHttpResponse response;
+    private final Bulkhead bulkhead;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    ReleasingResponse(ClientHttpResponse response, Bulkhead bulkhead) {
+      this.response = response;
+      this.bulkhead = bulkhead;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return response.getHeaders();
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      return response.getBody();
+    }
+
+    @Override
+    public HttpStatus getStatusCode() throws IOException {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public int getRawStatusCode() throws IOException {
+      return response.getRawStatusCode();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+      return response.getStatusText();
+    }
+
+    @Override
+    public void close() {
+      try {
+        response.close();
+      } finally {
+        if (released.compareAndSet(false, true)) {
+          bulkhead.release();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Requests compressed responses (gzip or deflate) and decompresses them while they are read, so the message
+ * converters parse the decompressed stream directly.
+ * <p>
+ * The number of bytes received on the wire and the number of decompressed bytes are counted per content encoding.
+ */
+public class CompressionInterceptor implements ClientHttpRequestInterceptor {
+  static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+  private final MeterRegistry meterRegistry;
+  private final String metricsPrefix;
+
+  public CompressionInterceptor(String metricsPrefix, MeterRegistry meterRegistry) {
+    this.metricsPrefix = metricsPrefix;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+    if (!request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+      request.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+    }
+    ClientHttpResponse response = execution.execute(request, body);
+    String encoding = response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+    if (encoding != null) {
+      encoding = encoding.trim().toLowerCase(Locale.ROOT);
+    } else {
+      encoding = "identity";
+    }
+    return new DecompressingResponse(response, encoding);
+  }
+
+  private class DecompressingResponse implements ClientHttpResponse {
+    private final ClientHttpResponse response;
+    private final String encoding;
+    private final HttpHeaders headers;
+    private CountingInputStream wireStream;
+    private CountingInputStream decodedStream;
+
+    DecompressingResponse(ClientHttpResponse response, String encoding) {
+      this.response = response;
+      this.encoding = encoding;
+      this.headers = new HttpHeaders();
+      headers.putAll(response.getHeaders());
+      if (isCompressed()) {
+        // Content is decompressed while it's read
+        headers.remove(HttpHeaders.CONTENT_ENCODING);
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+      }
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (decodedStream == null) {
+        wireStream = new CountingInputStream(response.getBody());
+        InputStream body = wireStream;
+        if (isCompressed()) {
+          // Empty responses (e.g. 204) don't have a compression header to read
+          PushbackInputStream pushbackStream = new PushbackInputStream(wireStream);
+          int firstByte = pushbackStream.read();
+          if (firstByte != -1) {
+            pushbackStream.unread(firstByte);
+            body = "gzip".equals(encoding) ? new GZIPInputStream(pushbackStream, 8192)
+                : new InflaterInputStream(pushbackStream);
+          } else {
+            body = pushbackStream;
+          }
+        }
+        decodedStream = new CountingInputStream(body);
+      }
+      return decodedStream;
+    }
+
+    @Override
+    public HttpStatus getStatusCode() throws IOException {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public int getRawStatusCode() throws IOException {
+      return response.getRawStatusCode();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+      return response.getStatusText();
+    }
+
+    @Override
+    public void close() {
+      if (decodedStream != null && decodedStream.count > 0) {
+        counter("wire").increment(wireStream.count);
+        counter("decoded").increment(decodedStream.count);
+      }
+      response.close();
+    }
+
+    private boolean isCompressed() {
+      return "gzip".equals(encoding) || "deflate".equals(encoding);
+    }
+
+    private Counter counter(String type) {
+      return Counter.builder(metricsPrefix + ".response.bytes").baseUnit("bytes").tag("encoding", encoding)
+          .tag("type", type).description("Bytes received (on the wire or decoded)").register(meterRegistry);
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Point in time by which a request has to be completed, including all API calls it triggers. The deadline bound to
+ * the current thread shrinks the timeouts of API calls to the remaining time (see {@link DeadlineRequestFactory}).
+ * API calls after the deadline passed or was cancelled fail fast with a {@link DeadlineExceededException}.
+ * <p>
+ * Tasks handed over to other threads have to be {@link #propagate(Supplier) wrapped} to keep the deadline.
+ * <p>
+ * An abortable deadline (see {@link #abortable(Deadline)}) additionally disconnects the connections opened under it
+ * when it's cancelled, so a pending API call is aborted instead of running to completion.
+ */
+public final class Deadline {
+  private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+  private final Deadline parent;
+  private final long expiresAt;
+  private final Queue<Runnable> abortActions;
+  private volatile boolean cancelled;
+
+  private Deadline(Deadline parent, long expiresAt, boolean abortable) {
+    this.parent = parent;
+    this.expiresAt = expiresAt;
+    this.abortActions = abortable ? new ConcurrentLinkedQueue<>() : null;
+  }
+
+  public static Deadline after(Duration timeout) {
+    return new Deadline(null, System.nanoTime() + timeout.toNanos(), false);
+  }
+
+  /**
+   * Returns an abortable deadline for a single attempt of an API call. It expires and is cancelled with the given
+   * deadline (never if {@code null}), but can be cancelled on its own.
+   */
+  static Deadline abortable(Deadline parent) {
+    return new Deadline(parent, parent != null ? parent.expiresAt : 0, true);
+  }
+
+  /**
+   * Returns the deadline bound to the current thread or {@code null} if there's none.
+   */
+  public static Deadline current() {
+    return CURRENT.get();
+  }
+
+  public void attach() {
+    CURRENT.set(this);
+  }
+
+  public static void detach() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Returns a task which runs the given one with the current thread's deadline bound.
+   */
+  public static <T> Supplier<T> propagate(Supplier<T> task) {
+    Deadline deadline = current();
+    return deadline != null ? deadline.bind(task) : task;
+  }
+
+  /**
+   * Returns a task which runs the given one with this deadline bound.
+   */
+  public <T> Supplier<T> bind(Supplier<T> task) {
+    return () -> {
+      Deadline previous = current();
+      attach();
+      try {
+        return task.get();
+      } finally {
+        if (previous != null) {
+          previous.attach();
+        } else {
+          detach();
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the time remaining in milliseconds (rounded up), or 0 if the deadline passed or was cancelled.
+   */
+  public long getRemainingMillis() {
+    if (isCancelled()) {
+      return 0;
+    }
+    if (abortActions != null && parent == null) {
+      // Abortable deadline of an API call without a request deadline
+      return Long.MAX_VALUE;
+    }
+    long remainingNanos = expiresAt - System.nanoTime();
+    if (remainingNanos <= 0) {
+      return 0;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(remainingNanos + 999_999);
+  }
+
+  public boolean isExpired() {
+    return getRemainingMillis() == 0;
+  }
+
+  /**
+   * Cancels the deadline, e.g. when the request is completed - pending API calls of it are not sent any more.
+   */
+  public void cancel() {
+    cancelled = true;
+    if (abortActions != null) {
+      Runnable action;
+      while ((action = abortActions.poll()) != null) {
+        action.run();
+      }
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled || (parent != null && parent.isCancelled());
+  }
+
+  public void check() {
+    if (isExpired()) {
+      throw new DeadlineExceededException(isCancelled() ? "Request cancelled" : "Request deadline exceeded");
+    }
+  }
+
+  /**
+   * Registers the given action (e.g. disconnecting a connection) to be run when this deadline is cancelled. Ignored
+   * if the deadline isn't abortable.
+   */
+  void onAbort(Runnable action) {
+    if (abortActions != null) {
+      abortActions.add(action);
+      if (cancelled) {
+        cancel();
+      }
+    }
+  }
+
+  /**
+   * Forgets the registered abort actions, e.g. when the attempt completed and its connection may be reused.
+   */
+  void release() {
+    if (abortActions != null) {
+      abortActions.clear();
+    }
+  }
+}
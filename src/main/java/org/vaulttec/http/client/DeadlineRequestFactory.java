@@ -0,0 +1,65 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.time.Duration;
+
+/**
+ * Shrinks the connect and read timeouts of each connection to the time remaining until the current thread's
+ * {@link Deadline}, and refuses to open connections once the deadline passed. Connections opened under an abortable
+ * deadline are disconnected when it's cancelled.
+ */
+public class DeadlineRequestFactory extends SimpleClientHttpRequestFactory {
+  private final int connectTimeout;
+  private final int readTimeout;
+
+  public DeadlineRequestFactory(Proxy proxy, Duration connectTimeout, Duration readTimeout) {
+    if (proxy != null) {
+      setProxy(proxy);
+    }
+    this.connectTimeout = (int) connectTimeout.toMillis();
+    this.readTimeout = (int) readTimeout.toMillis();
+  }
+
+  @Override
+  protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+    super.prepareConnection(connection, httpMethod);
+    Deadline deadline = Deadline.current();
+    if (deadline == null) {
+      connection.setConnectTimeout(connectTimeout);
+      connection.setReadTimeout(readTimeout);
+    } else {
+      deadline.check();
+      deadline.onAbort(connection::disconnect);
+      // Never 0 as this would disable the timeout
+      int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline.getRemainingMillis()));
+      connection.setConnectTimeout(shrink(connectTimeout, remaining));
+      connection.setReadTimeout(shrink(readTimeout, remaining));
+    }
+  }
+
+  private static int shrink(int timeout, int remaining) {
+    // A timeout of 0 is infinite
+    return timeout > 0 ? Math.min(timeout, remaining) : remaining;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes form fields URL-encoded ({@code application/x-www-form-urlencoded}), followed by a field whose value is
+ * read from a stream. The stream is encoded chunk by chunk while it's written, so only a fixed-size buffer is held
+ * in memory however large the value is.
+ */
+public final class FormEncoder {
+  private static final int BUFFER_SIZE = 8192;
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+  private FormEncoder() {
+  }
+
+  /**
+   * Writes the given fields and the stream as value of the given field. The stream's bytes are taken as the UTF-8
+   * encoding of the value.
+   */
+  public static void write(MultiValueMap<String, String> fields, String streamField, InputStream stream,
+                           OutputStream out) throws IOException {
+    StringBuilder form = new StringBuilder();
+    fields.forEach((name, values) -> values.forEach(value -> form.append(encode(name)).append('=')
+        .append(encode(value)).append('&')));
+    form.append(encode(streamField)).append('=');
+    out.write(form.toString().getBytes(StandardCharsets.US_ASCII));
+    byte[] buffer = new byte[BUFFER_SIZE];
+    byte[] encoded = new byte[BUFFER_SIZE * 3];
+    int count;
+    while ((count = stream.read(buffer)) >= 0) {
+      int length = 0;
+      for (int i = 0; i < count; i++) {
+        int b = buffer[i] & 0xff;
+        if (isUnreserved(b)) {
+          encoded[length++] = (byte) b;
+        } else if (b == ' ') {
+          encoded[length++] = '+';
+        } else {
+          encoded[length++] = '%';
+          encoded[length++] = HEX[b >> 4];
+          encoded[length++] = HEX[b & 0xf];
+        }
+      }
+      out.write(encoded, 0, length);
+    }
+    out.flush();
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns {@code true} for the characters {@link URLEncoder} leaves as they are.
+   */
+  private static boolean isUnreserved(int b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '.' || b == '-'
+        || b == '*' || b == '_';
+  }
+}
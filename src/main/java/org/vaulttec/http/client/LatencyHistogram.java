@@ -0,0 +1,102 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with eight linear sub-buckets per power of two (in microseconds), i.e. a relative
+ * error of at most 12.5%. Once more than the given number of samples are recorded all counts are halved, so the
+ * histogram follows the recent latencies.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKETS = 8;
+  private static final int BUCKETS = SUB_BUCKETS * 40;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final long maxSamples;
+
+  public LatencyHistogram(long maxSamples) {
+    this.maxSamples = maxSamples;
+  }
+
+  public void record(long nanos) {
+    counts.incrementAndGet(indexOf(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos))));
+    if (total.incrementAndGet() > maxSamples) {
+      decay();
+    }
+  }
+
+  public long count() {
+    return total.get();
+  }
+
+  /**
+   * Returns the upper bound (in nanoseconds) of the bucket holding the given percentile (0.0 - 1.0).
+   */
+  public long percentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      sum += snapshot[i];
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile * sum));
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      cumulative += snapshot[i];
+      if (cumulative >= target) {
+        return TimeUnit.MICROSECONDS.toNanos(lowerBoundOf(i + 1));
+      }
+    }
+    return TimeUnit.MICROSECONDS.toNanos(lowerBoundOf(BUCKETS));
+  }
+
+  private synchronized void decay() {
+    if (total.get() > maxSamples) {
+      long sum = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        long count = counts.get(i);
+        long halved = count / 2;
+        counts.addAndGet(i, halved - count);
+        sum += halved;
+      }
+      total.set(sum);
+    }
+  }
+
+  static int indexOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) ((micros >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+    return Math.min(BUCKETS - 1, (exponent - 2) * SUB_BUCKETS + subBucket);
+  }
+
+  static long lowerBoundOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + 2;
+    return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - 3);
+  }
+}
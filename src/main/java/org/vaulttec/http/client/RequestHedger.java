@@ -0,0 +1,240 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Sends a duplicate (hedge) of an idempotent request if the response didn't arrive within the observed latency
+ * percentile of the endpoint, and uses whichever response arrives first.
+ * <p>
+ * The request itself runs on the caller's thread. Only hedges run on a pool limited to the given number of
+ * concurrent hedges - a hedge is skipped if none is available. Each attempt runs with its own abortable
+ * {@link Deadline}, so the connection of the losing attempt is disconnected as soon as the other one responded.
+ * <p>
+ * Every request adds a fraction of a hedge to a budget and every hedge consumes a whole one, so hedges are limited
+ * to the given percentage of all requests. Requests, hedges and hedges which won are counted per endpoint.
+ */
+public class RequestHedger {
+  private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+  private static final long BUDGET_UNIT = 1000;
+  private static final long MAX_SAMPLES = 1000;
+  private static final long MIN_SAMPLES = 20;
+  private static final int HEDGE_PENDING = 0;
+  private static final int HEDGE_STARTED = 1;
+  private static final int HEDGE_SKIPPED = 2;
+
+  private final String metricsPrefix;
+  private final MeterRegistry meterRegistry;
+  private final double percentile;
+  private final long minDelayNanos;
+  private final long budgetPerRequest;
+  private final long maxBudget;
+  private final AtomicLong budget = new AtomicLong();
+  private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+  private final Semaphore hedgePermits;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService executor;
+
+  public RequestHedger(String metricsPrefix, MeterRegistry meterRegistry, double percentile, Duration minDelay,
+                       int budgetPercent, int maxConcurrentHedges) {
+    this.metricsPrefix = metricsPrefix;
+    this.meterRegistry = meterRegistry;
+    this.percentile = percentile;
+    this.minDelayNanos = minDelay.toNanos();
+    this.budgetPerRequest = BUDGET_UNIT * budgetPercent / 100;
+    this.maxBudget = BUDGET_UNIT * 10;
+    this.hedgePermits = new Semaphore(maxConcurrentHedges);
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, metricsPrefix + "-hedge-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+    scheduler.setRemoveOnCancelPolicy(true);
+    this.scheduler = scheduler;
+    // The permits limit the queued hedges to the number of threads
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentHedges, maxConcurrentHedges, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), threadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    this.executor = executor;
+  }
+
+  /**
+   * Executes the given request and hedges it if it takes longer than the endpoint's latency percentile. Exceptions
+   * of the request are rethrown.
+   */
+  public <T> T execute(String endpointName, Supplier<T> request) {
+    Endpoint endpoint = endpoints.computeIfAbsent(endpointName, Endpoint::new);
+    endpoint.requests.increment();
+    budget.getAndUpdate(current -> Math.min(maxBudget, current + budgetPerRequest));
+    if (endpoint.latencies.count() < MIN_SAMPLES) {
+      return endpoint.timed(request).get();
+    }
+    long delayNanos = Math.max(minDelayNanos, endpoint.latencies.percentile(percentile));
+    Race<T> race = new Race<>(Deadline.current(), endpoint.wins);
+    ScheduledFuture<?> scheduledHedge = scheduler.schedule(() -> hedge(endpointName, endpoint, request, race, delayNanos),
+        delayNanos, TimeUnit.NANOSECONDS);
+    try {
+      race.primarySucceeded(race.primary.bind(endpoint.timed(request)).get());
+    } catch (Throwable e) {
+      race.primaryFailed(e);
+    } finally {
+      scheduledHedge.cancel(false);
+      race.primary.release();
+    }
+    return join(race.first);
+  }
+
+  /**
+   * Starts the hedge of the given race unless the request completed meanwhile, the budget is exhausted or too many
+   * hedges are running.
+   */
+  private <T> void hedge(String endpointName, Endpoint endpoint, Supplier<T> request, Race<T> race, long delayNanos) {
+    if (race.first.isDone() || !hedgePermits.tryAcquire()) {
+      return;
+    }
+    if (budget.getAndUpdate(current -> current >= BUDGET_UNIT ? current - BUDGET_UNIT : current) < BUDGET_UNIT) {
+      hedgePermits.release();
+      return;
+    }
+    if (!race.startHedge()) {
+      budget.getAndUpdate(current -> Math.min(maxBudget, current + BUDGET_UNIT));
+      hedgePermits.release();
+      return;
+    }
+    LOG.debug("Hedging request to '{}' after {} ms", endpointName, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+    endpoint.hedges.increment();
+    Supplier<T> hedge = race.hedge.bind(endpoint.timed(request));
+    executor.execute(() -> {
+      try {
+        race.hedgeSucceeded(hedge.get());
+      } catch (Throwable e) {
+        race.hedgeFailed(e);
+      } finally {
+        race.hedge.release();
+        hedgePermits.release();
+      }
+    });
+  }
+
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      throw rethrow(e.getCause());
+    }
+  }
+
+  private static RuntimeException rethrow(Throwable throwable) {
+    if (throwable instanceof CompletionException && throwable.getCause() != null) {
+      throwable = throwable.getCause();
+    }
+    if (throwable instanceof RuntimeException) {
+      return (RuntimeException) throwable;
+    } else if (throwable instanceof Error) {
+      throw (Error) throwable;
+    }
+    return new IllegalStateException(throwable);
+  }
+
+  /**
+   * The request and its hedge racing for the first response. The loser is aborted via its deadline. The race fails
+   * only if all started attempts failed.
+   */
+  private static final class Race<T> {
+    final CompletableFuture<T> first = new CompletableFuture<>();
+    final Deadline primary;
+    final Deadline hedge;
+    final Counter wins;
+    final AtomicInteger hedgeState = new AtomicInteger(HEDGE_PENDING);
+    final AtomicInteger failures = new AtomicInteger();
+
+    Race(Deadline deadline, Counter wins) {
+      this.primary = Deadline.abortable(deadline);
+      this.hedge = Deadline.abortable(deadline);
+      this.wins = wins;
+    }
+
+    boolean startHedge() {
+      return !first.isDone() && hedgeState.compareAndSet(HEDGE_PENDING, HEDGE_STARTED);
+    }
+
+    void primarySucceeded(T response) {
+      hedgeState.compareAndSet(HEDGE_PENDING, HEDGE_SKIPPED);
+      if (first.complete(response)) {
+        hedge.cancel();
+      }
+    }
+
+    void primaryFailed(Throwable error) {
+      if (hedgeState.compareAndSet(HEDGE_PENDING, HEDGE_SKIPPED) || failures.incrementAndGet() == 2) {
+        first.completeExceptionally(error);
+      }
+    }
+
+    void hedgeSucceeded(T response) {
+      if (first.complete(response)) {
+        wins.increment();
+        primary.cancel();
+      }
+    }
+
+    void hedgeFailed(Throwable error) {
+      if (failures.incrementAndGet() == 2) {
+        first.completeExceptionally(error);
+      }
+    }
+  }
+
+  private final class Endpoint {
+    final LatencyHistogram latencies = new LatencyHistogram(MAX_SAMPLES);
+    final Counter requests;
+    final Counter hedges;
+    final Counter wins;
+
+    Endpoint(String name) {
+      this.requests = Counter.builder(metricsPrefix + ".hedging.requests").tag("endpoint", name)
+          .description("Requests eligible for hedging").register(meterRegistry);
+      this.hedges = Counter.builder(metricsPrefix + ".hedging.hedges").tag("endpoint", name)
+          .description("Hedge requests sent").register(meterRegistry);
+      this.wins = Counter.builder(metricsPrefix + ".hedging.wins").tag("endpoint", name)
+          .description("Hedge requests which responded first").register(meterRegistry);
+    }
+
+    <T> Supplier<T> timed(Supplier<T> request) {
+      return () -> {
+        long start = System.nanoTime();
+        T response = request.get();
+        latencies.record(System.nanoTime() - start);
+        return response;
+      };
+    }
+  }
+}
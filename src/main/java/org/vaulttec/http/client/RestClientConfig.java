@@ -18,6 +18,7 @@
 package org.vaulttec.http.client;
 
 import java.net.Proxy;
+import java.time.Duration;
 
 public interface RestClientConfig {
 
@@ -30,4 +31,10 @@ public interface RestClientConfig {
   int getPerPage();
 
   Proxy getProxy();
+
+  /** Returns the connect timeout of API calls - shrunk to the remaining time of a {@link Deadline} */
+  Duration getConnectTimeout();
+
+  /** Returns the read timeout of API calls - shrunk to the remaining time of a {@link Deadline} */
+  Duration getReadTimeout();
 }
@@ -0,0 +1,196 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of tokens which spreads requests over the rate-limit budgets of multiple users. Of the available tokens the
+ * one with the most remaining requests (as reported by the server) is selected, tokens with unknown budget are used
+ * in turn. Tokens rejected by the server or out of budget are suspended for a while.
+ * <p>
+ * Requests and suspensions are counted per token name - the token itself never shows up in metrics or logs.
+ */
+public class TokenPool {
+  private static final Logger LOG = LoggerFactory.getLogger(TokenPool.class);
+  private static final long UNKNOWN = Long.MAX_VALUE;
+  private static final long UNAVAILABLE = -1;
+
+  private final String metricsPrefix;
+  private final MeterRegistry meterRegistry;
+  private final List<Token> tokens = new ArrayList<>();
+  private final Duration suspension;
+  private final AtomicInteger next = new AtomicInteger();
+
+  public TokenPool(String metricsPrefix, MeterRegistry meterRegistry, List<String> values, Duration suspension) {
+    if (values.isEmpty()) {
+      throw new IllegalArgumentException("At least one token required");
+    }
+    this.metricsPrefix = metricsPrefix;
+    this.meterRegistry = meterRegistry;
+    for (int i = 0; i < values.size(); i++) {
+      tokens.add(new Token("token-" + i, values.get(i)));
+    }
+    this.suspension = suspension;
+  }
+
+  /**
+   * Returns the token which is replaced by the pool's tokens.
+   */
+  public String getPrimary() {
+    return tokens.get(0).value;
+  }
+
+  public int size() {
+    return tokens.size();
+  }
+
+  public Duration getSuspension() {
+    return suspension;
+  }
+
+  public Token select() {
+    return select(System.currentTimeMillis());
+  }
+
+  /**
+   * Selects the available token with the most remaining requests. If all tokens are suspended then the one which is
+   * available first is returned - requests are never rejected by the pool itself.
+   */
+  public Token select(long now) {
+    Token token = select(null, now);
+    if (token == null) {
+      for (Token candidate : tokens) {
+        if (token == null || candidate.getAvailableAt(now) < token.getAvailableAt(now)) {
+          token = candidate;
+        }
+      }
+    }
+    token.use();
+    return token;
+  }
+
+  public Token selectOther(Token excluded) {
+    return selectOther(excluded, System.currentTimeMillis());
+  }
+
+  /**
+   * Selects an available token other than the given one, e.g. for retrying a rejected request. Returns
+   * {@code null} if there's none.
+   */
+  public Token selectOther(Token excluded, long now) {
+    Token token = select(excluded, now);
+    if (token != null) {
+      token.use();
+    }
+    return token;
+  }
+
+  private Token select(Token excluded, long now) {
+    int size = tokens.size();
+    int start = Math.floorMod(next.getAndIncrement(), size);
+    Token selected = null;
+    long selectedRemaining = UNAVAILABLE;
+    for (int i = 0; i < size; i++) {
+      Token token = tokens.get((start + i) % size);
+      long remaining = token.getRemaining(now);
+      if (token != excluded && remaining > selectedRemaining) {
+        selected = token;
+        selectedRemaining = remaining;
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Records the rate-limit budget reported by the server for the given token.
+   */
+  public void updateRateLimit(Token token, long remaining, long resetAt) {
+    token.resetAt = resetAt;
+    token.remaining.set(remaining);
+  }
+
+  /**
+   * Excludes the given token from selection until the given time.
+   */
+  public void suspend(Token token, String reason, long until) {
+    token.suspendedUntil = until;
+    Counter.builder(metricsPrefix + ".token.suspended").tag("token", token.name).tag("reason", reason)
+        .description("Tokens suspended from the token pool").register(meterRegistry).increment();
+    LOG.warn("Token '{}' suspended until {}: {}", token.name, Instant.ofEpochMilli(until), reason);
+  }
+
+  public class Token {
+    private final String name;
+    private final String value;
+    private final Counter requests;
+    private final AtomicLong remaining = new AtomicLong(UNKNOWN);
+    private volatile long resetAt;
+    private volatile long suspendedUntil;
+
+    private Token(String name, String value) {
+      this.name = name;
+      this.value = value;
+      this.requests = Counter.builder(metricsPrefix + ".token.requests").tag("token", name)
+          .description("Requests sent with a token of the token pool").register(meterRegistry);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    String getValue() {
+      return value;
+    }
+
+    private void use() {
+      requests.increment();
+      // Spread concurrent requests before the server reports the new budget
+      remaining.getAndUpdate(current -> current == UNKNOWN ? UNKNOWN : current - 1);
+    }
+
+    long getRemaining(long now) {
+      if (now < suspendedUntil) {
+        return UNAVAILABLE;
+      }
+      if (now >= resetAt) {
+        return UNKNOWN;
+      }
+      long current = remaining.get();
+      return current > 0 ? current : UNAVAILABLE;
+    }
+
+    private long getAvailableAt(long now) {
+      long availableAt = suspendedUntil;
+      if (now < resetAt && remaining.get() <= 0) {
+        availableAt = Math.max(availableAt, resetAt);
+      }
+      return availableAt;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.http.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+/**
+ * Replaces the {@link TokenPool#getPrimary() primary token} of requests with a token selected from the
+ * {@link TokenPool}. Requests with other tokens, e.g. a user's own one, are passed through unchanged.
+ * <p>
+ * The rate-limit headers of responses are tracked per token. A request rejected with 401 or 429 suspends its token
+ * and is retried once with another token. As the retry re-executes the request from here this has to be the last
+ * interceptor.
+ */
+public class TokenPoolInterceptor implements ClientHttpRequestInterceptor {
+  public static final String HEADER_NAME_RATE_LIMIT_REMAINING = "RateLimit-Remaining";
+  public static final String HEADER_NAME_RATE_LIMIT_RESET = "RateLimit-Reset";
+  private static final String BEARER_PREFIX = "Bearer ";
+  private final String headerName;
+  private final TokenPool pool;
+
+  public TokenPoolInterceptor(String headerName, TokenPool pool) {
+    this.headerName = headerName;
+    this.pool = pool;
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+    HttpHeaders headers = request.getHeaders();
+    boolean bearer;
+    if (pool.getPrimary().equals(headers.getFirst(headerName))) {
+      bearer = false;
+    } else if ((BEARER_PREFIX + pool.getPrimary()).equals(headers.getFirst(HttpHeaders.AUTHORIZATION))) {
+      bearer = true;
+    } else {
+      return execution.execute(request, body);
+    }
+    TokenPool.Token token = pool.select();
+    ClientHttpResponse response = execute(request, body, execution, token, bearer);
+    if (isRejected(token, response)) {
+      TokenPool.Token other = pool.selectOther(token);
+      if (other != null) {
+        response.close();
+        response = execute(request, body, execution, other, bearer);
+        isRejected(other, response);
+      }
+    }
+    return response;
+  }
+
+  private ClientHttpResponse execute(HttpRequest request, byte[] body, ClientHttpRequestExecution execution,
+                                     TokenPool.Token token, boolean bearer) throws IOException {
+    if (bearer) {
+      request.getHeaders().setBearerAuth(token.getValue());
+    } else {
+      request.getHeaders().set(headerName, token.getValue());
+    }
+    return execution.execute(request, body);
+  }
+
+  private boolean isRejected(TokenPool.Token token, ClientHttpResponse response) throws IOException {
+    long now = System.currentTimeMillis();
+    HttpHeaders headers = response.getHeaders();
+    int status = response.getRawStatusCode();
+    if (status == HttpStatus.UNAUTHORIZED.value()) {
+      pool.suspend(token, "unauthorized", now + pool.getSuspension().toMillis());
+      return true;
+    }
+    Long reset = parseLong(headers.getFirst(HEADER_NAME_RATE_LIMIT_RESET));
+    if (status == HttpStatus.TOO_MANY_REQUESTS.value()) {
+      Long retryAfter = parseLong(headers.getFirst(HttpHeaders.RETRY_AFTER));
+      long until = retryAfter != null ? now + retryAfter * 1000 : reset != null ? reset * 1000 : now + pool.getSuspension().toMillis();
+      pool.suspend(token, "rate-limited", until);
+      return true;
+    }
+    Long remaining = parseLong(headers.getFirst(HEADER_NAME_RATE_LIMIT_REMAINING));
+    if (remaining != null && reset != null) {
+      pool.updateRateLimit(token, remaining, reset * 1000);
+    }
+    return false;
+  }
+
+  private static Long parseLong(String value) {
+    if (value != null) {
+      try {
+        return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        // Ignore, e.g. an HTTP-date
+      }
+    }
+    return null;
+  }
+}
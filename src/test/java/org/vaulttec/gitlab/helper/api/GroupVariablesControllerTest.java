@@ -0,0 +1,276 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.gitlab.helper.api.model.Variable;
+import org.vaulttec.gitlab.helper.api.model.VariableEvent;
+import org.vaulttec.gitlab.helper.gitlab.CachedValue;
+import org.vaulttec.gitlab.helper.gitlab.GitLabService;
+import org.vaulttec.gitlab.helper.gitlab.GroupCatalog;
+import org.vaulttec.gitlab.helper.gitlab.PermissionResolver;
+import org.vaulttec.gitlab.helper.gitlab.VariableIndex;
+import org.vaulttec.gitlab.helper.gitlab.VariableResolver;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPage;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableValue;
+import org.vaulttec.http.client.BulkheadFullException;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+public class GroupVariablesControllerTest {
+  private static final String TOKEN = "token";
+
+  private GitLabService service;
+  private GroupCatalog catalog;
+  private VariableEventHub eventHub;
+  private MockMvc mockMvc;
+
+  @BeforeEach
+  public void setUp() {
+    GLUser user = new GLUser();
+    user.setId(1L);
+    user.setUsername("john");
+    GLMembership membership = new GLMembership();
+    membership.setSourceId(42L);
+    membership.setSourceName("group");
+    membership.setSourceType("Namespace");
+    membership.setPermission(GLPermission.MAINTAINER);
+    GLVariable variable = new GLVariable();
+    variable.setKey("KEY");
+    variable.setValue("value");
+    variable.setVariableType("env_var");
+    variable.setEnvironmentScope("*");
+    GLVariable otherVariable = new GLVariable();
+    otherVariable.setKey("OTHER_KEY");
+    otherVariable.setValue("other value");
+    otherVariable.setVariableType("env_var");
+    otherVariable.setEnvironmentScope("production");
+    List<GLVariable> variables = List.of(variable, otherVariable);
+
+    service = mock(GitLabService.class);
+    catalog = mock(GroupCatalog.class);
+    eventHub = mock(VariableEventHub.class);
+    when(service.getUser(TOKEN)).thenReturn(user);
+    when(service.getCachedGroupMemberships(1L)).thenReturn(CachedValue.of(List.of(membership)));
+    when(service.getCachedGroupMemberships(user, TOKEN, GLPermission.MAINTAINER)).thenReturn(CachedValue.of(List.of(membership)));
+    when(service.getCachedGroupVariables(42L)).thenReturn(CachedValue.of(variables));
+    when(service.getCachedGroupVariableKeys(42L)).thenReturn(CachedValue.of(variables.stream().map(GLVariableKey::of).collect(Collectors.toList())));
+    when(service.getGroupVariablesPage(eq(42L), anyMap())).thenAnswer(invocation -> GLPage.of(variables, invocation.getArgument(1)));
+    HelperConfig config = new HelperConfig();
+    config.setFileVariableMaxSize(DataSize.ofBytes(32));
+    mockMvc = MockMvcBuilders.standaloneSetup(new GroupVariablesController(config, service, catalog, mock(VariableResolver.class), new PermissionResolver(catalog), eventHub, new ObjectMapper()))
+        .setControllerAdvice(new ApiExceptionHandler()).build();
+  }
+
+  @Test
+  public void testGroupVariablesNotModified() throws Exception {
+    String etag = mockMvc.perform(get("/groups/42/variables").header("PRIVATE-TOKEN", TOKEN))
+        .andExpect(status().isOk()).andExpect(header().exists(HttpHeaders.ETAG))
+        .andExpect(jsonPath("$[0].key").value("KEY")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+    mockMvc.perform(get("/groups/42/variables").header("PRIVATE-TOKEN", TOKEN).header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isNotModified()).andExpect(content().string(""));
+  }
+
+  @Test
+  public void testGroupVariablesWithStoredValues() throws Exception {
+    String value = "-----BEGIN CERTIFICATE-----\n\"quoted\"\n-----END CERTIFICATE-----";
+    GLVariable variable = createVariable("FILE_KEY", "*");
+    variable.setVariableType("file");
+    variable.setStoredValue(new GLVariableValue() {
+      @Override
+      public String get() {
+        return value;
+      }
+
+      @Override
+      public Reader openReader() {
+        return new StringReader(value);
+      }
+    });
+    when(service.getCachedGroupVariables(42L)).thenReturn(CachedValue.of(List.of(variable)));
+    String expected = new ObjectMapper().writeValueAsString(List.of(new Variable("FILE_KEY", value, "file", false, false, "*")));
+
+    mockMvc.perform(get("/groups/42/variables").header("PRIVATE-TOKEN", TOKEN))
+        .andExpect(status().isOk()).andExpect(header().exists(HttpHeaders.ETAG)).andExpect(content().json(expected, true));
+  }
+
+  @Test
+  public void testGroupVariableKeys() throws Exception {
+    mockMvc.perform(get("/groups/42/variables").header("PRIVATE-TOKEN", TOKEN).param("projection", "keys"))
+        .andExpect(status().isOk()).andExpect(jsonPath("$[1].key").value("OTHER_KEY"))
+        .andExpect(jsonPath("$[1].environmentScope").value("production")).andExpect(jsonPath("$[1].value").doesNotExist());
+    verify(service, never()).getCachedGroupVariables(42L);
+  }
+
+  @Test
+  public void testGroupVariablesPages() throws Exception {
+    String cursor = mockMvc.perform(get("/groups/42/variables").header("PRIVATE-TOKEN", TOKEN).param("per_page", "1"))
+        .andExpect(status().isOk()).andExpect(header().string(GroupVariablesController.HEADER_NAME_TOTAL, "2"))
+        .andExpect(header().exists(HttpHeaders.LINK)).andExpect(jsonPath("$.length()").value(1))
+        .andExpect(jsonPath("$[0].key").value("KEY")).andReturn().getResponse()
+        .getHeader(GroupVariablesController.HEADER_NAME_NEXT_CURSOR);
+
+    mockMvc.perform(get("/groups/42/variables").header("PRIVATE-TOKEN", TOKEN).param("cursor", cursor))
+        .andExpect(status().isOk()).andExpect(header().doesNotExist(GroupVariablesController.HEADER_NAME_NEXT_CURSOR))
+        .andExpect(jsonPath("$.length()").value(1)).andExpect(jsonPath("$[0].key").value("OTHER_KEY"));
+  }
+
+  @Test
+  public void testInvalidCursor() throws Exception {
+    mockMvc.perform(get("/groups/42/variables").header("PRIVATE-TOKEN", TOKEN).param("cursor", "dXNlcklkPTE"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void testGroupsModified() throws Exception {
+    mockMvc.perform(get("/groups").header("PRIVATE-TOKEN", TOKEN).header(HttpHeaders.IF_NONE_MATCH, "\"outdated\""))
+        .andExpect(status().isOk()).andExpect(jsonPath("$[0].id").value(42));
+  }
+
+  @Test
+  public void testGroupsWithMinAccessLevel() throws Exception {
+    mockMvc.perform(get("/groups").header("PRIVATE-TOKEN", TOKEN).param("min_access_level", "maintainer"))
+        .andExpect(status().isOk()).andExpect(jsonPath("$[0].id").value(42));
+    verify(service, never()).getCachedGroupMemberships(1L);
+
+    mockMvc.perform(get("/groups").header("PRIVATE-TOKEN", TOKEN).param("min_access_level", "admin"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void testInheritedPermission() throws Exception {
+    when(catalog.getAncestry(43L)).thenReturn(List.of(43L, 42L));
+    when(catalog.getAncestry(44L)).thenReturn(List.of(44L));
+    when(service.getCachedGroupVariables(43L)).thenReturn(CachedValue.of(List.of(createVariable("SUBGROUP_KEY", "*"))));
+
+    mockMvc.perform(get("/groups/43/variables").header("PRIVATE-TOKEN", TOKEN))
+        .andExpect(status().isOk()).andExpect(jsonPath("$[0].key").value("SUBGROUP_KEY"));
+    mockMvc.perform(get("/groups/44/variables").header("PRIVATE-TOKEN", TOKEN))
+        .andExpect(status().isUnauthorized());
+  }
+
+  @Test
+  public void testDeleteScopedGroupVariable() throws Exception {
+    GLVariable variable = createVariable("KEY", "*");
+    GLVariable scopedVariable = createVariable("KEY", "production");
+    when(service.getGroupVariableIndex(42L)).thenReturn(VariableIndex.of(List.of(variable, scopedVariable)));
+    when(service.deleteGroupVariable(42L, "KEY", "production")).thenReturn(true);
+
+    mockMvc.perform(delete("/groups/42/variables/KEY").header("PRIVATE-TOKEN", TOKEN))
+        .andExpect(status().isBadRequest());
+    mockMvc.perform(delete("/groups/42/variables/KEY").header("PRIVATE-TOKEN", TOKEN)
+        .param(GroupVariablesController.PARAM_ENVIRONMENT_SCOPE_FILTER, "staging")).andExpect(status().isBadRequest());
+    mockMvc.perform(delete("/groups/42/variables/KEY").header("PRIVATE-TOKEN", TOKEN)
+        .param(GroupVariablesController.PARAM_ENVIRONMENT_SCOPE_FILTER, "production")).andExpect(status().isOk());
+    verify(service).deleteGroupVariable(42L, "KEY", "production");
+    verify(eventHub).publish(argThat(event -> VariableEvent.TYPE_DELETED.equals(event.getType())
+        && event.getGroupId() == 42L && "KEY".equals(event.getKey()) && "production".equals(event.getEnvironmentScope())));
+  }
+
+  @Test
+  public void testCreateGroupFileVariable() throws Exception {
+    when(service.getGroupVariableIndex(42L)).thenReturn(VariableIndex.of(List.of(createVariable("KEY", "*"))));
+    StringBuilder value = new StringBuilder();
+    when(service.createGroupVariable(eq(42L), eq("FILE"), any(InputStream.class), eq("file"), any(), any(), any())).thenAnswer(invocation -> {
+      value.append(new String(invocation.getArgument(2, InputStream.class).readAllBytes(), StandardCharsets.UTF_8));
+      GLVariable variable = createVariable("FILE", "*");
+      variable.setVariableType("file");
+      return GLVariableKey.of(variable);
+    });
+
+    mockMvc.perform(post("/groups/42/variables/FILE/file").header("PRIVATE-TOKEN", TOKEN)
+        .contentType(MediaType.APPLICATION_OCTET_STREAM).content("line 1\nline 2"))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.key").value("FILE"))
+        .andExpect(jsonPath("$.variableType").value("file")).andExpect(jsonPath("$.value").doesNotExist());
+    assertEquals("line 1\nline 2", value.toString());
+    verify(eventHub).publish(argThat(event -> VariableEvent.TYPE_CREATED.equals(event.getType()) && "FILE".equals(event.getKey())));
+
+    // Rejected while streaming
+    mockMvc.perform(post("/groups/42/variables/FILE/file").header("PRIVATE-TOKEN", TOKEN).param("isMasked", "true")
+        .contentType(MediaType.APPLICATION_OCTET_STREAM).content("not maskable")).andExpect(status().isBadRequest());
+    mockMvc.perform(post("/groups/42/variables/FILE/file").header("PRIVATE-TOKEN", TOKEN).param("isMasked", "true")
+        .contentType(MediaType.APPLICATION_OCTET_STREAM).content("short")).andExpect(status().isBadRequest());
+    mockMvc.perform(post("/groups/42/variables/FILE/file").header("PRIVATE-TOKEN", TOKEN)
+        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(new byte[0])).andExpect(status().isBadRequest());
+    // Rejected upfront
+    mockMvc.perform(post("/groups/42/variables/FILE/file").header("PRIVATE-TOKEN", TOKEN)
+        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(new byte[33])).andExpect(status().isPayloadTooLarge());
+    mockMvc.perform(post("/groups/42/variables/KEY/file").header("PRIVATE-TOKEN", TOKEN)
+        .contentType(MediaType.APPLICATION_OCTET_STREAM).content("value")).andExpect(status().isBadRequest());
+    verify(service, times(4)).createGroupVariable(eq(42L), eq("FILE"), any(InputStream.class), eq("file"), any(), any(), any());
+    verifyNoMoreInteractions(eventHub);
+  }
+
+  @Test
+  public void testGroupVariableEvents() throws Exception {
+    when(catalog.getAncestry(44L)).thenReturn(List.of(44L));
+    when(eventHub.subscribe(42L, 1L)).thenReturn(new SseEmitter());
+
+    mockMvc.perform(get("/groups/42/variables/events").header("PRIVATE-TOKEN", TOKEN))
+        .andExpect(status().isOk()).andExpect(request().asyncStarted());
+    mockMvc.perform(get("/groups/44/variables/events").header("PRIVATE-TOKEN", TOKEN))
+        .andExpect(status().isUnauthorized());
+    verify(eventHub).subscribe(42L, 1L);
+    verifyNoMoreInteractions(eventHub);
+  }
+
+  @Test
+  public void testBulkheadFull() throws Exception {
+    when(service.getCachedGroupVariables(42L)).thenThrow(new BulkheadFullException("Too many concurrent reads requests", Duration.ofSeconds(5)));
+
+    mockMvc.perform(get("/groups/42/variables").header("PRIVATE-TOKEN", TOKEN))
+        .andExpect(status().isServiceUnavailable()).andExpect(header().string(HttpHeaders.RETRY_AFTER, "5"));
+  }
+
+  private static GLVariable createVariable(String key, String environmentScope) {
+    GLVariable variable = new GLVariable();
+    variable.setKey(key);
+    variable.setValue("value of " + key);
+    variable.setVariableType("env_var");
+    variable.setEnvironmentScope(environmentScope);
+    return variable;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.gitlab.helper.gitlab.GitLabClient;
+import org.vaulttec.gitlab.helper.gitlab.GitLabService;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RateLimitInterceptorTest {
+
+  @Test
+  public void testUnauthenticatedLimitedPerAddress() {
+    HelperConfig config = new HelperConfig();
+    config.setRateLimitUnauthenticatedPerMinute(1);
+    config.setRateLimitUnauthenticatedBurst(3);
+    GitLabService service = mock(GitLabService.class);
+    when(service.isAuthenticated("valid")).thenReturn(true);
+    RateLimitInterceptor interceptor = new RateLimitInterceptor(config, service);
+
+    // A new token with every request doesn't get a new bucket
+    for (int i = 0; i < 3; i++) {
+      assertTrue(interceptor.preHandle(createRequest("10.0.0.1", "token" + i), new MockHttpServletResponse(), null));
+    }
+    assertThrows(RateLimitExceededException.class,
+        () -> interceptor.preHandle(createRequest("10.0.0.1", "token3"), new MockHttpServletResponse(), null));
+    assertTrue(interceptor.preHandle(createRequest("10.0.0.2", "token3"), new MockHttpServletResponse(), null));
+
+    // Authenticated tokens are only limited per token
+    for (int i = 0; i < 10; i++) {
+      assertTrue(interceptor.preHandle(createRequest("10.0.0.1", "valid"), new MockHttpServletResponse(), null));
+    }
+  }
+
+  private static MockHttpServletRequest createRequest(String remoteAddress, String token) {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v4/groups");
+    request.setRemoteAddr(remoteAddress);
+    request.addHeader(GitLabClient.HEADER_NAME_AUTHENTICATION, token);
+    return request;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RateLimiterTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testBurstAndRefill() {
+    RateLimiter limiter = new RateLimiter(60, 3);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.tryAcquire("caller", 0));
+    }
+    long waitNanos = limiter.tryAcquire("caller", 0);
+    assertEquals(SECOND, waitNanos);
+    assertEquals(0, limiter.tryAcquire("other", 0));
+
+    // One token per second is refilled
+    assertEquals(0, limiter.tryAcquire("caller", SECOND));
+    assertTrue(limiter.tryAcquire("caller", SECOND) > 0);
+    assertEquals(0, limiter.tryAcquire("caller", 2 * SECOND));
+  }
+
+  @Test
+  public void testEvictIdle() {
+    RateLimiter limiter = new RateLimiter(60, 2);
+    limiter.tryAcquire("caller", 0);
+    limiter.tryAcquire("caller", 0);
+
+    limiter.evictIdle(SECOND);
+    assertEquals(1, limiter.size());
+    limiter.evictIdle(2 * SECOND);
+    assertEquals(0, limiter.size());
+    assertEquals(0, limiter.tryAcquire("caller", 2 * SECOND));
+  }
+}
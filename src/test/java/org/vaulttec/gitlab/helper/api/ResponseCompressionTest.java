@@ -0,0 +1,127 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.ActiveProfiles;
+import org.vaulttec.gitlab.helper.gitlab.CachedValue;
+import org.vaulttec.gitlab.helper.gitlab.GitLabService;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the embedded server with the compression settings of {@code application.yml}.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ResponseCompressionTest {
+  private static final Logger LOG = LoggerFactory.getLogger(ResponseCompressionTest.class);
+  private static final String TOKEN = "token";
+
+  @LocalServerPort
+  private int port;
+
+  @MockBean
+  private GitLabService service;
+
+  @Test
+  public void testCompressedResponse() throws IOException {
+    GLUser user = new GLUser();
+    user.setId(1L);
+    user.setUsername("user");
+    when(service.getUser(TOKEN)).thenReturn(user);
+    List<GLMembership> memberships = LongStream.rangeClosed(1, 100).mapToObj(id -> {
+      GLMembership membership = new GLMembership();
+      membership.setSourceId(id);
+      membership.setSourceName("Group " + id);
+      membership.setSourceType("Namespace");
+      membership.setPermission(GLPermission.MAINTAINER);
+      return membership;
+    }).collect(Collectors.toList());
+    when(service.getCachedGroupMemberships(1L)).thenReturn(CachedValue.of(memberships));
+
+    long start = System.nanoTime();
+    HttpURLConnection compressed = openGroups("gzip");
+    byte[] compressedBody = readBody(compressed);
+    long compressedNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    HttpURLConnection uncompressed = openGroups(null);
+    byte[] uncompressedBody = readBody(uncompressed);
+    long uncompressedNanos = System.nanoTime() - start;
+
+    // Responses with a strong ETag wouldn't be compressed
+    assertEquals("gzip", compressed.getHeaderField(HttpHeaders.CONTENT_ENCODING));
+    String etag = compressed.getHeaderField(HttpHeaders.ETAG);
+    assertTrue(etag.startsWith("W/"));
+    assertNull(uncompressed.getHeaderField(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(etag, uncompressed.getHeaderField(HttpHeaders.ETAG));
+    byte[] decodedBody;
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressedBody))) {
+      decodedBody = in.readAllBytes();
+    }
+    assertArrayEquals(uncompressedBody, decodedBody);
+    LOG.info("Groups of user with 100 memberships: {} bytes in {} ms uncompressed, {} bytes in {} ms compressed ({}% saved)",
+        uncompressedBody.length, TimeUnit.NANOSECONDS.toMillis(uncompressedNanos), compressedBody.length,
+        TimeUnit.NANOSECONDS.toMillis(compressedNanos), 100 - compressedBody.length * 100 / uncompressedBody.length);
+
+    // The weak ETag is validated regardless of the encoding
+    HttpURLConnection notModified = openGroups("gzip");
+    notModified.setRequestProperty(HttpHeaders.IF_NONE_MATCH, etag);
+    assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, notModified.getResponseCode());
+  }
+
+  private HttpURLConnection openGroups(String acceptEncoding) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/groups").openConnection();
+    connection.setRequestProperty("PRIVATE-TOKEN", TOKEN);
+    if (acceptEncoding != null) {
+      connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+    }
+    return connection;
+  }
+
+  private static byte[] readBody(HttpURLConnection connection) throws IOException {
+    assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+    try (InputStream in = connection.getInputStream()) {
+      return in.readAllBytes();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.gitlab.helper.api.model.VariableEvent;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VariableEventHubTest {
+
+  @Test
+  public void testOverflowReplacedByReset() throws Exception {
+    HelperConfig config = new HelperConfig();
+    config.setVariableEventsQueueSize(2);
+    TestHub hub = new TestHub(config);
+    try {
+      TestEmitter emitter = hub.subscribe(1L, new TestEmitter());
+
+      hub.publish(new VariableEvent(VariableEvent.TYPE_CREATED, 1L, "KEY", "*"));
+      assertTrue(emitter.nextEvent().contains("event:" + VariableEvent.TYPE_CREATED));
+
+      // Sending is blocked, so the third pending event overflows the queue
+      for (int i = 0; i < 4; i++) {
+        hub.publish(new VariableEvent(VariableEvent.TYPE_UPDATED, 1L, "KEY", "*"));
+      }
+      emitter.release.countDown();
+      assertTrue(emitter.nextEvent().contains("event:" + VariableEvent.TYPE_RESET));
+      assertNull(emitter.events.poll(200, TimeUnit.MILLISECONDS));
+
+      hub.publish(new VariableEvent(VariableEvent.TYPE_DELETED, 1L, "KEY", "*"));
+      assertTrue(emitter.nextEvent().contains("event:" + VariableEvent.TYPE_DELETED));
+      assertEquals(1, hub.getSubscriberCount());
+    } finally {
+      hub.shutdown();
+    }
+  }
+
+  @Test
+  public void testHeartbeatSkipsBusySubscribers() throws Exception {
+    TestHub hub = new TestHub(new HelperConfig());
+    try {
+      TestEmitter busy = hub.subscribe(1L, new TestEmitter());
+      TestEmitter idle = hub.subscribe(2L, new TestEmitter());
+      idle.release.countDown();
+
+      hub.publish(new VariableEvent(VariableEvent.TYPE_CREATED, 1L, "KEY", "*"));
+      assertTrue(busy.nextEvent().contains("event:" + VariableEvent.TYPE_CREATED));
+
+      hub.heartbeat();
+      assertTrue(idle.nextEvent().contains("heartbeat"));
+      busy.release.countDown();
+      assertNull(busy.events.poll(200, TimeUnit.MILLISECONDS));
+    } finally {
+      hub.shutdown();
+    }
+  }
+
+  @Test
+  public void testSlowSubscriberClosed() throws Exception {
+    HelperConfig config = new HelperConfig();
+    config.setVariableEventsSenderThreads(2);
+    config.setVariableEventsSendTimeout(Duration.ofMillis(50));
+    TestHub hub = new TestHub(config);
+    try {
+      TestEmitter slow = hub.subscribe(1L, new TestEmitter());
+      TestEmitter fast = hub.subscribe(2L, new TestEmitter());
+      fast.release.countDown();
+
+      hub.publish(new VariableEvent(VariableEvent.TYPE_CREATED, 1L, "KEY", "*"));
+      assertTrue(slow.nextEvent().contains("event:" + VariableEvent.TYPE_CREATED));
+
+      // The blocked send doesn't delay the other subscriber
+      hub.publish(new VariableEvent(VariableEvent.TYPE_CREATED, 2L, "KEY", "*"));
+      assertTrue(fast.nextEvent().contains("event:" + VariableEvent.TYPE_CREATED));
+
+      Thread.sleep(100);
+      hub.closeSlowSubscribers();
+      assertEquals(1, hub.getSubscriberCount());
+      hub.publish(new VariableEvent(VariableEvent.TYPE_UPDATED, 1L, "KEY", "*"));
+
+      // The emitter is completed by the sender after the blocked send returned
+      assertFalse(slow.completed.await(100, TimeUnit.MILLISECONDS));
+      slow.release.countDown();
+      assertTrue(slow.completed.await(5, TimeUnit.SECONDS));
+      assertNull(slow.events.poll(200, TimeUnit.MILLISECONDS));
+      assertFalse(fast.completed.await(0, TimeUnit.MILLISECONDS));
+    } finally {
+      hub.shutdown();
+    }
+  }
+
+  private static class TestHub extends VariableEventHub {
+    private TestEmitter nextEmitter;
+
+    private TestHub(HelperConfig config) {
+      super(config, new ObjectMapper());
+    }
+
+    private TestEmitter subscribe(long groupId, TestEmitter emitter) {
+      nextEmitter = emitter;
+      subscribe(groupId, groupId);
+      return emitter;
+    }
+
+    @Override
+    SseEmitter createEmitter(long timeout) {
+      return nextEmitter;
+    }
+  }
+
+  /**
+   * Records the sent events and blocks each send until released.
+   */
+  private static class TestEmitter extends SseEmitter {
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    @Override
+    public void send(SseEventBuilder builder) throws IOException {
+      StringBuilder event = new StringBuilder();
+      builder.build().forEach(data -> event.append(data.getData()));
+      events.add(event.toString());
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void complete() {
+      completed.countDown();
+    }
+
+    private String nextEvent() throws InterruptedException {
+      String event = events.poll(5, TimeUnit.SECONDS);
+      assertTrue(event != null, "No event sent");
+      return event;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.api;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.vaulttec.gitlab.helper.HelperConfig;
+import org.vaulttec.gitlab.helper.gitlab.GitLabService;
+import org.vaulttec.gitlab.helper.gitlab.GroupCatalog;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+
+import java.io.IOException;
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class WebhookControllerTest {
+
+  private GitLabService service;
+  private GroupCatalog catalog;
+  private VariableEventHub eventHub;
+  private MockMvc mockMvc;
+
+  @BeforeEach
+  public void setUp() {
+    HelperConfig config = new HelperConfig();
+    config.setWebhookSecretToken("secret");
+    service = mock(GitLabService.class);
+    catalog = mock(GroupCatalog.class);
+    eventHub = mock(VariableEventHub.class);
+    mockMvc = MockMvcBuilders.standaloneSetup(new WebhookController(config, service, catalog, eventHub)).build();
+  }
+
+  @Test
+  public void testMembershipEvent() throws Exception {
+    mockMvc.perform(post("/hooks/gitlab").header(WebhookController.HEADER_NAME_TOKEN, "secret")
+        .contentType(MediaType.APPLICATION_JSON).content(readPayload("user_add_to_group"))).andExpect(status().isOk());
+
+    verify(service).evictGroupMemberships(41);
+    verify(eventHub).closeUser(41);
+    verifyNoMoreInteractions(service, catalog, eventHub);
+  }
+
+  @Test
+  public void testGroupEvent() throws Exception {
+    mockMvc.perform(post("/hooks/gitlab").header(WebhookController.HEADER_NAME_TOKEN, "secret")
+        .contentType(MediaType.APPLICATION_JSON).content(readPayload("group_rename"))).andExpect(status().isOk());
+
+    // Only the memberships including the renamed group are evicted, its variables are unchanged
+    LongPredicate groupFilter = captureGroupFilter();
+    assertTrue(groupFilter.test(64));
+    assertFalse(groupFilter.test(65));
+    verify(catalog).refreshGroup(64);
+    verifyNoMoreInteractions(service, catalog, eventHub);
+  }
+
+  @Test
+  public void testGroupCreateEvent() throws Exception {
+    mockMvc.perform(post("/hooks/gitlab").header(WebhookController.HEADER_NAME_TOKEN, "secret")
+        .contentType(MediaType.APPLICATION_JSON).content(readPayload("group_create"))).andExpect(status().isOk());
+
+    verify(catalog).refreshGroup(78);
+    verifyNoMoreInteractions(service, catalog, eventHub);
+  }
+
+  @Test
+  public void testGroupTransferEvent() throws Exception {
+    GLGroup group = new GLGroup();
+    group.setId(65L);
+    group.setParentId(10L);
+    when(catalog.getGroup(65)).thenReturn(group);
+    mockMvc.perform(post("/hooks/gitlab").header(WebhookController.HEADER_NAME_TOKEN, "secret")
+        .contentType(MediaType.APPLICATION_JSON).content(readPayload("group_transfer"))).andExpect(status().isOk());
+
+    verify(service).evictGroupVariables(65);
+    verify(catalog).refreshGroup(65);
+    verify(catalog).getGroup(65);
+    // The memberships including the group or its new parent are evicted
+    LongPredicate groupFilter = captureGroupFilter();
+    assertTrue(groupFilter.test(65));
+    assertTrue(groupFilter.test(10));
+    assertFalse(groupFilter.test(11));
+    verifyNoMoreInteractions(service, catalog, eventHub);
+  }
+
+  @Test
+  public void testUserRenameEvent() throws Exception {
+    mockMvc.perform(post("/hooks/gitlab").header(WebhookController.HEADER_NAME_TOKEN, "secret")
+        .contentType(MediaType.APPLICATION_JSON).content(readPayload("user_rename"))).andExpect(status().isOk());
+
+    verify(service).evictGroupMemberships(58);
+    verify(service).evictUser(58);
+    verify(eventHub).closeUser(58);
+    verifyNoMoreInteractions(service, catalog, eventHub);
+  }
+
+  @Test
+  public void testInvalidToken() throws Exception {
+    mockMvc.perform(post("/hooks/gitlab").header(WebhookController.HEADER_NAME_TOKEN, "wrong")
+        .contentType(MediaType.APPLICATION_JSON).content(readPayload("user_add_to_group")))
+        .andExpect(status().isUnauthorized());
+
+    verifyNoInteractions(service);
+  }
+
+  private LongPredicate captureGroupFilter() {
+    ArgumentCaptor<LongPredicate> groupFilter = ArgumentCaptor.forClass(LongPredicate.class);
+    verify(service).evictGroupMemberships(groupFilter.capture());
+    return groupFilter.getValue();
+  }
+
+  private static byte[] readPayload(String name) throws IOException {
+    return new ClassPathResource("hooks/" + name + ".json").getInputStream().readAllBytes();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.audit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+import org.springframework.boot.actuate.audit.InMemoryAuditEventRepository;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AuditEventsEndpointWebExtensionTest {
+  private static final Instant TIMESTAMP = Instant.parse("2022-09-01T10:00:00Z");
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testPersistentPages() throws IOException {
+    PersistentAuditEventRepository repository = new PersistentAuditEventRepository(directory, 10, 1024, 4096,
+        Duration.ofDays(1), 10, new SimpleMeterRegistry());
+    addEvents(repository);
+    repository.close();
+
+    repository = new PersistentAuditEventRepository(directory, 10, 1024, 4096, Duration.ofDays(1), 10, new SimpleMeterRegistry());
+    try {
+      AuditEventsEndpointWebExtension extension = new AuditEventsEndpointWebExtension(repository);
+      assertEquals(10, extension.events(null, null, null, null, null).getEvents().size());
+      List<AuditEvent> events = extension.events(null, TIMESTAMP.atOffset(ZoneOffset.UTC), "AUTHENTICATION_SUCCESS", 2, 5).getEvents();
+      assertEquals(5, events.size());
+      assertEquals(TIMESTAMP.plusSeconds(178), events.get(0).getTimestamp());
+      assertEquals(AuditEventsEndpointWebExtension.DEFAULT_PAGE_SIZE, extension.events(null, null, null, 0, null).getEvents().size());
+    } finally {
+      repository.close();
+    }
+  }
+
+  @Test
+  public void testInMemoryPages() {
+    InMemoryAuditEventRepository repository = new InMemoryAuditEventRepository(1000);
+    addEvents(repository);
+    AuditEventsEndpointWebExtension extension = new AuditEventsEndpointWebExtension(repository);
+
+    List<AuditEvent> events = extension.events("user3", null, null, 1, 4).getEvents();
+    assertEquals(4, events.size());
+    assertEquals("user3", events.get(0).getPrincipal());
+  }
+
+  @Test
+  public void testInvalidPage() {
+    AuditEventsEndpointWebExtension extension = new AuditEventsEndpointWebExtension(new InMemoryAuditEventRepository());
+
+    assertThrows(InvalidEndpointRequestException.class, () -> extension.events(null, null, null, -1, 10));
+    assertThrows(InvalidEndpointRequestException.class, () -> extension.events(null, null, null, 0, 0));
+    assertThrows(InvalidEndpointRequestException.class, () -> extension.events(null, null, null, 0,
+        AuditEventsEndpointWebExtension.MAX_PAGE_SIZE + 1));
+  }
+
+  private static void addEvents(AuditEventRepository repository) {
+    for (int i = 0; i < 200; i++) {
+      repository.add(new AuditEvent(TIMESTAMP.plusSeconds(i), "user" + (i % 10),
+          i % 2 == 0 ? "AUTHENTICATION_SUCCESS" : "AUTHENTICATION_FAILURE", Map.of()));
+    }
+  }
+}
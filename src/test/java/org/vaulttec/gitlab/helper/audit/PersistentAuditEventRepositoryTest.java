@@ -0,0 +1,132 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.audit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.audit.AuditEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PersistentAuditEventRepositoryTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testReplay() throws IOException {
+    Instant timestamp = Instant.parse("2022-09-01T10:15:30.123456789Z");
+    PersistentAuditEventRepository repository = createRepository(1024 * 1024, 10);
+    repository.add(new AuditEvent(timestamp, "john", "AUTHENTICATION_SUCCESS", Map.of("remoteAddress", "127.0.0.1")));
+    repository.add(new AuditEvent(timestamp.plusSeconds(1), "jane", "AUTHENTICATION_FAILURE", Map.of()));
+    repository.close();
+
+    repository = createRepository(1024 * 1024, 10);
+    List<AuditEvent> events = repository.find(null, null, null);
+    repository.close();
+
+    assertEquals(2, events.size());
+    AuditEvent event = events.stream().filter(e -> e.getPrincipal().equals("john")).findFirst().orElseThrow();
+    assertEquals(timestamp, event.getTimestamp());
+    assertEquals("AUTHENTICATION_SUCCESS", event.getType());
+    assertEquals("127.0.0.1", event.getData().get("remoteAddress"));
+  }
+
+  @Test
+  public void testSegmentRollover() throws IOException {
+    PersistentAuditEventRepository repository = createRepository(256, 3);
+    for (int i = 0; i < 20; i++) {
+      repository.add(new AuditEvent(Instant.now(), "user" + i, "AUTHENTICATION_SUCCESS", Map.of()));
+    }
+    repository.close();
+
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(3, files.count());
+    }
+    repository = createRepository(256, 3);
+    List<AuditEvent> events = repository.find(null, null, null);
+    repository.close();
+
+    assertEquals("user19", events.get(0).getPrincipal());
+  }
+
+  @Test
+  public void testFind() throws IOException {
+    Instant timestamp = Instant.parse("2022-09-01T10:00:00Z");
+    PersistentAuditEventRepository repository = createRepository(1024, 100);
+    for (int i = 0; i < 100; i++) {
+      repository.add(new AuditEvent(timestamp.plusSeconds(i), "user" + (i % 10),
+          i % 2 == 0 ? "AUTHENTICATION_SUCCESS" : "AUTHENTICATION_FAILURE", Map.of()));
+    }
+    repository.close();
+
+    repository = createRepository(1024, 100);
+    assertEquals(10, repository.find("user3", null, null).size());
+    assertEquals(0, repository.find("user3", null, "AUTHENTICATION_SUCCESS").size());
+    assertEquals(0, repository.find("unknown", null, null).size());
+    List<AuditEvent> events = repository.find(null, timestamp.plusSeconds(89), "AUTHENTICATION_SUCCESS");
+    assertEquals(5, events.size());
+    assertEquals(timestamp.plusSeconds(98), events.get(0).getTimestamp());
+    events = repository.find("user4", timestamp.plusSeconds(4), null);
+    assertEquals(9, events.size());
+    events = repository.find(null, null, null, 1, 30);
+    assertEquals(30, events.size());
+    assertEquals(timestamp.plusSeconds(69), events.get(0).getTimestamp());
+    repository.close();
+  }
+
+  @Test
+  public void testDroppedEvents() throws IOException {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    PersistentAuditEventRepository repository = createRepository(1024, 10, meterRegistry);
+    repository.close();
+
+    // Events added after closing are dropped
+    for (int i = 0; i < 3; i++) {
+      repository.add(new AuditEvent(Instant.now(), "user" + i, "AUTHENTICATION_SUCCESS", Map.of()));
+    }
+    assertEquals(3, repository.getDroppedEvents());
+    assertEquals(3, meterRegistry.get("helper.audit.events.dropped").counter().count());
+  }
+
+  @Test
+  public void testInvalidSegmentSize() {
+    assertThrows(IllegalArgumentException.class, () -> createRepository(4, 10));
+    assertThrows(IllegalArgumentException.class, () -> createRepository(Integer.MAX_VALUE + 1L, 10));
+  }
+
+  private PersistentAuditEventRepository createRepository(long segmentSize, int maxSegments) throws IOException {
+    return createRepository(segmentSize, maxSegments, new SimpleMeterRegistry());
+  }
+
+  private PersistentAuditEventRepository createRepository(long segmentSize, int maxSegments, MeterRegistry meterRegistry) throws IOException {
+    return new PersistentAuditEventRepository(directory, 1000, 1024, segmentSize, Duration.ofDays(1), maxSegments, meterRegistry);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheSnapshotTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    GLGroup group = new GLGroup();
+    group.setId(42L);
+    group.setParentId(1L);
+    group.setName("group");
+    group.setFullPath("parent/group");
+    GLMembership membership = new GLMembership();
+    membership.setSourceId(42L);
+    membership.setSourceName("group");
+    membership.setSourceType("Namespace");
+    membership.setPermission(GLPermission.MAINTAINER);
+    GLVariableKey key = new GLVariableKey();
+    key.setKey("KEY");
+    key.setVariableType("env_var");
+    key.setIsMasked(true);
+    key.setEnvironmentScope("production");
+    Path file = tempDir.resolve("cache.snapshot");
+
+    new CacheSnapshot(1234L, List.of(group), Map.of(7L, List.of(membership)), Map.of(42L, List.of(key))).write(file);
+    CacheSnapshot snapshot = CacheSnapshot.read(file);
+
+    assertEquals(1234L, snapshot.getCreatedAt());
+    assertEquals(1, snapshot.getGroups().size());
+    GLGroup readGroup = snapshot.getGroups().get(0);
+    assertEquals(42L, (long) readGroup.getId());
+    assertEquals(1L, (long) readGroup.getParentId());
+    assertEquals("parent/group", readGroup.getFullPath());
+    assertNull(readGroup.getDescription());
+    assertEquals(List.of(membership), snapshot.getMemberships().get(7L));
+    GLVariableKey readKey = snapshot.getVariableKeys().get(42L).get(0);
+    assertEquals(key, readKey);
+    assertTrue(readKey.getIsMasked());
+    assertFalse(readKey.getIsProtected());
+  }
+
+  @Test
+  public void testReadInvalidFile() throws IOException {
+    Path file = Files.write(tempDir.resolve("invalid.snapshot"), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+    assertThrows(IOException.class, () -> CacheSnapshot.read(file));
+  }
+}
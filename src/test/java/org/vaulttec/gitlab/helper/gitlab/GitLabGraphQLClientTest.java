@@ -0,0 +1,234 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.web.client.MockServerRestTemplateCustomizer;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.ResponseCreator;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariableKey;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.jsonPath;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class GitLabGraphQLClientTest {
+  private static final Logger LOG = LoggerFactory.getLogger(GitLabGraphQLClientTest.class);
+  private static final String URL = "http://gitlab.local" + GitLabGraphQLClient.GRAPHQL_PATH;
+  private static final String REST_URL = "http://gitlab.local/api/v4/groups/42/variables";
+  private static final String USER_AND_VARIABLES_RESPONSE = "{\"data\": {"
+      + "\"currentUser\": {\"id\": \"gid://gitlab/User/1\", \"username\": \"user\", \"name\": \"User\"},"
+      + "\"group\": {\"id\": \"gid://gitlab/Group/42\", \"ciVariables\": {\"nodes\": [{\"key\": \"KEY\", \"value\": \"value\", \"variableType\": \"ENV_VAR\", \"protected\": true, \"masked\": false, \"environmentScope\": \"*\"}], \"pageInfo\": {\"hasNextPage\": false, \"endCursor\": null}}}"
+      + "}}";
+  private static final long ROUND_TRIP_MILLIS = 50;
+
+  private MockRestServiceServer server;
+  private GitLabGraphQLClient client;
+
+  @BeforeEach
+  public void setUp() {
+    GitLabClientConfig config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl("http://gitlab.local");
+    config.setPersonalAccessToken("admin-token");
+    config.setCompressionEnabled(false);
+    GLGroup group = new GLGroup();
+    group.setId(42L);
+    group.setFullPath("parent/group");
+    GroupCatalog catalog = mock(GroupCatalog.class);
+    when(catalog.getGroup(42L)).thenReturn(group);
+    MockServerRestTemplateCustomizer customizer = new MockServerRestTemplateCustomizer();
+    client = new GitLabGraphQLClient(config, new RestTemplateBuilder(customizer), new SimpleMeterRegistry(), catalog);
+    server = customizer.getServer();
+  }
+
+  @Test
+  public void testMembershipsAndVariables() {
+    server.expect(requestTo(URL)).andExpect(method(HttpMethod.POST))
+        .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer admin-token"))
+        .andExpect(jsonPath("$.query").value(GitLabGraphQLClient.QUERY_MEMBERSHIPS))
+        .andExpect(jsonPath("$.variables.userId").value("gid://gitlab/User/1"))
+        .andRespond(withSuccess("{\"data\": {"
+            + "\"user\": {\"groupMemberships\": {\"nodes\": [{\"group\": {\"id\": \"gid://gitlab/Group/42\", \"name\": \"group\"}, \"accessLevel\": {\"integerValue\": 40}}, {\"group\": null, \"accessLevel\": {\"integerValue\": 30}}], \"pageInfo\": {\"hasNextPage\": false, \"endCursor\": null}}}"
+            + "}}", MediaType.APPLICATION_JSON));
+    server.expect(requestTo(URL)).andExpect(jsonPath("$.query").value(GitLabGraphQLClient.QUERY_VARIABLES))
+        .andExpect(jsonPath("$.variables.fullPath").value("parent/group"))
+        .andRespond(withSuccess("{\"data\": {"
+            + "\"group\": {\"id\": \"gid://gitlab/Group/42\", \"ciVariables\": {\"nodes\": [{\"key\": \"KEY\", \"value\": \"value\", \"variableType\": \"ENV_VAR\", \"protected\": true, \"masked\": false, \"environmentScope\": \"*\"}], \"pageInfo\": {\"hasNextPage\": true, \"endCursor\": \"abc\"}}}"
+            + "}}", MediaType.APPLICATION_JSON));
+    server.expect(requestTo(URL)).andExpect(jsonPath("$.query").value(GitLabGraphQLClient.QUERY_VARIABLES))
+        .andExpect(jsonPath("$.variables.variablesAfter").value("abc"))
+        .andRespond(withSuccess("{\"data\": {"
+            + "\"group\": {\"id\": \"gid://gitlab/Group/42\", \"ciVariables\": {\"nodes\": [{\"key\": \"FILE_KEY\", \"value\": \"content\", \"variableType\": \"FILE\", \"protected\": false, \"masked\": false, \"environmentScope\": \"production\"}], \"pageInfo\": {\"hasNextPage\": false, \"endCursor\": \"def\"}}}"
+            + "}}", MediaType.APPLICATION_JSON));
+
+    List<GLMembership> memberships = client.getGroupMemberships(1L);
+    List<GLVariable> variables = client.getGroupVariables(42L);
+
+    // A single request for up to 100 memberships or variables plus one per further page
+    server.verify();
+    // The membership in a group not visible to the helper's token is skipped
+    assertEquals(1, memberships.size());
+    GLMembership membership = memberships.get(0);
+    assertEquals(42L, (long) membership.getSourceId());
+    assertEquals("group", membership.getSourceName());
+    assertEquals(GLPermission.MAINTAINER, membership.getPermission());
+    assertEquals(2, variables.size());
+    assertEquals("env_var", variables.get(0).getVariableType());
+    assertTrue(variables.get(0).getIsProtected());
+    assertEquals("file", variables.get(1).getVariableType());
+    assertFalse(variables.get(1).getIsProtected());
+    assertEquals("production", variables.get(1).getEnvironmentScope());
+  }
+
+  @Test
+  public void testUserAndVariables() {
+    server.expect(requestTo(URL)).andExpect(method(HttpMethod.POST))
+        .andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer user-token"))
+        .andExpect(jsonPath("$.query").value(GitLabGraphQLClient.QUERY_USER_AND_VARIABLES))
+        .andExpect(jsonPath("$.variables.fullPath").value("parent/group"))
+        .andRespond(withSuccess(USER_AND_VARIABLES_RESPONSE, MediaType.APPLICATION_JSON));
+    // GitLab doesn't return the variables to users who aren't permitted to administer them
+    server.expect(requestTo(URL)).andExpect(header(HttpHeaders.AUTHORIZATION, "Bearer user-token"))
+        .andRespond(withSuccess("{\"data\": {"
+            + "\"currentUser\": {\"id\": \"gid://gitlab/User/1\", \"username\": \"user\", \"name\": \"User\"},"
+            + "\"group\": {\"id\": \"gid://gitlab/Group/42\", \"ciVariables\": null}"
+            + "}}", MediaType.APPLICATION_JSON));
+
+    UserAndVariables userAndVariables = client.getUserAndGroupVariables("user-token", 42L);
+    UserAndVariables userWithoutVariables = client.getUserAndGroupVariables("user-token", 42L);
+
+    server.verify();
+    assertEquals(1L, (long) userAndVariables.getUser().getId());
+    assertEquals("user", userAndVariables.getUser().getUsername());
+    assertEquals(1, userAndVariables.getVariables().size());
+    assertEquals("KEY", userAndVariables.getVariables().get(0).getKey());
+    assertEquals(1L, (long) userWithoutVariables.getUser().getId());
+    assertNull(userWithoutVariables.getVariables());
+  }
+
+  /**
+   * Compares the cold path of a variables request (user, permission and variables not cached) with a stubbed round
+   * trip latency: the REST API needs a request each, GraphQL a single one.
+   */
+  @Test
+  public void testUserAndVariablesBenchmark() {
+    GitLabClientConfig config = new GitLabClientConfig(new MockEnvironment());
+    config.setServerUrl("http://gitlab.local");
+    config.setPersonalAccessToken("admin-token");
+    config.setCompressionEnabled(false);
+    MockServerRestTemplateCustomizer customizer = new MockServerRestTemplateCustomizer();
+    GitLabClient restClient = new GitLabClient(config, new RestTemplateBuilder(customizer), new SimpleMeterRegistry());
+    MockRestServiceServer restServer = customizer.getServer();
+    restServer.expect(requestTo("http://gitlab.local/api/v4/user"))
+        .andRespond(withLatency(withSuccess("{\"id\": 1, \"username\": \"user\", \"name\": \"User\"}", MediaType.APPLICATION_JSON)));
+    restServer.expect(requestTo("http://gitlab.local/api/v4/users/1/memberships?type=Namespace"))
+        .andRespond(withLatency(withSuccess("[{\"source_id\": 42, \"source_name\": \"group\", \"source_type\": \"Namespace\", \"access_level\": 40}]", MediaType.APPLICATION_JSON)));
+    restServer.expect(requestTo(REST_URL))
+        .andRespond(withLatency(withSuccess("[{\"key\": \"KEY\", \"value\": \"value\", \"variable_type\": \"env_var\", \"protected\": true, \"masked\": false, \"environment_scope\": \"*\"}]", MediaType.APPLICATION_JSON)));
+    server.expect(requestTo(URL)).andRespond(withLatency(withSuccess(USER_AND_VARIABLES_RESPONSE, MediaType.APPLICATION_JSON)));
+
+    long start = System.nanoTime();
+    GLUser user = restClient.getUser("user-token");
+    List<GLMembership> memberships = restClient.getGroupMemberships(user.getId());
+    List<GLVariable> variables = restClient.getGroupVariables(42L);
+    long restNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    UserAndVariables userAndVariables = client.getUserAndGroupVariables("user-token", 42L);
+    long graphQLNanos = System.nanoTime() - start;
+
+    restServer.verify();
+    server.verify();
+    assertEquals(GLPermission.MAINTAINER, memberships.get(0).getPermission());
+    assertEquals(variables.size(), userAndVariables.getVariables().size());
+    LOG.info("User, permission and variables with {} ms round trips: REST 3 requests in {} ms, GraphQL 1 request in {} ms",
+        ROUND_TRIP_MILLIS, TimeUnit.NANOSECONDS.toMillis(restNanos), TimeUnit.NANOSECONDS.toMillis(graphQLNanos));
+  }
+
+  @Test
+  public void testRenamedGroup() {
+    // The catalog's full path of group 42 was taken over by another group
+    server.expect(requestTo(URL)).andExpect(jsonPath("$.query").value(GitLabGraphQLClient.QUERY_VARIABLES))
+        .andExpect(jsonPath("$.variables.fullPath").value("parent/group"))
+        .andRespond(withSuccess("{\"data\": {"
+            + "\"group\": {\"id\": \"gid://gitlab/Group/7\", \"ciVariables\": {\"nodes\": [{\"key\": \"OTHER_KEY\", \"value\": \"other\", \"variableType\": \"ENV_VAR\", \"protected\": false, \"masked\": false, \"environmentScope\": \"*\"}], \"pageInfo\": {\"hasNextPage\": false, \"endCursor\": null}}}"
+            + "}}", MediaType.APPLICATION_JSON));
+    server.expect(requestTo(REST_URL)).andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess("[{\"key\": \"KEY\", \"value\": \"value\", \"variable_type\": \"env_var\", \"protected\": false, \"masked\": false, \"environment_scope\": \"*\"}]", MediaType.APPLICATION_JSON));
+    // The catalog's full path of group 42 doesn't exist any more
+    server.expect(requestTo(URL)).andExpect(jsonPath("$.query").value(GitLabGraphQLClient.QUERY_VARIABLE_KEYS))
+        .andRespond(withSuccess("{\"data\": {\"group\": null}}", MediaType.APPLICATION_JSON));
+    server.expect(requestTo(REST_URL)).andExpect(method(HttpMethod.GET))
+        .andRespond(withSuccess("[{\"key\": \"KEY\", \"variable_type\": \"env_var\", \"protected\": false, \"masked\": false, \"environment_scope\": \"*\"}]", MediaType.APPLICATION_JSON));
+
+    List<GLVariable> variables = client.getGroupVariables(42L);
+    List<GLVariableKey> variableKeys = client.getGroupVariableKeys(42L);
+
+    server.verify();
+    assertEquals(1, variables.size());
+    assertEquals("KEY", variables.get(0).getKey());
+    assertEquals(1, variableKeys.size());
+    assertEquals("KEY", variableKeys.get(0).getKey());
+  }
+
+  @Test
+  public void testErrors() {
+    server.expect(requestTo(URL)).andRespond(withSuccess("{\"data\": {\"user\": null}, \"errors\": [{\"message\": \"Invalid ID\"}]}", MediaType.APPLICATION_JSON));
+
+    assertNull(client.getGroupMemberships(1L));
+    server.verify();
+  }
+
+  /**
+   * Delays the given response by a simulated round trip to GitLab.
+   */
+  private static ResponseCreator withLatency(ResponseCreator response) {
+    return request -> {
+      try {
+        Thread.sleep(ROUND_TRIP_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return response.createResponse(request);
+    };
+  }
+}
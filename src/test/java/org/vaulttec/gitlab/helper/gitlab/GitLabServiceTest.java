@@ -0,0 +1,175 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+import org.vaulttec.gitlab.helper.gitlab.model.GLMembership;
+import org.vaulttec.gitlab.helper.gitlab.model.GLPermission;
+import org.vaulttec.gitlab.helper.gitlab.model.GLUser;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class GitLabServiceTest {
+  private static final String TOKEN = "token";
+
+  @Test
+  public void testGroupMembershipsWithMinPermission() {
+    GitLabClient client = mock(GitLabClient.class);
+    GroupCatalog catalog = mock(GroupCatalog.class);
+    when(catalog.getAncestry(anyLong())).thenAnswer(invocation -> List.of((Long) invocation.getArgument(0)));
+    when(catalog.getAncestry(2)).thenReturn(List.of(2L, 1L));
+    // Group 4 is shared with one of the user's groups
+    when(client.getGroups(TOKEN, GLPermission.DEVELOPER)).thenReturn(List.of(createGroup(1), createGroup(2),
+        createGroup(3), createGroup(4)));
+    when(client.getGroupMemberships(42)).thenReturn(List.of(createMembership(1, GLPermission.MAINTAINER),
+        createMembership(3, GLPermission.OWNER)));
+    GitLabService service = createService(client, catalog);
+    GLUser user = new GLUser();
+    user.setId(42L);
+
+    // Cached direct memberships are used for the actual access levels
+    service.getCachedGroupMemberships(42);
+    Map<Long, GLPermission> permissions = getPermissions(service, user);
+    assertEquals(Map.of(1L, GLPermission.MAINTAINER, 2L, GLPermission.MAINTAINER, 3L, GLPermission.OWNER,
+        4L, GLPermission.DEVELOPER), permissions);
+
+    // A single filtered request, the cached memberships are reused
+    getPermissions(service, user);
+    verify(client, times(1)).getGroups(anyString(), any(GLPermission.class));
+    verify(client, times(1)).getGroupMemberships(42);
+  }
+
+  @Test
+  public void testGroupMembershipsWithMinPermissionNotCached() {
+    GitLabClient client = mock(GitLabClient.class);
+    when(client.getGroups(TOKEN, GLPermission.MAINTAINER)).thenReturn(List.of(createGroup(1), createGroup(3)));
+    GitLabService service = createService(client, mock(GroupCatalog.class));
+    GLUser user = new GLUser();
+    user.setId(42L);
+
+    assertEquals(Map.of(1L, GLPermission.MAINTAINER, 3L, GLPermission.MAINTAINER),
+        getPermissions(service, user, GLPermission.MAINTAINER));
+    verify(client, never()).getGroupMemberships(anyLong());
+  }
+
+  @Test
+  public void testGroupVariablesAuthorisedByGitLab() {
+    GitLabClient client = mock(GitLabClient.class);
+    GLUser user = new GLUser();
+    user.setId(42L);
+    GLVariable variable = new GLVariable();
+    variable.setKey("KEY");
+    variable.setValue("value");
+    when(client.getUserAndGroupVariables(TOKEN, 1)).thenReturn(new UserAndVariables(user, List.of(variable)));
+    when(client.getUserAndGroupVariables(TOKEN, 2)).thenReturn(new UserAndVariables(user, null));
+    GitLabService service = createService(client, mock(GroupCatalog.class));
+
+    assertEquals("KEY", service.getCachedGroupVariables(TOKEN, 1).getValue().get(0).getKey());
+    // The user isn't permitted to administer the variables of group 2
+    assertNull(service.getCachedGroupVariables(TOKEN, 2));
+
+    // The user and the variables are cached, so nothing else is retrieved
+    assertEquals(user, service.getUser(TOKEN));
+    assertEquals("KEY", service.getCachedGroupVariables(1).getValue().get(0).getKey());
+    assertNull(service.getCachedGroupVariables(TOKEN, 1));
+    verify(client, never()).getUser(anyString());
+    verify(client, never()).getGroupVariables(anyLong());
+    verify(client, times(1)).getUserAndGroupVariables(TOKEN, 1);
+  }
+
+  @Test
+  public void testEvictUser() {
+    GitLabClient client = mock(GitLabClient.class);
+    when(client.getUser(anyString())).thenAnswer(invocation -> {
+      GLUser user = new GLUser();
+      user.setId("other-token".equals(invocation.getArgument(0)) ? 43L : 42L);
+      return user;
+    });
+    GitLabService service = createService(client, mock(GroupCatalog.class));
+    service.getUser(TOKEN);
+    service.getUser("second-token");
+    service.getUser("other-token");
+
+    // Both tokens of user 42 are evicted, the other user is still cached
+    service.evictUser(42);
+    service.getUser(TOKEN);
+    service.getUser("second-token");
+    service.getUser("other-token");
+    verify(client, times(2)).getUser(TOKEN);
+    verify(client, times(2)).getUser("second-token");
+    verify(client, times(1)).getUser("other-token");
+  }
+
+  @Test
+  public void testEvictGroupMembershipsIncludingGroup() {
+    GitLabClient client = mock(GitLabClient.class);
+    when(client.getGroupMemberships(41)).thenReturn(List.of(createMembership(1, GLPermission.MAINTAINER)));
+    when(client.getGroupMemberships(42)).thenReturn(List.of(createMembership(2, GLPermission.MAINTAINER)));
+    GitLabService service = new GitLabService(client, new PermissionResolver(mock(GroupCatalog.class)),
+        new GitLabCacheConfig().createCacheManager(null), new GitLabCacheConfig(), Runnable::run);
+    service.getCachedGroupMemberships(41);
+    service.getCachedGroupMemberships(42);
+
+    service.evictGroupMemberships(groupId -> groupId == 1);
+    service.getCachedGroupMemberships(41);
+    service.getCachedGroupMemberships(42);
+    verify(client, times(2)).getGroupMemberships(41);
+    verify(client, times(1)).getGroupMemberships(42);
+  }
+
+  private static GitLabService createService(GitLabClient client, GroupCatalog catalog) {
+    return new GitLabService(client, new PermissionResolver(catalog),
+        new ConcurrentMapCacheManager(GitLabService.CACHE_USERS, GitLabService.CACHE_MEMBERSHIPS, GitLabService.CACHE_VARIABLES),
+        new GitLabCacheConfig(), Runnable::run);
+  }
+
+  private static Map<Long, GLPermission> getPermissions(GitLabService service, GLUser user) {
+    return getPermissions(service, user, GLPermission.DEVELOPER);
+  }
+
+  private static Map<Long, GLPermission> getPermissions(GitLabService service, GLUser user, GLPermission minPermission) {
+    return service.getCachedGroupMemberships(user, TOKEN, minPermission).getValue().stream()
+        .collect(Collectors.toMap(GLMembership::getSourceId, GLMembership::getPermission));
+  }
+
+  private static GLGroup createGroup(long id) {
+    GLGroup group = new GLGroup();
+    group.setId(id);
+    group.setName("Group " + id);
+    return group;
+  }
+
+  private static GLMembership createMembership(long groupId, GLPermission permission) {
+    GLMembership membership = new GLMembership();
+    membership.setSourceId(groupId);
+    membership.setSourceType("Namespace");
+    membership.setPermission(permission);
+    return membership;
+  }
+}
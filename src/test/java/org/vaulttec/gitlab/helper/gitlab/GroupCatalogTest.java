@@ -0,0 +1,92 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.junit.jupiter.api.Test;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GroupCatalogTest {
+
+  @Test
+  public void testChangesWhileRefreshing() throws Exception {
+    GitLabClient client = mock(GitLabClient.class);
+    List<GLGroup> allGroups = List.of(createGroup(1, null), createGroup(2, null), createGroup(3, 1), createGroup(4, 1));
+    CountDownLatch retrieving = new CountDownLatch(1);
+    CountDownLatch changed = new CountDownLatch(1);
+    when(client.getGroups(isNull(), eq(false))).thenReturn(allGroups).thenAnswer(invocation -> {
+      retrieving.countDown();
+      assertTrue(changed.await(5, TimeUnit.SECONDS));
+      // Retrieved before the following changes
+      return allGroups;
+    });
+    when(client.getGroup(3)).thenReturn(createGroup(3, 2));
+    GroupCatalog catalog = new GroupCatalog(client);
+    catalog.refresh();
+
+    CompletableFuture<Void> refresh = CompletableFuture.runAsync(catalog::refresh);
+    assertTrue(retrieving.await(5, TimeUnit.SECONDS));
+    // Group 3 is transferred to group 2 and group 4 is destroyed
+    catalog.refreshGroup(3);
+    catalog.removeGroup(4);
+    // The catalog isn't emptied while refreshing
+    assertNotNull(catalog.getGroup(1));
+    changed.countDown();
+    refresh.get(5, TimeUnit.SECONDS);
+
+    assertEquals(3, catalog.getGroups().size());
+    assertEquals(2L, (long) catalog.getGroup(3).getParentId());
+    assertEquals(List.of(3L, 2L), catalog.getAncestry(3));
+    assertNull(catalog.getGroup(4));
+    assertEquals(List.of(), catalog.search("Group", group -> group.getId() == 4L, 10));
+  }
+
+  @Test
+  public void testChangesBeforeRefresh() {
+    GitLabClient client = mock(GitLabClient.class);
+    when(client.getGroups(isNull(), eq(false))).thenReturn(List.of(createGroup(1, null), createGroup(2, null)));
+    GroupCatalog catalog = new GroupCatalog(client);
+    catalog.removeGroup(2);
+    catalog.refresh();
+
+    // Changes made before a refresh are covered by the retrieved groups
+    assertNotNull(catalog.getGroup(2));
+  }
+
+  private static GLGroup createGroup(long id, Integer parentId) {
+    GLGroup group = new GLGroup();
+    group.setId(id);
+    group.setName("Group " + id);
+    group.setFullPath("group-" + id);
+    group.setParentId(parentId != null ? Long.valueOf(parentId) : null);
+    return group;
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.junit.jupiter.api.Test;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class GroupHierarchyTest {
+
+  @Test
+  public void testParents() {
+    GroupHierarchy hierarchy = GroupHierarchy.of(List.of(createGroup(5, 1), createGroup(1, null), createGroup(3, 1)));
+
+    assertEquals(3, hierarchy.size());
+    assertEquals(GroupHierarchy.NO_PARENT, hierarchy.getParentId(1));
+    assertEquals(1, hierarchy.getParentId(3));
+    assertEquals(1, hierarchy.getParentId(5));
+    assertEquals(GroupHierarchy.UNKNOWN, hierarchy.getParentId(2));
+  }
+
+  @Test
+  public void testIncrementalUpdates() {
+    GroupHierarchy hierarchy = GroupHierarchy.of(List.of(createGroup(1, null), createGroup(5, 1)));
+
+    hierarchy = hierarchy.with(createGroup(3, 1)).with(createGroup(7, 3)).with(createGroup(5, 3));
+    assertEquals(4, hierarchy.size());
+    assertEquals(1, hierarchy.getParentId(3));
+    assertEquals(3, hierarchy.getParentId(5));
+    assertEquals(3, hierarchy.getParentId(7));
+    assertSame(hierarchy, hierarchy.with(createGroup(7, 3)));
+
+    hierarchy = hierarchy.without(3).without(42);
+    assertEquals(3, hierarchy.size());
+    assertEquals(GroupHierarchy.UNKNOWN, hierarchy.getParentId(3));
+    assertEquals(3, hierarchy.getParentId(7));
+    assertEquals(GroupHierarchy.NO_PARENT, hierarchy.getParentId(1));
+  }
+
+  private static GLGroup createGroup(long id, Integer parentId) {
+    GLGroup group = new GLGroup();
+    group.setId(id);
+    group.setParentId(parentId != null ? parentId.longValue() : null);
+    return group;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.junit.jupiter.api.Test;
+import org.vaulttec.gitlab.helper.gitlab.model.GLGroup;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GroupIndexTest {
+
+  private final GroupIndex index = new GroupIndex(List.of(
+      createGroup(1, "Platform", "platform", "platform"),
+      createGroup(2, "Platform Tools", "tools", "platform/tools"),
+      createGroup(3, "Payments", "payments", "payments"),
+      createGroup(4, "Payment Gateway", "gateway", "payments/gateway"),
+      createGroup(5, "Data Platform", "data-platform", "data/data-platform")));
+
+  @Test
+  public void testPrefixSearch() {
+    assertEquals(List.of(1L, 2L, 5L), search("platf", 10));
+    assertEquals(List.of(3L, 4L), search("paym", 10));
+    assertEquals(List.of(3L), search("payments", 1));
+  }
+
+  @Test
+  public void testExactMatchFirst() {
+    assertEquals(List.of(1L, 2L, 5L), search("platform", 10));
+    assertEquals(List.of(3L, 4L), search("payments", 10));
+  }
+
+  @Test
+  public void testSubstringSearch() {
+    assertEquals(List.of(4L), search("atewa", 10));
+  }
+
+  @Test
+  public void testSimilaritySearch() {
+    assertEquals(List.of(4L), search("gatewya", 10));
+  }
+
+  @Test
+  public void testFilter() {
+    List<Long> ids = index.search("platform", group -> group.getId() != 1L, 10).stream().map(GLGroup::getId)
+        .collect(Collectors.toList());
+    assertEquals(List.of(2L, 5L), ids);
+  }
+
+  @Test
+  public void testIncrementalUpdates() {
+    GroupIndex updated = index.with(createGroup(1, "Core", "core", "core"))
+        .with(createGroup(6, "Platform Ops", "ops", "platform/ops")).without(2).without(42);
+
+    assertEquals(List.of(6L, 5L), search(updated, "platf", 10));
+    assertEquals(List.of(1L), search(updated, "core", 10));
+    assertEquals(List.of(4L), search(updated, "atewa", 10));
+    assertEquals(List.of(1L, 2L, 5L), search(index, "platf", 10));
+
+    updated = updated.with(createGroup(2, "Platform Tools", "tools", "platform/tools")).without(6);
+    assertEquals(List.of(2L, 5L), search(updated, "platf", 10));
+  }
+
+  @Test
+  public void testMerge() {
+    GroupIndex updated = index;
+    for (long id = 10; id < 210; id++) {
+      updated = updated.with(createGroup(id, "Team " + id, "team-" + id, "teams/team-" + id));
+    }
+    updated = updated.with(createGroup(3, "Billing", "billing", "billing")).without(4);
+
+    assertEquals(200, search(updated, "team", 1000).size());
+    assertEquals(List.of(3L), search(updated, "billing", 10));
+    assertEquals(List.of(), search(updated, "paym", 10));
+    assertEquals(List.of(1L, 2L, 5L), search(updated, "platf", 10));
+  }
+
+  private List<Long> search(String query, int limit) {
+    return search(index, query, limit);
+  }
+
+  private static List<Long> search(GroupIndex index, String query, int limit) {
+    return index.search(query, group -> true, limit).stream().map(GLGroup::getId).collect(Collectors.toList());
+  }
+
+  private static GLGroup createGroup(long id, String name, String path, String fullPath) {
+    GLGroup group = new GLGroup();
+    group.setId(id);
+    group.setName(name);
+    group.setPath(path);
+    group.setFullPath(fullPath);
+    return group;
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RejectedTokenFilterTest {
+  private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+  @Test
+  public void testExpiry() throws NoSuchAlgorithmException {
+    RejectedTokenFilter filter = new RejectedTokenFilter(1000, 0.000001, Duration.ofMinutes(10));
+    long now = System.nanoTime();
+
+    filter.add(hash("invalid"), now);
+    assertTrue(filter.mightContain(hash("invalid"), now));
+    assertFalse(filter.mightContain(hash("valid"), now));
+
+    // Still remembered after the first rotation, forgotten after the second one
+    assertTrue(filter.mightContain(hash("invalid"), now + 6 * MINUTE));
+    assertFalse(filter.mightContain(hash("invalid"), now + 11 * MINUTE));
+  }
+
+  @Test
+  public void testFalsePositiveProbability() throws NoSuchAlgorithmException {
+    RejectedTokenFilter filter = new RejectedTokenFilter(10000, 0.001, Duration.ofMinutes(10));
+    assertEquals(10, filter.getNumHashes());
+    long now = System.nanoTime();
+    for (int i = 0; i < 9999; i++) {
+      filter.add(hash("invalid-" + i), now);
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain(hash("valid-" + i), now)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < 200, "False positives: " + falsePositives);
+    assertTrue(filter.mightContain(hash("invalid-42"), now));
+  }
+
+  @Test
+  public void testFullGenerationIsRotated() throws NoSuchAlgorithmException {
+    RejectedTokenFilter filter = new RejectedTokenFilter(2, 0.001, Duration.ofMinutes(10));
+    long now = System.nanoTime();
+
+    filter.add(hash("first"), now);
+    filter.add(hash("second"), now);
+    filter.add(hash("third"), now);
+    filter.add(hash("fourth"), now);
+    assertFalse(filter.mightContain(hash("first"), now));
+    assertTrue(filter.mightContain(hash("third"), now));
+    assertTrue(filter.mightContain(hash("fourth"), now));
+  }
+
+  private static byte[] hash(String token) throws NoSuchAlgorithmException {
+    return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SharedCacheTest {
+
+  @Test
+  public void testSharedCache() throws InterruptedException, IOException {
+    int firstPort = getFreePort();
+    int secondPort = getFreePort();
+    List<String> members = List.of("127.0.0.1:" + firstPort, "127.0.0.1:" + secondPort);
+    String clusterName = "test-" + UUID.randomUUID();
+    GitLabCacheConfig firstConfig = createCacheConfig(clusterName, firstPort, members);
+    GitLabCacheConfig secondConfig = createCacheConfig(clusterName, secondPort, members);
+    HazelcastInstance first = Hazelcast.newHazelcastInstance(createConfig(firstConfig));
+    HazelcastInstance second = Hazelcast.newHazelcastInstance(createConfig(secondConfig));
+    try {
+      CacheManager firstCacheManager = firstConfig.createCacheManager(first);
+      CacheManager secondCacheManager = secondConfig.createCacheManager(second);
+      Cache firstCache = firstCacheManager.getCache(GitLabService.CACHE_MEMBERSHIPS);
+      Cache secondCache = secondCacheManager.getCache(GitLabService.CACHE_MEMBERSHIPS);
+      assertNotNull(firstCache);
+      assertNotNull(secondCache);
+
+      firstCache.put(42L, List.of("value"));
+      assertEquals(List.of("value"), secondCache.get(42L).get());
+
+      secondCache.evict(42L);
+      for (int i = 0; i < 50 && firstCache.get(42L) != null; i++) {
+        Thread.sleep(100);
+      }
+      assertNull(firstCache.get(42L));
+
+      // Variables are never shared
+      Cache firstVariables = firstCacheManager.getCache(GitLabService.CACHE_VARIABLES);
+      assertInstanceOf(CaffeineCache.class, firstVariables);
+      firstVariables.put(42L, List.of("secret"));
+      assertNull(secondCacheManager.getCache(GitLabService.CACHE_VARIABLES).get(42L));
+    } finally {
+      second.shutdown();
+      first.shutdown();
+    }
+  }
+
+  @Test
+  public void testMembersRequired() {
+    GitLabCacheConfig cacheConfig = new GitLabCacheConfig();
+    cacheConfig.getShared().setEnabled(true);
+
+    assertThrows(IllegalStateException.class, cacheConfig::createSharedConfig);
+  }
+
+  private static GitLabCacheConfig createCacheConfig(String clusterName, int port, List<String> members) {
+    GitLabCacheConfig cacheConfig = new GitLabCacheConfig();
+    cacheConfig.getShared().setClusterName(clusterName);
+    cacheConfig.getShared().setPort(port);
+    cacheConfig.getShared().setMembers(members);
+    return cacheConfig;
+  }
+
+  private static Config createConfig(GitLabCacheConfig cacheConfig) {
+    Config config = cacheConfig.createSharedConfig();
+    config.setProperty("hazelcast.local.localAddress", "127.0.0.1");
+    config.getNetworkConfig().setPortAutoIncrement(false);
+    return config;
+  }
+
+  private static int getFreePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
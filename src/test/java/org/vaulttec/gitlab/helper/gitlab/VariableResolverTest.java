@@ -0,0 +1,80 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class VariableResolverTest {
+  private VariableResolver resolver;
+
+  @BeforeEach
+  public void setUp() {
+    GitLabService service = mock(GitLabService.class);
+    GroupCatalog catalog = mock(GroupCatalog.class);
+    when(catalog.getAncestry(3)).thenReturn(List.of(3L, 2L, 1L));
+    when(service.getGroupVariables(3)).thenReturn(List.of(createVariable("TOKEN", "production", "3")));
+    when(service.getGroupVariables(2)).thenReturn(List.of(createVariable("TOKEN", "*", "2"),
+        createVariable("URL", "review/*", "2"), createVariable("URL", "*", "2")));
+    when(service.getGroupVariables(1)).thenReturn(List.of(createVariable("TOKEN", "production", "1"),
+        createVariable("URL", "review/feature", "1"), createVariable("USER", "*", "1")));
+    resolver = new VariableResolver(service, catalog, Runnable::run);
+  }
+
+  @Test
+  public void testAllEffectiveVariables() {
+    List<String> variables = resolver.getEffectiveVariables(3, null).stream().map(VariableResolverTest::toString).collect(Collectors.toList());
+
+    assertEquals(List.of("TOKEN@production=3", "TOKEN@*=2", "URL@review/*=2", "URL@*=2", "URL@review/feature=1",
+        "USER@*=1"), variables);
+  }
+
+  @Test
+  public void testEffectiveVariablesOfEnvironment() {
+    assertEquals(List.of("TOKEN@production=3", "URL@*=2", "USER@*=1"), resolver.getEffectiveVariables(3, "production").stream().map(VariableResolverTest::toString).collect(Collectors.toList()));
+    assertEquals(List.of("TOKEN@*=2", "URL@review/*=2", "USER@*=1"), resolver.getEffectiveVariables(3, "review/feature").stream().map(VariableResolverTest::toString).sorted().collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testMatchesEnvironment() {
+    assertTrue(VariableResolver.matchesEnvironment("*", "production"));
+    assertTrue(VariableResolver.matchesEnvironment("review/*", "review/feature"));
+    assertFalse(VariableResolver.matchesEnvironment("review/*", "production"));
+    assertFalse(VariableResolver.matchesEnvironment("production", "prod"));
+  }
+
+  private static GLVariable createVariable(String key, String environmentScope, String value) {
+    GLVariable variable = new GLVariable();
+    variable.setKey(key);
+    variable.setValue(value);
+    variable.setEnvironmentScope(environmentScope);
+    return variable;
+  }
+
+  private static String toString(InheritedVariable inherited) {
+    return inherited.getVariable().getKey() + "@" + inherited.getVariable().getEnvironmentScope() + "=" + inherited.getVariable().getValue();
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab;
+
+import org.junit.jupiter.api.Test;
+import org.vaulttec.gitlab.helper.gitlab.model.GLVariable;
+
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class VariableValueStoreTest {
+  private static final String LARGE_VALUE = "-----BEGIN CERTIFICATE-----\n"
+      + "MIIDdzCCAl+gAwIBAgIEAgAAuTANBgkqhkiG9w0BAQUFADBaMQswCQYDVQQGEwJJ\n".repeat(100)
+      + "-----END CERTIFICATE-----\n";
+
+  @Test
+  public void testCompressedAndEncrypted() throws Exception {
+    assertStored(new VariableValueStore(1024, true));
+  }
+
+  @Test
+  public void testPlain() throws Exception {
+    assertStored(new VariableValueStore(-1, false));
+  }
+
+  private static void assertStored(VariableValueStore store) throws Exception {
+    List<GLVariable> variables = List.of(createVariable("SMALL", "sm\u00e4ll"), createVariable("LARGE", LARGE_VALUE),
+        createVariable("EMPTY", ""), createVariable("NULL", null));
+    store.store(variables);
+
+    assertEquals("sm\u00e4ll", variables.get(0).getValue());
+    assertEquals(LARGE_VALUE, variables.get(1).getValue());
+    assertEquals("", variables.get(2).getValue());
+    assertNotNull(variables.get(1).getStoredValue());
+    assertNull(variables.get(3).getStoredValue());
+    assertNull(variables.get(3).getValue());
+    try (Reader reader = variables.get(1).getStoredValue().openReader()) {
+      StringWriter writer = new StringWriter();
+      reader.transferTo(writer);
+      assertEquals(LARGE_VALUE, writer.toString());
+    }
+  }
+
+  private static GLVariable createVariable(String key, String value) {
+    GLVariable variable = new GLVariable();
+    variable.setKey(key);
+    variable.setValue(value);
+    return variable;
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.helper.gitlab.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class GLVariableTest {
+
+  @Test
+  public void testEqualsIncludesEnvironmentScope() {
+    GLVariable variable = createVariable("KEY", "*");
+
+    assertEquals(variable, createVariable("KEY", null));
+    assertEquals(variable.hashCode(), createVariable("KEY", "").hashCode());
+    assertNotEquals(variable, createVariable("KEY", "production"));
+    assertNotEquals(variable, createVariable("OTHER_KEY", "*"));
+    assertEquals(GLVariableKey.of(variable), GLVariableKey.of(createVariable("KEY", null)));
+    assertNotEquals(GLVariableKey.of(variable), GLVariableKey.of(createVariable("KEY", "production")));
+  }
+
+  private static GLVariable createVariable(String key, String environmentScope) {
+    GLVariable variable = new GLVariable();
+    variable.setKey(key);
+    variable.setEnvironmentScope(environmentScope);
+    return variable;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.vaulttec.http.client.Bulkhead;
+import org.vaulttec.http.client.BulkheadFullException;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BulkheadTest {
+
+  @Test
+  public void testQueueFull() {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    Bulkhead bulkhead = new Bulkhead("test", "reads", meterRegistry, 1, 0, Duration.ofSeconds(10));
+
+    bulkhead.acquire();
+    long start = System.nanoTime();
+    BulkheadFullException e = assertThrows(BulkheadFullException.class, bulkhead::acquire);
+    // Rejected without waiting
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertEquals(Duration.ofSeconds(10), e.getRetryAfter());
+    assertEquals(1, (long) meterRegistry.get("test.bulkhead.rejected").tag("reason", "queue-full").counter().count());
+
+    bulkhead.release();
+    bulkhead.acquire();
+    assertEquals(0, bulkhead.getAvailablePermits());
+  }
+
+  @Test
+  public void testWaitTimeout() {
+    Bulkhead bulkhead = new Bulkhead("test", "writes", new SimpleMeterRegistry(), 1, 1, Duration.ofMillis(50));
+
+    bulkhead.acquire();
+    BulkheadFullException e = assertThrows(BulkheadFullException.class, bulkhead::acquire);
+    assertEquals(Duration.ofSeconds(1), e.getRetryAfter());
+    assertEquals(0, bulkhead.getWaiting());
+  }
+
+  @Test
+  public void testWaitForPermit() throws InterruptedException {
+    Bulkhead bulkhead = new Bulkhead("test", "reads", new SimpleMeterRegistry(), 1, 1, Duration.ofSeconds(10));
+    CountDownLatch acquired = new CountDownLatch(1);
+    AtomicBoolean waited = new AtomicBoolean();
+
+    bulkhead.acquire();
+    Thread waiting = new Thread(() -> {
+      bulkhead.acquire();
+      waited.set(true);
+      acquired.countDown();
+    });
+    waiting.start();
+    while (bulkhead.getWaiting() == 0) {
+      Thread.sleep(1);
+    }
+    // The wait queue is full now
+    assertThrows(BulkheadFullException.class, bulkhead::acquire);
+
+    bulkhead.release();
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    assertTrue(waited.get());
+  }
+}
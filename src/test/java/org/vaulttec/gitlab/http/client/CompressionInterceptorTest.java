@@ -0,0 +1,123 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+import org.vaulttec.http.client.CompressionInterceptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class CompressionInterceptorTest {
+  private static final Logger LOG = LoggerFactory.getLogger(CompressionInterceptorTest.class);
+  private static final String URL = "http://gitlab.local/api/v4/groups/1/variables";
+
+  @Test
+  public void testGzipResponse() throws IOException {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    RestTemplate restTemplate = new RestTemplate();
+    restTemplate.getInterceptors().add(new CompressionInterceptor("test", meterRegistry));
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    byte[] json = createVariablesPage(100);
+    byte[] compressed = gzip(json);
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+    server.expect(requestTo(URL)).andExpect(header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+        .andRespond(withSuccess(compressed, MediaType.APPLICATION_JSON).headers(headers));
+
+    List<Map<String, Object>> variables = restTemplate.exchange(URL, HttpMethod.GET, null,
+        new ParameterizedTypeReference<List<Map<String, Object>>>() {
+        }).getBody();
+
+    server.verify();
+    assertEquals(100, variables.size());
+    double wireBytes = meterRegistry.get("test.response.bytes").tag("type", "wire").counter().count();
+    double decodedBytes = meterRegistry.get("test.response.bytes").tag("type", "decoded").counter().count();
+    assertEquals(compressed.length, (long) wireBytes);
+    assertEquals(json.length, (long) decodedBytes);
+    LOG.info("Page of 100 variables: {} bytes decoded, {} bytes on the wire ({}% saved)", json.length,
+        compressed.length, 100 - compressed.length * 100 / json.length);
+  }
+
+  @Test
+  public void testUncompressedResponse() {
+    RestTemplate restTemplate = new RestTemplate();
+    restTemplate.getInterceptors().add(new CompressionInterceptor("test", new SimpleMeterRegistry()));
+    MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    server.expect(requestTo(URL)).andRespond(withSuccess("[{\"key\":\"KEY\"}]", MediaType.APPLICATION_JSON));
+
+    List<Map<String, Object>> variables = restTemplate.exchange(URL, HttpMethod.GET, null,
+        new ParameterizedTypeReference<List<Map<String, Object>>>() {
+        }).getBody();
+
+    server.verify();
+    assertEquals("KEY", variables.get(0).get("key"));
+  }
+
+  /**
+   * Creates a page of GitLab variables resembling the ones of our groups - mostly random tokens and some
+   * certificates.
+   */
+  private static byte[] createVariablesPage(int size) throws IOException {
+    Random random = new Random(42);
+    List<Map<String, Object>> variables = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      Map<String, Object> variable = new LinkedHashMap<>();
+      boolean isFile = i % 10 == 0;
+      byte[] value = new byte[isFile ? 1500 : 24];
+      random.nextBytes(value);
+      variable.put("variable_type", isFile ? "file" : "env_var");
+      variable.put("key", (isFile ? "CERTIFICATE_" : "SERVICE_TOKEN_") + i);
+      variable.put("value", isFile
+          ? "-----BEGIN CERTIFICATE-----\n" + Base64.getMimeEncoder().encodeToString(value) + "\n-----END CERTIFICATE-----\n"
+          : Base64.getEncoder().encodeToString(value));
+      variable.put("protected", i % 2 == 0);
+      variable.put("masked", !isFile);
+      variable.put("raw", false);
+      variable.put("environment_scope", i % 3 == 0 ? "production" : "*");
+      variables.add(variable);
+    }
+    return new ObjectMapper().writeValueAsBytes(variables);
+  }
+
+  private static byte[] gzip(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+      gzip.write(data);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.vaulttec.http.client.Bulkhead;
+import org.vaulttec.http.client.Deadline;
+import org.vaulttec.http.client.DeadlineExceededException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeadlineTest {
+
+  @Test
+  public void testPropagate() throws Exception {
+    Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      deadline.attach();
+      assertEquals(deadline, CompletableFuture.supplyAsync(Deadline.propagate(Deadline::current), executor).get());
+      // The executor's thread doesn't keep the deadline
+      Deadline.detach();
+      assertNull(CompletableFuture.supplyAsync(Deadline.propagate(Deadline::current), executor).get());
+    } finally {
+      Deadline.detach();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCancel() {
+    Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+    assertFalse(deadline.isExpired());
+    assertTrue(deadline.getRemainingMillis() > TimeUnit.SECONDS.toMillis(50));
+
+    deadline.cancel();
+    assertTrue(deadline.isExpired());
+    assertEquals(0, deadline.getRemainingMillis());
+    assertThrows(DeadlineExceededException.class, deadline::check);
+  }
+
+  @Test
+  public void testBulkheadWaitsUntilDeadline() {
+    Bulkhead bulkhead = new Bulkhead("test", "reads", new SimpleMeterRegistry(), 1, 1, Duration.ofSeconds(10));
+    bulkhead.acquire();
+    Deadline.after(Duration.ofMillis(50)).attach();
+    try {
+      long start = System.nanoTime();
+      assertThrows(DeadlineExceededException.class, bulkhead::acquire);
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    } finally {
+      Deadline.detach();
+    }
+  }
+}
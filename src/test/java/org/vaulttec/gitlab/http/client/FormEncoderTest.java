@@ -0,0 +1,54 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.vaulttec.http.client.FormEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FormEncoderTest {
+
+  @Test
+  public void testWrite() throws IOException {
+    MultiValueMap<String, String> fields = new LinkedMultiValueMap<>();
+    fields.add("key", "KEY");
+    fields.add("filter[environment_scope]", "review/*");
+    String value = "line 1\nline 2 & more: 100% \u00e4".repeat(1000);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FormEncoder.write(fields, "value", new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)), out);
+    assertEquals("key=KEY&filter%5Benvironment_scope%5D=review%2F*&value=" + URLEncoder.encode(value, StandardCharsets.UTF_8),
+        out.toString(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void testWriteEmpty() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FormEncoder.write(new LinkedMultiValueMap<>(), "value", new ByteArrayInputStream(new byte[0]), out);
+    assertEquals("value=", out.toString(StandardCharsets.US_ASCII));
+  }
+}
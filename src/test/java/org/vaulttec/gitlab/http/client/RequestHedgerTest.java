@@ -0,0 +1,160 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.vaulttec.http.client.Deadline;
+import org.vaulttec.http.client.DeadlineExceededException;
+import org.vaulttec.http.client.RequestHedger;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestHedgerTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final RequestHedger hedger = new RequestHedger("test", meterRegistry, 0.95, Duration.ofMillis(10), 100, 1);
+
+  @Test
+  public void testHedgeWins() {
+    warmUp();
+    Thread caller = Thread.currentThread();
+    AtomicBoolean primaryOnCaller = new AtomicBoolean();
+    AtomicBoolean primaryAborted = new AtomicBoolean();
+
+    String response = hedger.execute("/endpoint", () -> {
+      if (Thread.currentThread() == caller) {
+        primaryOnCaller.set(true);
+        primaryAborted.set(awaitCancellation(2000));
+        throw new DeadlineExceededException("Request cancelled");
+      }
+      return "hedge";
+    });
+
+    assertEquals("hedge", response);
+    assertTrue(primaryOnCaller.get());
+    assertTrue(primaryAborted.get());
+    assertEquals(1.0, meterRegistry.get("test.hedging.hedges").counter().count());
+    assertEquals(1.0, meterRegistry.get("test.hedging.wins").counter().count());
+  }
+
+  @Test
+  public void testPrimaryWins() {
+    warmUp();
+    Thread caller = Thread.currentThread();
+    AtomicBoolean hedgeAborted = new AtomicBoolean();
+
+    String response = hedger.execute("/endpoint", () -> {
+      if (Thread.currentThread() == caller) {
+        sleep(200);
+        return "primary";
+      }
+      hedgeAborted.set(awaitCancellation(2000));
+      throw new DeadlineExceededException("Request cancelled");
+    });
+
+    assertEquals("primary", response);
+    for (int i = 0; i < 50 && !hedgeAborted.get(); i++) {
+      sleep(10);
+    }
+    assertTrue(hedgeAborted.get());
+    assertEquals(0.0, meterRegistry.get("test.hedging.wins").counter().count());
+  }
+
+  @Test
+  public void testConcurrentHedgesLimited() {
+    warmUp();
+    Thread caller = Thread.currentThread();
+    CompletableFuture<String> other = CompletableFuture.supplyAsync(() -> hedger.execute("/endpoint", () -> {
+      sleep(500);
+      return "other";
+    }));
+    sleep(100);
+
+    // The only hedge permit is taken by the other request's hedge
+    String response = hedger.execute("/endpoint", () -> {
+      if (Thread.currentThread() == caller) {
+        sleep(200);
+        return "primary";
+      }
+      return "hedge";
+    });
+
+    assertEquals("primary", response);
+    assertEquals("other", other.join());
+    assertEquals(1.0, meterRegistry.get("test.hedging.hedges").counter().count());
+  }
+
+  @Test
+  public void testFastResponseNotHedged() {
+    warmUp();
+    AtomicInteger attempts = new AtomicInteger();
+
+    assertEquals("primary", hedger.execute("/endpoint", () -> {
+      attempts.incrementAndGet();
+      return "primary";
+    }));
+
+    assertEquals(1, attempts.get());
+    assertEquals(0.0, meterRegistry.get("test.hedging.hedges").counter().count());
+  }
+
+  @Test
+  public void testExceptionRethrown() {
+    warmUp();
+    IllegalArgumentException exception = new IllegalArgumentException();
+
+    assertSame(exception, assertThrows(IllegalArgumentException.class, () -> hedger.execute("/endpoint", () -> {
+      throw exception;
+    })));
+  }
+
+  private void warmUp() {
+    for (int i = 0; i < 50; i++) {
+      hedger.execute("/endpoint", () -> "warm-up");
+    }
+  }
+
+  /**
+   * Blocks like a pending API call until the attempt's deadline is cancelled. Returns {@code true} if it was.
+   */
+  private static boolean awaitCancellation(long maxMillis) {
+    Deadline deadline = Deadline.current();
+    for (int i = 0; i < maxMillis / 10 && !deadline.isCancelled(); i++) {
+      sleep(10);
+    }
+    return deadline.isCancelled();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.LinkedMultiValueMap;
+import org.vaulttec.http.client.AbstractRestClient;
+import org.vaulttec.http.client.RestClientConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingWriteApiCallTest {
+
+  @Test
+  public void testFailingStreamClosesConnection() throws Exception {
+    try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      // Reads the request until the client closes (or resets) the connection
+      CompletableFuture<Boolean> closed = CompletableFuture.supplyAsync(() -> {
+        try (Socket socket = server.accept()) {
+          InputStream in = socket.getInputStream();
+          byte[] buffer = new byte[8192];
+          while (in.read(buffer) >= 0) {
+            // Discard the request
+          }
+        } catch (IOException e) {
+          // Connection reset by the client
+        }
+        return true;
+      });
+      TestClient client = new TestClient("http://localhost:" + server.getLocalPort());
+      assertThrows(IllegalStateException.class, () -> client.upload(new FailingInputStream(20000)));
+      // Without aborting the chunked connection would be kept open until it's garbage collected
+      assertTrue(closed.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  private static class TestClient extends AbstractRestClient {
+
+    TestClient(String serverUrl) {
+      super(new TestConfig(serverUrl), new RestTemplateBuilder());
+    }
+
+    String upload(InputStream stream) {
+      return makeStreamingWriteApiCall("/upload", HttpMethod.POST, new HttpHeaders(), new LinkedMultiValueMap<>(),
+          "value", stream, String.class, createVariablesMap());
+    }
+  }
+
+  private static class TestConfig implements RestClientConfig {
+    private final String serverUrl;
+
+    TestConfig(String serverUrl) {
+      this.serverUrl = serverUrl;
+    }
+
+    @Override
+    public String getServerUrl() {
+      return serverUrl;
+    }
+
+    @Override
+    public String getApiPath() {
+      return "/api";
+    }
+
+    @Override
+    public int getPerPage() {
+      return 100;
+    }
+
+    @Override
+    public Proxy getProxy() {
+      return null;
+    }
+
+    @Override
+    public Duration getConnectTimeout() {
+      return Duration.ofSeconds(5);
+    }
+
+    @Override
+    public Duration getReadTimeout() {
+      return Duration.ofSeconds(5);
+    }
+  }
+
+  /**
+   * Returns the given number of bytes and fails afterwards, like a variable value which can't be read completely.
+   */
+  private static class FailingInputStream extends InputStream {
+    private int remaining;
+
+    FailingInputStream(int size) {
+      this.remaining = size;
+    }
+
+    @Override
+    public int read() {
+      if (remaining-- <= 0) {
+        throw new IllegalStateException("Value not available");
+      }
+      return 'x';
+    }
+  }
+}
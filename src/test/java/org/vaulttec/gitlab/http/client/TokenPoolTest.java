@@ -0,0 +1,89 @@
+/*
+ * GitLab Helper
+ * Copyright (c) 2022 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.gitlab.http.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.vaulttec.http.client.TokenPool;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TokenPoolTest {
+
+  @Test
+  public void testRoundRobinWithUnknownBudget() {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    TokenPool pool = new TokenPool("test", meterRegistry, List.of("a", "b", "c"), Duration.ofMinutes(5));
+
+    Set<String> names = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      names.add(pool.select(0).getName());
+    }
+    assertEquals(3, names.size());
+    assertEquals(1, (long) meterRegistry.get("test.token.requests").tag("token", "token-0").counter().count());
+  }
+
+  @Test
+  public void testMostRemainingBudget() {
+    TokenPool pool = new TokenPool("test", new SimpleMeterRegistry(), List.of("a", "b"), Duration.ofMinutes(5));
+    TokenPool.Token first = pool.select(0);
+    TokenPool.Token second = pool.select(0);
+    pool.updateRateLimit(first, 10, 60_000);
+    pool.updateRateLimit(second, 100, 60_000);
+
+    assertEquals(second, pool.select(1_000));
+    assertEquals(second, pool.select(1_000));
+
+    // Budget exhausted until reset
+    pool.updateRateLimit(second, 0, 60_000);
+    assertEquals(first, pool.select(1_000));
+    assertNull(pool.selectOther(first, 1_000));
+    assertEquals(first, pool.select(60_000));
+  }
+
+  @Test
+  public void testSuspension() {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    TokenPool pool = new TokenPool("test", meterRegistry, List.of("a", "b"), Duration.ofMinutes(5));
+    TokenPool.Token first = pool.select(0);
+    TokenPool.Token second = pool.select(0);
+
+    pool.suspend(first, "unauthorized", 10_000);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(second, pool.select(1_000));
+    }
+    assertEquals(second, pool.selectOther(first, 1_000));
+    assertEquals(1, (long) meterRegistry.get("test.token.suspended").tag("token", first.getName())
+        .tag("reason", "unauthorized").counter().count());
+
+    // All tokens suspended - the one available first is used
+    pool.suspend(second, "rate-limited", 20_000);
+    assertEquals(first, pool.select(1_000));
+    assertNull(pool.selectOther(second, 1_000));
+
+    // Suspension expired
+    assertEquals(first, pool.selectOther(second, 10_000));
+  }
+}